@@ -0,0 +1,149 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Bench class to time the hot paths of the server in isolation.
+ *
+ * Works like a small JMH: every benchmark is first sized so that one
+ * iteration takes about a second, then run for a few warmup iterations that
+ * are thrown away, and then for the measured iterations. The average time per
+ * operation and its spread are printed, one line per benchmark, with the
+ * bytes allocated per operation by the benchmark thread; allocations on other
+ * threads, such as broadcast shards, are not counted. Results of every
+ * operation are folded into a sink so the JIT cannot remove the work.
+ *
+ * Usage: {@code Bench [regex] [roster size] [indexed messages]}
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class Bench {
+
+	// globals
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURE_ITERATIONS = 5;
+	private static final long ITERATION_NANOS = 1000000000L;
+
+	public static volatile long sink; /*<< keeps results alive */
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Case interface for a single benchmark.
+	 */
+	public interface Case {
+		/**
+		 * Runs the benchmarked operation a number of times.
+		 *
+		 * @param ops the number of times to run the operation.
+		 *
+		 * @return any value depending on the work done.
+		 * @throws Exception when the operation fails.
+		 */
+		public long run(int ops) throws Exception;
+	}
+
+	/**
+	 * Times a single benchmark.
+	 *
+	 * @param c the benchmark to time.
+	 *
+	 * @return nanoseconds per operation of every measured iteration, followed
+	 * by the bytes allocated per operation over all of them.
+	 * @throws Exception when the benchmark fails.
+	 */
+	private static double[] measure(Case c) throws Exception {
+		// grow the batch until timing it is meaningful
+		int ops = 1;
+		long took = time(c, ops);
+
+		while (took < 10000000L && ops < (1 << 30)) {
+			ops *= 2;
+			took = time(c, ops);
+		}
+
+		ops = (int) Math.max(1, Math.min(Integer.MAX_VALUE, ops * (double) ITERATION_NANOS / took));
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			time(c, ops);
+		}
+
+		double[] results = new double[MEASURE_ITERATIONS + 1];
+		long allocated = THREADS.getCurrentThreadAllocatedBytes();
+
+		for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+			results[i] = (double) time(c, ops) / ops;
+		}
+
+		allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+		results[MEASURE_ITERATIONS] = (double) allocated / ((long) ops * MEASURE_ITERATIONS);
+
+		return results;
+	}
+
+	/**
+	 * Runs a batch of operations.
+	 *
+	 * @return nanoseconds the batch took.
+	 */
+	private static long time(Case c, int ops) throws Exception {
+		long start = System.nanoTime();
+		sink += c.run(ops);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Main function.
+	 *
+	 * @param args the command-line arguments.
+	 * @throws Exception when a benchmark fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+		int rosterSize = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int documents = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+
+		Map<String, Case> cases = new LinkedHashMap<>();
+		ProtocolBench.register(cases);
+		RosterBench.register(cases, rosterSize);
+		BroadcastBench.register(cases);
+		SearchBench.register(cases, documents);
+
+		List<String> selected = new ArrayList<>();
+		for (String name : cases.keySet()) {
+			if (filter.matcher(name).find()) {
+				selected.add(name);
+			}
+		}
+
+		System.out.printf("%-28s %5s %5s %12s %10s %6s %10s\n", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units",
+			"B/op");
+
+		for (String name : selected) {
+			double[] results = measure(cases.get(name));
+
+			double mean = 0;
+			for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+				mean += results[i];
+			}
+			mean /= MEASURE_ITERATIONS;
+
+			double var = 0;
+			for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+				var += (results[i] - mean) * (results[i] - mean);
+			}
+			double stddev = Math.sqrt(var / Math.max(1, MEASURE_ITERATIONS - 1));
+
+			System.out.printf(Locale.ROOT, "%-28s %5s %5d %12.3f %10.3f %6s %10.1f\n",
+				name, "avgt", MEASURE_ITERATIONS, mean, stddev, "ns/op", results[MEASURE_ITERATIONS]);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BroadcastBench class with benchmarks for fanning a message out to a large
+ * room.
+ *
+ * Times one broadcast to every member of a room, from handing it over until
+ * every member has it queued, with the members split over a growing number of
+ * {@link Broadcaster} shards. With 0 shards the broadcast is fanned out on
+ * the sending thread, as a single shard would but without the hand-off. No
+ * sockets are opened; handlers only queue their frames, and the queues are
+ * emptied before they fill up.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class BroadcastBench {
+
+	// globals
+	private static final int ROOM = 10000;
+
+	/**
+	 * Adds the broadcast benchmarks.
+	 *
+	 * @param cases benchmarks by name.
+	 * @throws Exception when the handlers cannot be prepared.
+	 */
+	public static void register(Map<String, Bench.Case> cases) throws Exception {
+		Field username = ClientHandler.class.getDeclaredField("username");
+		Field version = ClientHandler.class.getDeclaredField("version");
+		username.setAccessible(true);
+		version.setAccessible(true);
+
+		Server room = new Server(0);
+		ClientHandler[] handlers = new ClientHandler[ROOM];
+
+		for (int i = 0; i < ROOM; i++) {
+			handlers[i] = new ClientHandler(room);
+			username.set(handlers[i], "member" + i);
+			version.set(handlers[i], i % 2 == 0 ? Command.TEXT : Command.BINARY);
+		}
+
+		Frame text = Frame.of("msg member0 : the quick brown fox jumps over the lazy dog");
+		Frame binary = new Frame.Builder(Command.MSG).putInt(0).putString("the quick brown fox jumps over the lazy dog")
+			.build();
+
+		// on the sending thread, then doubling up to one shard per core
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<Integer> counts = new ArrayList<>(List.of(0));
+
+		for (int n = 1; n < cores; n *= 2) {
+			counts.add(n);
+		}
+		counts.add(cores);
+
+		for (int shards : counts) {
+			Broadcaster broadcaster = new Broadcaster(shards, room.getMetrics());
+			broadcaster.start();
+
+			for (ClientHandler h : handlers) {
+				broadcaster.add(h);
+			}
+
+			cases.put("broadcast.shards" + shards, ops -> {
+				long target = fannedOut(broadcaster);
+
+				for (int i = 0; i < ops; i++) {
+					// empty the queues before they fill up
+					if (i % (ClientHandler.QUEUE_CAPACITY - 1) == 0) {
+						await(broadcaster, target);
+
+						for (ClientHandler h : handlers) {
+							h.discard();
+						}
+					}
+
+					broadcaster.broadcast(Command.MSG, text, binary, handlers[0]);
+					target += broadcaster.getShards().size();
+				}
+
+				await(broadcaster, target);
+				return handlers[1].getQueueDepth();
+			});
+		}
+	}
+
+	/**
+	 * Counts the broadcasts every shard has fanned out so far.
+	 *
+	 * @param broadcaster the broadcaster to count.
+	 *
+	 * @return broadcasts fanned out, summed over every shard.
+	 */
+	public static long fannedOut(Broadcaster broadcaster) {
+		long done = 0;
+
+		for (Broadcaster.Shard shard : broadcaster.getShards()) {
+			done += shard.getBroadcasts();
+		}
+
+		return done;
+	}
+
+	/**
+	 * Waits for the shards to fan out everything handed to them.
+	 *
+	 * @param broadcaster the broadcaster to wait for.
+	 * @param target the count {@link #fannedOut} reaches once they have.
+	 */
+	public static void await(Broadcaster broadcaster, long target) {
+		while (fannedOut(broadcaster) < target) {
+			Thread.yield();
+		}
+	}
+}
@@ -0,0 +1,266 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+/**
+ * ProtocolBench class with benchmarks for reading and writing frames.
+ *
+ * Covers the per-message work of a connection: reading a frame the way
+ * {@code ClientHandler.run()} does, looking up its command by string or in
+ * place in the bytes, encoding the frame of a broadcast either with
+ * {@code writeUTF}, once with {@link Frame#of(String)} or into the frame
+ * pool, and writing one broadcast to a hundred recipients the way the nio
+ * event loops and the blocking writers do, from a frame on the heap and from
+ * a pooled one.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class ProtocolBench {
+
+	// globals
+	private static final String MESSAGE = "msg alice : the quick brown fox jumps over the lazy dog";
+	private static final String[] KEYS = {"msg", "whsp", "login", "logout", "users", "proto", "nope"};
+	private static final int FRAMES = 1024;
+	private static final int RECIPIENTS = 100;
+
+	private static volatile ByteBuffer written; /*<< last buffer given to the sink channel */
+
+	/**
+	 * Adds the protocol benchmarks.
+	 *
+	 * @param cases benchmarks by name.
+	 * @throws Exception when the input cannot be prepared.
+	 */
+	public static void register(Map<String, Bench.Case> cases) throws Exception {
+		// a stream of text frames, read over and over
+		ByteArrayOutputStream textBytes = new ByteArrayOutputStream();
+		DataOutputStream textOut = new DataOutputStream(textBytes);
+		for (int i = 0; i < FRAMES; i++) {
+			textOut.writeUTF(MESSAGE);
+		}
+		ByteArrayInputStream textIn = new ByteArrayInputStream(textBytes.toByteArray());
+		DataInputStream textDis = new DataInputStream(textIn);
+
+		// a stream of binary whisper frames
+		ByteArrayOutputStream binaryBytes = new ByteArrayOutputStream();
+		Frame whisper = new Frame.Builder(Command.WHSP).putInt(42).putString(MESSAGE).build();
+		for (int i = 0; i < FRAMES; i++) {
+			whisper.writeTo(binaryBytes);
+		}
+		ByteArrayInputStream binaryIn = new ByteArrayInputStream(binaryBytes.toByteArray());
+		DataInputStream binaryDis = new DataInputStream(binaryIn);
+		FrameReader reader = new FrameReader();
+		byte[] buf = new byte[Frame.MAX_LENGTH];
+
+		cases.put("frame.read.text", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				if (textIn.available() == 0) {
+					textIn.reset();
+				}
+
+				// same steps as ClientHandler.run() and handleText()
+				int len = textDis.readUnsignedShort();
+				textDis.readFully(buf, 0, len);
+
+				int idx = 0;
+				while (buf[idx] != ' ') {
+					idx++;
+				}
+
+				Command cmd = Command.getValue(buf, 0, idx);
+				acc += cmd.ordinal() + Frame.decodeText(buf, idx + 1, len - idx - 1).length();
+			}
+
+			return acc;
+		});
+
+		cases.put("frame.read.readUTF", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				if (textIn.available() == 0) {
+					textIn.reset();
+				}
+
+				String msg = textDis.readUTF();
+				int idx = msg.indexOf(' ');
+				acc += Command.getValue(msg.substring(0, idx)).ordinal() + msg.length();
+			}
+
+			return acc;
+		});
+
+		cases.put("frame.read.binary", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				if (binaryIn.available() == 0) {
+					binaryIn.reset();
+				}
+
+				int len = binaryDis.readUnsignedShort();
+				binaryDis.readFully(buf, 0, len);
+
+				FrameReader in = reader.reset(buf, 0, len);
+				acc += Command.fromOpcode((byte) in.getByte()).ordinal() + in.getInt() + in.getString().length();
+			}
+
+			return acc;
+		});
+
+		cases.put("command.getValue", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				acc += Command.getValue(KEYS[i % KEYS.length]).ordinal();
+			}
+
+			return acc;
+		});
+
+		byte[][] keyBytes = new byte[KEYS.length][];
+		for (int i = 0; i < KEYS.length; i++) {
+			keyBytes[i] = (KEYS[i] + " : hi").getBytes();
+		}
+
+		cases.put("command.getValue.bytes", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				byte[] key = keyBytes[i % KEYS.length];
+				acc += Command.getValue(key, 0, key.length - 5).ordinal();
+			}
+
+			return acc;
+		});
+
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(2 + MESSAGE.length() * 3);
+		DataOutputStream encodedOut = new DataOutputStream(encoded);
+
+		cases.put("encode.writeUTF", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				encoded.reset();
+				encodedOut.writeUTF(MESSAGE);
+				acc += encoded.size();
+			}
+
+			return acc;
+		});
+
+		cases.put("encode.frameOf", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				acc += Frame.of(MESSAGE).size();
+			}
+
+			return acc;
+		});
+
+		cases.put("encode.framePooled", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				Frame frame = Frame.pooled(MESSAGE);
+				acc += frame.size();
+				frame.release();
+			}
+
+			return acc;
+		});
+
+		// a socket that takes everything and, like a real one, lets the buffer escape
+		WritableByteChannel sink = new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer src) {
+				int n = src.remaining();
+				src.position(src.limit());
+				written = src;
+				return n;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() { }
+		};
+		ByteBuffer[] views = new ByteBuffer[RECIPIENTS];
+		for (int i = 0; i < RECIPIENTS; i++) {
+			views[i] = Frame.view();
+		}
+
+		cases.put("write.nio.heap", ops -> write(Frame.of(MESSAGE), sink, views, ops));
+		cases.put("write.nio.pooled", ops -> write(Frame.pooled(MESSAGE), sink, views, ops));
+
+		OutputStream nowhere = OutputStream.nullOutputStream();
+		byte[] scratch = new byte[512];
+
+		cases.put("write.blocking.heap", ops -> write(Frame.of(MESSAGE), nowhere, scratch, ops));
+		cases.put("write.blocking.pooled", ops -> write(Frame.pooled(MESSAGE), nowhere, scratch, ops));
+	}
+
+	/**
+	 * Encodes a broadcast and writes it to every recipient's channel, taking
+	 * and releasing a reference per recipient like the client queues do. The
+	 * first frame is only used to pick heap or pool.
+	 */
+	private static long write(Frame first, WritableByteChannel sink, ByteBuffer[] views, int ops) throws Exception {
+		boolean pooled = first.isPooled();
+		first.release();
+		long acc = 0;
+
+		for (int i = 0; i < ops; i++) {
+			Frame frame = pooled ? Frame.pooled(MESSAGE) : Frame.of(MESSAGE);
+
+			for (ByteBuffer view : views) {
+				frame.retain();
+				acc += sink.write(frame.buffer(view));
+				frame.release();
+			}
+
+			frame.release();
+		}
+
+		return acc;
+	}
+
+	/**
+	 * Encodes a broadcast and writes it to every recipient's stream, the way
+	 * the blocking writers do.
+	 */
+	private static long write(Frame first, OutputStream out, byte[] scratch, int ops) throws Exception {
+		boolean pooled = first.isPooled();
+		first.release();
+		long acc = 0;
+
+		for (int i = 0; i < ops; i++) {
+			Frame frame = pooled ? Frame.pooled(MESSAGE) : Frame.of(MESSAGE);
+
+			for (int r = 0; r < RECIPIENTS; r++) {
+				frame.retain();
+				frame.writeTo(out, scratch);
+				acc += frame.size();
+				frame.release();
+			}
+
+			frame.release();
+		}
+
+		return acc;
+	}
+}
@@ -0,0 +1,128 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RosterBench class with benchmarks for keeping track of users.
+ *
+ * Covers a user joining and leaving a server that already has a large roster
+ * online, through {@code Server.addUser} and {@code Server.removeUser}, the
+ * fan-out of a global message through the server's {@link Broadcaster} until
+ * every client has it queued, and adding a message to the recent history on
+ * its own. No sockets are opened; handlers only queue their frames, and the
+ * queues are emptied before they fill up.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class RosterBench {
+
+	// globals
+	private static final int CHURN = 1024;
+	private static final int FANOUT = 1000;
+
+	/**
+	 * Adds the roster benchmarks.
+	 *
+	 * @param cases benchmarks by name.
+	 * @param rosterSize the number of users online while users join and leave.
+	 * @throws Exception when the handlers cannot be prepared.
+	 */
+	public static void register(Map<String, Bench.Case> cases, int rosterSize) throws Exception {
+		Field username = ClientHandler.class.getDeclaredField("username");
+		Field version = ClientHandler.class.getDeclaredField("version");
+		username.setAccessible(true);
+		version.setAccessible(true);
+
+		// large roster, one handler stands in for every resident
+		Server server = new Server(0);
+		List<ClientHandler> clients = server.getClients();
+		ClientHandler resident = new ClientHandler(server);
+
+		for (int i = 0; i < rosterSize; i++) {
+			server.addUser("user" + i, resident);
+			clients.add(resident);
+		}
+
+		ClientHandler[] churn = new ClientHandler[CHURN];
+		for (int i = 0; i < CHURN; i++) {
+			churn[i] = new ClientHandler(server);
+			username.set(churn[i], "churn" + i);
+		}
+
+		cases.put("roster.addRemove", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				ClientHandler h = churn[i & (CHURN - 1)];
+
+				server.addClient(h);
+				acc += server.addUser(h.getUsername(), h) ? 1 : 0;
+				server.removeUser(h);
+			}
+
+			return acc;
+		});
+
+		// a room where everyone gets every message, half on each protocol
+		Server room = new Server(0);
+		Broadcaster broadcaster = room.getBroadcaster();
+		ClientHandler[] handlers = new ClientHandler[FANOUT];
+
+		for (int i = 0; i < FANOUT; i++) {
+			handlers[i] = new ClientHandler(room);
+			username.set(handlers[i], "member" + i);
+			version.set(handlers[i], i % 2 == 0 ? Command.TEXT : Command.BINARY);
+			room.addUser("member" + i, handlers[i]);
+			room.addClient(handlers[i]);
+		}
+
+		History history = room.getHistory();
+
+		cases.put("history.add", ops -> {
+			long acc = 0;
+
+			for (int i = 0; i < ops; i++) {
+				acc += history.add(i % FANOUT, "member", "the quick brown fox jumps over the lazy dog", i);
+			}
+
+			return acc;
+		});
+
+		PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+		broadcaster.start();
+
+		cases.put("roster.fanout", ops -> {
+			PrintStream out = System.out;
+			System.setOut(quiet);
+
+			try {
+				long target = BroadcastBench.fannedOut(broadcaster);
+
+				for (int i = 0; i < ops; i++) {
+					// empty the queues before they fill up
+					if (i % (ClientHandler.QUEUE_CAPACITY - 1) == 0) {
+						BroadcastBench.await(broadcaster, target);
+
+						for (ClientHandler h : handlers) {
+							h.discard();
+						}
+					}
+
+					handlers[i % FANOUT].message("the quick brown fox jumps over the lazy dog");
+					target += broadcaster.getShards().size();
+				}
+
+				BroadcastBench.await(broadcaster, target);
+			} finally {
+				System.setOut(out);
+			}
+
+			return handlers[0].getQueueDepth();
+		});
+	}
+}
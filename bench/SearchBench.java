@@ -0,0 +1,72 @@
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * SearchBench class with benchmarks for searching the chat history.
+ *
+ * Fills a {@link SearchIndex} with a large number of generated messages, with
+ * word frequencies that fall off the way they do in real text, and times
+ * searches for a common word, a rare word, two words together and the
+ * messages of one sender. Searches go through the same read lock as on the
+ * server, with the index idle.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class SearchBench {
+
+	// globals
+	private static final int VOCABULARY = 20000;
+	private static final int SENDERS = 1000;
+	private static final int WORDS_PER_MESSAGE = 8;
+
+	/**
+	 * Adds the search benchmarks.
+	 *
+	 * @param cases benchmarks by name.
+	 * @param documents the number of messages in the index.
+	 */
+	public static void register(Map<String, Bench.Case> cases, int documents) {
+		Random random = new Random(42);
+		SearchIndex index = new SearchIndex(documents, 50);
+		UserDirectory users = new UserDirectory();
+		long time = System.currentTimeMillis() - documents * 100L;
+
+		for (int i = 0; i < SENDERS; i++) {
+			users.register("user" + i);
+		}
+
+		for (int i = 0; i < documents; i++) {
+			StringBuilder text = new StringBuilder();
+
+			for (int w = 0; w < WORDS_PER_MESSAGE; w++) {
+				// roughly Zipf distributed, word0 is the most common
+				int word = (int) Math.min(VOCABULARY - 1, Math.pow(VOCABULARY, random.nextDouble()) - 1);
+				text.append("word").append(word).append(' ');
+			}
+
+			int to = random.nextInt(10) == 0 ? random.nextInt(SENDERS) : SearchIndex.PUBLIC;
+			index.restore(time + i * 100L, random.nextInt(SENDERS), to, text.toString());
+		}
+
+		cases.put("search.commonWord", ops -> search(index, users, "word1", ops));
+		cases.put("search.rareWord", ops -> search(index, users, "word15000", ops));
+		cases.put("search.twoWords", ops -> search(index, users, "word20 word300", ops));
+		cases.put("search.fromUser", ops -> search(index, users, "from:user7 word5", ops));
+	}
+
+	/**
+	 * Runs the same search a number of times.
+	 */
+	private static long search(SearchIndex index, UserDirectory users, String query, int ops) {
+		long acc = 0;
+
+		for (int i = 0; i < ops; i++) {
+			acc += index.search(i % SENDERS, users, query).size();
+		}
+
+		return acc;
+	}
+}
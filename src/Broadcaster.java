@@ -0,0 +1,337 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Broadcaster class to fan frames out to every client on several cores.
+ *
+ * Connected clients are split into shards, each joining the shard with the
+ * fewest clients. Every shard has its own worker thread and a lock-free queue
+ * of broadcasts. A broadcast is encoded once and handed to every shard, and
+ * each worker then queues it for its own clients, so a large roster is
+ * written to by all shards in parallel and the sender does not wait for it.
+ * Broadcasts reach every client in the order they were handed over; frames
+ * sent to a single client, such as whispers, skip the shards and may overtake
+ * a broadcast that is still being fanned out.
+ *
+ * The number of shards is set with the {@code chatter.broadcast.shards}
+ * system property, default one per core. With 0, the default on a single
+ * core, there are no workers and broadcasts are fanned out on the sending
+ * thread.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class Broadcaster {
+
+	// globals
+	private static final int SPINS = 100; /*<< polls of an empty queue before a worker parks */
+
+	private final Metrics metrics;
+	private final Shard[] shards;
+	private final boolean threaded; /*<< whether shards have their own workers */
+
+	// default constructor
+	public Broadcaster(Metrics metrics) {
+		this(Integer.getInteger("chatter.broadcast.shards", defaultShards()), metrics);
+	}
+
+	/**
+	 * Constructor for when the number of shards is given.
+	 *
+	 * @param shards the number of worker threads, or 0 to fan out on the
+	 * sending thread.
+	 * @param metrics the metrics to record fan-out times in.
+	 */
+	public Broadcaster(int shards, Metrics metrics) {
+		this.metrics = metrics;
+		this.threaded = shards > 0;
+		this.shards = new Shard[Math.max(1, shards)];
+
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new Shard(i);
+		}
+	}
+
+	/**
+	 * Picks one shard per core, or none on a single core where handing a
+	 * broadcast to another thread only adds a context switch.
+	 *
+	 * @return the default number of shards.
+	 */
+	private static int defaultShards() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		return cores > 1 ? cores : 0;
+	}
+
+	/**
+	 * Starts the worker of every shard.
+	 */
+	public void start() {
+		if (!this.threaded) {
+			return;
+		}
+
+		for (Shard shard : this.shards) {
+			shard.thread.start();
+		}
+
+		Log.log(Log.Level.INFO, "broadcast_started", null, null, -1, -1, this.shards.length + " shards");
+	}
+
+	/**
+	 * Adds a client to the shard with the fewest clients.
+	 *
+	 * @param client the client to add.
+	 */
+	public void add(ClientHandler client) {
+		Shard least = this.shards[0];
+
+		for (Shard shard : this.shards) {
+			if (shard.clients.size() < least.clients.size()) {
+				least = shard;
+			}
+		}
+
+		least.clients.add(client);
+	}
+
+	/**
+	 * Removes a client from its shard, if it is in one.
+	 *
+	 * @param client the client to remove.
+	 */
+	public void remove(ClientHandler client) {
+		for (Shard shard : this.shards) {
+			if (shard.clients.remove(client)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Sends a frame to every client, each in the encoding of its protocol.
+	 * Returns as soon as every shard has been handed the broadcast. The
+	 * caller's reference to both frames is taken over and released once every
+	 * shard is done, so they are best made pooled.
+	 *
+	 * @param cmd the command being broadcast, for the metrics.
+	 * @param text the frame for the text protocol.
+	 * @param binary the frame for the binary protocol.
+	 * @param except a client to leave out, usually the sender, or {@code null}.
+	 */
+	public void broadcast(Command cmd, Frame text, Frame binary, ClientHandler except) {
+		Broadcast b = new Broadcast(cmd, text, binary, except, this.shards.length);
+
+		if (!this.threaded) {
+			this.shards[0].deliver(b);
+			return;
+		}
+
+		for (Shard shard : this.shards) {
+			shard.queue.offer(b);
+			shard.wake();
+		}
+	}
+
+	/**
+	 * Gets every shard, to see how evenly the work is spread.
+	 *
+	 * @return the shards, in order.
+	 */
+	public List<Shard> getShards() {
+		return Arrays.asList(this.shards);
+	}
+
+	/**
+	 * Broadcast class for a single frame on its way to every shard.
+	 */
+	private class Broadcast {
+
+		// globals
+		private final Command cmd;
+		private final Frame text;
+		private final Frame binary;
+		private final ClientHandler except;
+		private final long start;              /*<< when the broadcast was handed over */
+		private final AtomicInteger remaining; /*<< shards that have not finished it yet */
+
+		// default constructor
+		public Broadcast(Command cmd, Frame text, Frame binary, ClientHandler except, int shards) {
+			this.cmd = cmd;
+			this.text = text;
+			this.binary = binary;
+			this.except = except;
+			this.start = System.nanoTime();
+			this.remaining = new AtomicInteger(shards);
+		}
+
+		/**
+		 * Marks one shard as done. Once every shard is, the fan-out time is
+		 * recorded and the frames are released; each client queue holds its own
+		 * reference to them by then.
+		 */
+		public void done() {
+			if (this.remaining.decrementAndGet() == 0) {
+				Broadcaster.this.metrics.fanout(this.cmd, System.nanoTime() - this.start);
+				this.text.release();
+				this.binary.release();
+			}
+		}
+	}
+
+	/**
+	 * Shard class for a group of clients written to by one worker.
+	 */
+	public class Shard implements Runnable {
+
+		// globals
+		private final int index;
+		private final Thread thread;
+		private final CopyOnWriteArrayList<ClientHandler> clients;
+		private final ConcurrentLinkedQueue<Broadcast> queue; /*<< broadcasts not yet fanned out */
+		private final AtomicBoolean parked;                   /*<< whether the worker may be asleep */
+
+		private final LongAdder broadcasts; /*<< broadcasts fanned out */
+		private final LongAdder frames;     /*<< frames queued for clients */
+		private final LongAdder busy;       /*<< nanoseconds spent fanning out */
+
+		// default constructor
+		public Shard(int index) {
+			this.index = index;
+			this.clients = new CopyOnWriteArrayList<>();
+			this.queue = new ConcurrentLinkedQueue<>();
+			this.parked = new AtomicBoolean(false);
+			this.broadcasts = new LongAdder();
+			this.frames = new LongAdder();
+			this.busy = new LongAdder();
+
+			this.thread = new Thread(this, "broadcast-" + index);
+			this.thread.setDaemon(true);
+		}
+
+		/**
+		 * Fans out broadcasts as they are handed over, parking when there are
+		 * none.
+		 */
+		@Override
+		public void run() {
+			int idle = 0;
+
+			while (true) {
+				Broadcast b = this.queue.poll();
+
+				if (b != null) {
+					deliver(b);
+					idle = 0;
+				} else if (idle++ < SPINS) {
+					Thread.onSpinWait();
+				} else {
+					// announce the nap before the last look, so a wake is never missed
+					this.parked.set(true);
+
+					if (this.queue.isEmpty()) {
+						LockSupport.park(this);
+					}
+
+					this.parked.set(false);
+					idle = 0;
+				}
+			}
+		}
+
+		/**
+		 * Wakes the worker if it may be parked.
+		 */
+		private void wake() {
+			if (this.parked.get() && this.parked.compareAndSet(true, false)) {
+				LockSupport.unpark(this.thread);
+			}
+		}
+
+		/**
+		 * Queues a broadcast for every client of this shard.
+		 *
+		 * @param b the broadcast to deliver.
+		 */
+		private void deliver(Broadcast b) {
+			long start = System.nanoTime();
+			int sent = 0;
+
+			for (ClientHandler client : this.clients) {
+				if (client == b.except) {
+					continue;
+				}
+
+				client.sendToClient(b.text, b.binary);
+				sent++;
+			}
+
+			this.busy.add(System.nanoTime() - start);
+			this.frames.add(sent);
+			this.broadcasts.increment();
+			b.done();
+		}
+
+		/**
+		 * Gets the position of this shard.
+		 *
+		 * @return the shard number, from 0.
+		 */
+		public int getIndex() {
+			return this.index;
+		}
+
+		/**
+		 * Gets the number of clients in this shard.
+		 *
+		 * @return number of clients.
+		 */
+		public int getClients() {
+			return this.clients.size();
+		}
+
+		/**
+		 * Gets the number of broadcasts waiting for this shard.
+		 *
+		 * @return number of queued broadcasts.
+		 */
+		public int getQueued() {
+			return this.queue.size();
+		}
+
+		/**
+		 * Gets the number of broadcasts this shard has fanned out.
+		 *
+		 * @return number of broadcasts.
+		 */
+		public long getBroadcasts() {
+			return this.broadcasts.sum();
+		}
+
+		/**
+		 * Gets the number of frames this shard has queued for its clients.
+		 *
+		 * @return number of frames.
+		 */
+		public long getFrames() {
+			return this.frames.sum();
+		}
+
+		/**
+		 * Gets the time this shard has spent fanning out.
+		 *
+		 * @return busy time in nanoseconds.
+		 */
+		public long getBusyNanos() {
+			return this.busy.sum();
+		}
+	}
+}
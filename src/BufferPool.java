@@ -0,0 +1,161 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferPool class handing out fixed-size regions of one direct buffer.
+ *
+ * The whole pool is a single slab of off-heap memory carved into equal
+ * slots, so taking and returning a slot allocates nothing and the garbage
+ * collector never sees the bytes. Free slots are kept on a lock-free stack of
+ * slot numbers; the head carries a stamp that changes on every update, so a
+ * slot that is taken and returned between a read and a compare-and-set of the
+ * head cannot corrupt the stack.
+ *
+ * The slab itself is shared by every thread and only ever read and written
+ * with absolute gets and puts. A thread that needs a position and limit, for
+ * example to write a slot to a channel, takes its own {@link #view()}.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public final class BufferPool {
+
+	// globals
+	private final ByteBuffer slab;
+	private final int slotSize;
+	private final int slots;
+
+	private final int[] next;      /*<< slot below each slot on the free stack */
+	private final AtomicLong head; /*<< stamp in the high half, top slot + 1 in the low half */
+
+	private final LongAdder taken;
+	private final LongAdder returned;
+
+	/**
+	 * Constructor for when the size and number of slots are given.
+	 *
+	 * @param slotSize the size of every slot in bytes.
+	 * @param slots the number of slots, 0 for an empty pool.
+	 */
+	public BufferPool(int slotSize, int slots) {
+		if ((long) slotSize * slots > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Pool too large: " + slots + " slots of " + slotSize + " bytes");
+		}
+
+		this.slab = ByteBuffer.allocateDirect(slotSize * slots);
+		this.slotSize = slotSize;
+		this.slots = slots;
+		this.next = new int[slots];
+		this.taken = new LongAdder();
+		this.returned = new LongAdder();
+
+		// every slot starts free, slot 0 on top
+		for (int i = 0; i < slots; i++) {
+			this.next[i] = i + 1 < slots ? i + 1 : -1;
+		}
+
+		this.head = new AtomicLong(slots > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Takes a free slot.
+	 *
+	 * @return the slot number, or {@code -1} if every slot is in use.
+	 */
+	public int take() {
+		while (true) {
+			long h = this.head.get();
+			int top = (int) h - 1;
+
+			if (top < 0) {
+				return -1;
+			}
+
+			long stamp = (h >>> 32) + 1;
+
+			if (this.head.compareAndSet(h, (stamp << 32) | (this.next[top] + 1))) {
+				this.taken.increment();
+				return top;
+			}
+		}
+	}
+
+	/**
+	 * Returns a slot to the pool. The slot must not be used afterwards.
+	 *
+	 * @param slot the slot number from {@link #take()}.
+	 */
+	public void give(int slot) {
+		while (true) {
+			long h = this.head.get();
+			this.next[slot] = (int) h - 1;
+			long stamp = (h >>> 32) + 1;
+
+			if (this.head.compareAndSet(h, (stamp << 32) | (slot + 1))) {
+				this.returned.increment();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the shared buffer every slot lives in. Only absolute gets and puts
+	 * may be used on it.
+	 *
+	 * @return the slab.
+	 */
+	public ByteBuffer getSlab() {
+		return this.slab;
+	}
+
+	/**
+	 * Gets a buffer over the whole slab with its own position and limit, for
+	 * use by a single thread.
+	 *
+	 * @return a new view of the slab.
+	 */
+	public ByteBuffer view() {
+		return this.slab.duplicate();
+	}
+
+	/**
+	 * Gets where a slot starts in the slab.
+	 *
+	 * @param slot the slot number.
+	 *
+	 * @return the offset of the slot in bytes.
+	 */
+	public int offset(int slot) {
+		return slot * this.slotSize;
+	}
+
+	/**
+	 * Gets the size of every slot.
+	 *
+	 * @return slot size in bytes.
+	 */
+	public int getSlotSize() {
+		return this.slotSize;
+	}
+
+	/**
+	 * Gets the number of slots in the pool.
+	 *
+	 * @return number of slots.
+	 */
+	public int getSlots() {
+		return this.slots;
+	}
+
+	/**
+	 * Gets the number of slots currently taken.
+	 *
+	 * @return number of slots in use.
+	 */
+	public long getInUse() {
+		return this.taken.sum() - this.returned.sum();
+	}
+}
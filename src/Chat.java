@@ -4,7 +4,6 @@ import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.Tab;
-import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
@@ -27,32 +26,36 @@ public class Chat {
 	private static final int LIMIT = 255;
 
 	public Label lblUsername, lblWhisperTo;
-	public TextField txfMessage;
-	public TextArea txaMessages, txaWhispers;
+	public TextField txfMessage, txfSearch;
 	public Button btnSend, btnConnectStatus;
-	public Tab tabGlobal, tabWhispers;
+	public Tab tabGlobal, tabWhispers, tabSearch;
 	public ComboBox<String> cmbWhisperTo;
 	public ListView<String> lstOnlineUsers, lstOfflineUsers;
+	public ListView<String> lstMessages, lstWhispers, lstResults;
 
 	private int port;
 	private String ip, username;
 
 	private Client client;
+	private Scrollback messages, whispers;
 
 	// default constructor
 	public Chat() {
 		this.lblUsername = new Label();
 		this.lblWhisperTo = new Label();
 		this.txfMessage = new TextField();
-		this.txaMessages = new TextArea();
-		this.txaWhispers = new TextArea();
+		this.txfSearch = new TextField();
 		this.btnSend = new Button();
 		this.btnConnectStatus = new Button();
 		this.tabGlobal = new Tab();
 		this.tabWhispers = new Tab();
+		this.tabSearch = new Tab();
 		this.cmbWhisperTo = new ComboBox<>();
 		this.lstOnlineUsers = new ListView<>();
 		this.lstOfflineUsers = new ListView<>();
+		this.lstMessages = new ListView<>();
+		this.lstWhispers = new ListView<>();
+		this.lstResults = new ListView<>();
 	}
 
 	/**
@@ -79,11 +82,13 @@ public class Chat {
 			System.exit(0);
 		});
 
-		tabGlobal.setContent(txaMessages);
+		this.messages = new Scrollback(lstMessages);
+		this.whispers = new Scrollback(lstWhispers);
+		tabGlobal.setContent(lstMessages);
 
 		System.out.printf("Connected to %s:%d with username %s\n", this.ip, this.port, this.username);
-		this.client.readServerMsgs(this.txaMessages, this.txaWhispers,
-			this.lstOnlineUsers, this.lstOfflineUsers, this.cmbWhisperTo);
+		this.client.readServerMsgs(this.messages, this.whispers,
+			this.lstOnlineUsers, this.lstOfflineUsers, this.cmbWhisperTo, this.lstResults);
 	}
 
 	/**
@@ -96,10 +101,10 @@ public class Chat {
 			return;
 		}
 
-		String fullMsg = String.format("\n%s (You) : %s\n", this.username, msg);
+		String fullMsg = String.format("%s (You) : %s", this.username, msg);
 
-		txaMessages.appendText(fullMsg);
-		tabGlobal.setContent(txaMessages);
+		this.messages.append(fullMsg);
+		tabGlobal.setContent(lstMessages);
 		this.client.send(msg);
 	}
 
@@ -115,16 +120,31 @@ public class Chat {
 		}
 
 		if (toUser == null) {
-			txaWhispers.appendText("\n-- no user selected --");
+			this.whispers.append("-- no user selected --");
 			return;
 		}
 
-		String fullMsg = String.format("\n%s (You) : %s\n", this.username, msg);
+		String fullMsg = String.format("%s (You) : %s", this.username, msg);
 
-		txaWhispers.appendText(fullMsg);
+		this.whispers.append(fullMsg);
 		this.client.whisper(toUser, msg);
 	}
 
+	/**
+	 * Searches the history of the chat, showing the hits in the search tab.
+	 *
+	 * @param query the words to search for.
+	 */
+	public void search(String query) {
+		if (query.trim().equals("")) {
+			return;
+		}
+
+		this.lstResults.getItems().setAll("-- searching --");
+		tabSearch.getTabPane().getSelectionModel().select(tabSearch);
+		this.client.search(query.trim());
+	}
+
 	/**
 	 * Sends a message to the text area.
 	 *
@@ -136,6 +156,8 @@ public class Chat {
 		} else if (tabWhispers.isSelected()) {
 			String selected = cmbWhisperTo.getSelectionModel().getSelectedItem();
 			whisper(selected, msg);
+		} else if (tabSearch.isSelected()) {
+			search(msg);
 		}
 
 		txfMessage.setText("");
@@ -161,6 +183,17 @@ public class Chat {
 		}
 	}
 
+	/**
+	 * Handles keyboard events in the search box.
+	 *
+	 * @param event key pressed by user.
+	 */
+	public void searchKey(KeyEvent event) {
+		if (event.getCode() == KeyCode.ENTER) {
+			search(txfSearch.getText());
+		}
+	}
+
 	/**
 	 * Sends a message and displays message sent.
 	 *
@@ -0,0 +1,44 @@
+/**
+ * ChatListener interface to listen for everything the server sends to a
+ * headless client. Users are referred to by the ids the server gives them.
+ */
+
+public interface ChatListener {
+	/**
+	 * Callback when a user is online, either from the roster on login or
+	 * because the user just logged in.
+	 *
+	 * @param id the id of the user.
+	 * @param username the username of the user.
+	 */
+	public void online(int id, String username);
+
+	/**
+	 * Callback when a user is offline, either from the roster on login or
+	 * because the user just logged out.
+	 *
+	 * @param id the id of the user.
+	 */
+	public void offline(int id);
+
+	/**
+	 * Callback when a user has sent a message to everyone.
+	 *
+	 * @param fromId the id of the user that sent the message.
+	 * @param message the message that was sent.
+	 */
+	public void message(int fromId, String message);
+
+	/**
+	 * Callback when a user has whispered to this client.
+	 *
+	 * @param fromId the id of the user that sent the whisper.
+	 * @param message the message that was whispered.
+	 */
+	public void whisper(int fromId, String message);
+
+	/**
+	 * Callback when the connection to the server is lost or closed.
+	 */
+	public void disconnected();
+}
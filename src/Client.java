@@ -2,12 +2,21 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-
-import javafx.application.Platform;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javafx.animation.AnimationTimer;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.ListView;
-import javafx.scene.control.TextArea;
 
 import javax.swing.*;
 
@@ -15,7 +24,12 @@ import javax.swing.*;
  * Client class for handling everything that isn't to do with the server.
  *
  * Each new client is handled through the ClientHandler class, where Client-Server
- * interaction takes place.
+ * interaction takes place. The client asks the server for the binary protocol
+ * when connecting and falls back to the text protocol if it is refused.
+ *
+ * When the server says a command is being sent too fast, later messages,
+ * whispers and searches are held back and sent one at a time at the pace it
+ * asked for.
  *
  * @since 27 July 2019
  * @version 1.0.0
@@ -25,6 +39,9 @@ import javax.swing.*;
 public class Client {
 
 	// globals
+	private static final int MAX_EVENTS_PER_PULSE = 10000;
+	private static final int PROTO_TIMEOUT = Integer.getInteger("chatter.proto.timeout", 3000); /*<< ms to wait for proto */
+
 	private final String hostname;
 	private final int port;
 
@@ -36,11 +53,25 @@ public class Client {
 	private ArrayList<UserListener> userListeners;
 	private ArrayList<String> commands;
 
-	private TextArea globalTxa;
-	private TextArea whisperTxa;
+	private boolean binary;                               /*<< speaking the binary protocol */
+	private final FrameReader reader;                     /*<< reads fields of binary frames */
+	private final ConcurrentHashMap<Integer, String> names; /*<< usernames by user id */
+	private final ConcurrentHashMap<String, Integer> ids;   /*<< user ids by username, online or not */
+
+	private Scrollback globalChat;
+	private Scrollback whisperChat;
 	private ListView<String> lstOnline;
 	private ListView<String> lstOffline;
 	private ComboBox<String> cmbWhisperTo;
+	private ListView<String> lstResults;
+	private final SimpleDateFormat sdf; /*<< times of search hits, reader thread only */
+
+	private final ConcurrentLinkedQueue<UiEvent> events; /*<< decoded messages for the GUI thread */
+	private AnimationTimer pump;                         /*<< applies events once per pulse */
+
+	private final ArrayDeque<Outgoing> paced; /*<< commands held back while throttled, GUI thread only */
+	private final AtomicLongArray resumeAt;   /*<< when a command may be sent again, by command */
+	private final AtomicLongArray pacing;     /*<< gap asked for between commands, by command */
 
 	// default constructor
 	public Client(String hostname, int port) {
@@ -56,6 +87,23 @@ public class Client {
 		this.commands.add("msg");
 		this.commands.add("online");
 		this.commands.add("offline");
+
+		this.binary = false;
+		this.reader = new FrameReader();
+		this.names = new ConcurrentHashMap<>();
+		this.ids = new ConcurrentHashMap<>();
+		this.events = new ConcurrentLinkedQueue<>();
+		this.pump = null;
+		this.sdf = new SimpleDateFormat("yyyy/MM/dd HH:mm");
+
+		this.paced = new ArrayDeque<>();
+		this.resumeAt = new AtomicLongArray(Command.values().length);
+		this.pacing = new AtomicLongArray(Command.values().length);
+
+		long now = System.nanoTime();
+		for (int i = 0; i < this.resumeAt.length(); i++) {
+			this.resumeAt.set(i, now);
+		}
 	}
 
 	/**
@@ -70,6 +118,10 @@ public class Client {
 			// get input / output streams
 			this.dis = new DataInputStream(this.client.getInputStream());
 			this.dos = new DataOutputStream(this.client.getOutputStream());
+
+			// ask for the binary protocol, server answers with the one it agrees to
+			this.dos.writeUTF("proto " + Command.BINARY);
+			this.binary = negotiate();
 		} catch (Exception e) {
 			System.out.printf("No connection available for %s:%d\n", this.hostname, this.port);
 			JOptionPane.showMessageDialog(null, "No server listening on port " + this.port);
@@ -79,6 +131,28 @@ public class Client {
 		return true;
 	}
 
+	/**
+	 * Waits a short while for the server to agree to the binary protocol.
+	 * Older servers do not know {@code proto} and never answer, so the client
+	 * stays on the text protocol if no answer comes or it is anything else.
+	 *
+	 * @return {@code true} if the server agreed to the binary protocol.
+	 * @throws IOException when the connection fails.
+	 */
+	private boolean negotiate() throws IOException {
+		this.client.setSoTimeout(PROTO_TIMEOUT);
+
+		try {
+			return this.dis.readUTF().equals("proto " + Command.BINARY);
+		} catch (SocketTimeoutException e) {
+			// a slow server that does know proto must not switch after all
+			this.dos.writeUTF("proto " + Command.TEXT);
+			return false;
+		} finally {
+			this.client.setSoTimeout(0);
+		}
+	}
+
 	/**
 	 * Logs a user into the server.
 	 *
@@ -89,8 +163,25 @@ public class Client {
 		String resp = "";
 
 		try {
-			this.dos.writeUTF(cmd);
-			resp = this.dis.readUTF();
+			if (this.binary) {
+				writeFrame(new Frame.Builder(Command.LOGIN).putString(username).build());
+
+				// response holds success flag and the user id
+				FrameReader in = readFrame();
+				if (in.getByte() == Command.LOGIN.getOpcode() && in.getByte() == 1) {
+					int id = in.getInt();
+					this.names.put(id, username);
+					this.ids.put(username, id);
+					resp = "login success";
+				}
+			} else {
+				this.dos.writeUTF(cmd);
+
+				// late answers to proto, if the server was slow to give them
+				do {
+					resp = this.dis.readUTF();
+				} while (resp.startsWith("proto "));
+			}
 		} catch (IOException e) {
 			System.err.println("Cannot send login command.");
 		}
@@ -103,16 +194,73 @@ public class Client {
 		return false;
 	}
 
+	/**
+	 * Writes a binary frame to the server.
+	 *
+	 * @param frame the frame to write.
+	 * @throws IOException when the frame cannot be written.
+	 */
+	private void writeFrame(Frame frame) throws IOException {
+		synchronized (this.dos) {
+			frame.writeTo(this.dos);
+			this.dos.flush();
+		}
+	}
+
+	/**
+	 * Writes a text command to the server. Synchronized with the reader
+	 * thread, which answers pings on the same stream.
+	 *
+	 * @param cmd the command to write.
+	 * @throws IOException when the command cannot be written.
+	 */
+	private void writeText(String cmd) throws IOException {
+		synchronized (this.dos) {
+			this.dos.writeUTF(cmd);
+		}
+	}
+
+	/**
+	 * Reads the next frame from the server.
+	 *
+	 * @return reader over the payload of the frame.
+	 * @throws IOException when no frame can be read.
+	 */
+	private FrameReader readFrame() throws IOException {
+		int len = this.dis.readUnsignedShort();
+		byte[] buf = new byte[len];
+		this.dis.readFully(buf);
+
+		return this.reader.reset(buf, 0, len);
+	}
+
+	/**
+	 * Sends the logout command for the current user, without closing the
+	 * connection.
+	 *
+	 * @throws IOException when the command cannot be sent.
+	 */
+	public void sendLogout() throws IOException {
+		// if dos is null, all connections have already been closed
+		if (this.dos == null) {
+			return;
+		}
+
+		if (this.binary) {
+			writeFrame(new Frame.Builder(Command.LOGOUT).build());
+		} else {
+			writeText("logout " + this.username);
+		}
+	}
+
 	/**
 	 * Send logout command to server.
 	 *
 	 * @param usrname the username of the user to log out.
 	 */
 	public void logout(String usrname) {
-		String cmd = "logout " + username;
-
 		try {
-			this.dos.writeUTF(cmd);
+			sendLogout();
 		} catch (IOException e) {
 			System.err.println("Cannot send logout command.");
 		}
@@ -135,12 +283,8 @@ public class Client {
 		}
 
 		// push client message to server
-		try {
-			this.dos.writeUTF("msg " + message);
-		} catch (Exception e) {
-			System.err.println("Server has been shutdown.");
-			this.globalTxa.appendText("[ above message has not been sent ]");
-		}
+		submit(new Outgoing(Command.MSG, this.binary ?
+			new Frame.Builder(Command.MSG).putString(message).build() : null, "msg " + message));
 	}
 
 	/**
@@ -158,27 +302,152 @@ public class Client {
 		}
 
 		// push client message to server
+		Frame frame = null;
+
+		if (this.binary) {
+			// offline users keep their id, their whispers wait in a mailbox
+			Integer toId = this.ids.get(toUser);
+
+			if (toId == null) {
+				this.whisperChat.append("[ " + toUser + " is not a known user ]");
+				return;
+			}
+
+			frame = new Frame.Builder(Command.WHSP).putInt(toId).putString(message).build();
+		}
+
+		submit(new Outgoing(Command.WHSP, frame, "whsp " + toUser + " " + message));
+	}
+
+	/**
+	 * Searches the messages and whispers kept by the server. The hits are
+	 * shown in the search results when they arrive.
+	 *
+	 * @param query the words to search for.
+	 */
+	public void search(String query) {
+		submit(new Outgoing(Command.SEARCH, this.binary ?
+			new Frame.Builder(Command.SEARCH).putString(query).build() : null, "search " + query));
+	}
+
+	/**
+	 * Sends a command now, or holds it back if the server asked the client to
+	 * slow down. Commands are always sent in the order they were submitted.
+	 *
+	 * @param out the command to send.
+	 */
+	private void submit(Outgoing out) {
+		if (!this.paced.isEmpty() || System.nanoTime() - this.resumeAt.get(out.cmd.ordinal()) < 0) {
+			this.paced.add(out);
+			return;
+		}
+
+		transmit(out);
+	}
+
+	/**
+	 * Sends held back commands whose wait is over, one per gap the server
+	 * asked for. Runs once per JavaFX pulse.
+	 */
+	private void sendPaced() {
+		long now = System.nanoTime();
+
+		while (!this.paced.isEmpty()) {
+			int i = this.paced.peek().cmd.ordinal();
+
+			if (now - this.resumeAt.get(i) < 0) {
+				return;
+			}
+
+			transmit(this.paced.poll());
+			this.resumeAt.set(i, now + this.pacing.get(i));
+		}
+	}
+
+	/**
+	 * Writes a command to the server in the protocol being spoken.
+	 *
+	 * @param out the command to write.
+	 */
+	private void transmit(Outgoing out) {
 		try {
-			this.dos.writeUTF("whsp " + toUser + " " + message);
+			if (this.binary) {
+				writeFrame(out.frame);
+			} else {
+				writeText(out.text);
+			}
 		} catch (Exception e) {
 			System.err.println("Server has been shutdown.");
-			this.globalTxa.appendText("[ above message has not been sent ]");
+			this.globalChat.append("[ above message has not been sent ]");
+		}
+	}
+
+	/**
+	 * Slows down sending a command, as asked by the server. Called on the
+	 * reader thread.
+	 *
+	 * @param cmd the command that is sent too fast.
+	 * @param millis how long to wait before sending it again.
+	 */
+	private void throttle(Command cmd, int millis) {
+		if (cmd != Command.MSG && cmd != Command.WHSP && cmd != Command.SEARCH) {
+			return;
+		}
+
+		long gap = millis * 1000000L;
+		this.pacing.set(cmd.ordinal(), gap);
+		this.resumeAt.set(cmd.ordinal(), System.nanoTime() + gap);
+
+		// shown where the user looks for the answer
+		if (cmd == Command.SEARCH) {
+			this.events.add(new UiEvent(cmd, null, "[ searching too fast, a search has not been run ]"));
+		} else {
+			this.events.add(new UiEvent(cmd, null, "[ sending too fast, a message has not been sent ]"));
 		}
 	}
 
 	/**
-	 * Reads all messages from server and prints them to the textarea.
+	 * Tells the user the server refused a message they sent. Called on the
+	 * reader thread.
 	 *
-	 * @param globalTxa textarea to print server messages to.
+	 * @param cmd the command that was refused.
+	 * @param reason why, such as {@code too_long}.
 	 */
-	public void readServerMsgs(TextArea globalTxa, TextArea whisperTxa,
+	private void refused(Command cmd, String reason) {
+		String why = reason.equals("too_long") ? "is too long" : "was refused: " + reason;
+		this.events.add(new UiEvent(cmd == Command.WHSP ? Command.WHSP : Command.MSG, null,
+			"[ message " + why + " and has not been sent ]"));
+	}
+
+	/**
+	 * Reads all messages from server and shows them in the chat.
+	 *
+	 * @param globalChat scrollback to show global messages in.
+	 * @param whisperChat scrollback to show whispers in.
+	 * @param lstResults list to show search hits in.
+	 */
+	public void readServerMsgs(Scrollback globalChat, Scrollback whisperChat,
 			ListView<String> lstOnline, ListView<String> lstOffline,
-			ComboBox<String> cmbWhisperTo) {
-		this.globalTxa = globalTxa;
-		this.whisperTxa = whisperTxa;
+			ComboBox<String> cmbWhisperTo, ListView<String> lstResults) {
+		this.globalChat = globalChat;
+		this.whisperChat = whisperChat;
 		this.lstOnline = lstOnline;
 		this.lstOffline = lstOffline;
 		this.cmbWhisperTo = cmbWhisperTo;
+		this.lstResults = lstResults;
+
+		this.lstOnline.getItems().add(this.username);
+
+		// drain queued messages once per pulse on the GUI thread
+		this.pump = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				applyEvents();
+				sendPaced();
+			}
+		};
+
+		this.pump.start();
 
 		// start new thread to read messages from server
 		Thread t = new Thread() {
@@ -192,17 +461,80 @@ public class Client {
 	}
 
 	/**
-	 * Loops infinitely to get messages.
+	 * Loops infinitely to get messages. Decoded messages are queued for the
+	 * GUI thread instead of touching the controls directly.
 	 */
 	public void loopMessages() {
 		String msg = "";
-		this.lstOnline.getItems().add(this.username);
 
 		// continually get input from server
 		while (true) {
 			try {
+				if (this.binary) {
+					handleBinary(readFrame());
+					continue;
+				}
+
 				msg = this.dis.readUTF();
 
+				// recent messages sent on login, one per line
+				if (msg.startsWith("history\n")) {
+					for (String line : msg.substring(8).split("\n")) {
+						// skip the sequence number and time
+						int start = line.indexOf(' ', line.indexOf(' ') + 1);
+
+						if (start < 0) {
+							continue;
+						}
+
+						this.events.add(new UiEvent(Command.MSG, null, Frame.unescapeLine(line.substring(start + 1))));
+					}
+					continue;
+				}
+
+				// whispers kept while this user was offline, one per line
+				if (msg.startsWith("mailbox\n")) {
+					for (String line : msg.substring(8).split("\n")) {
+						// skip the time
+						int start = line.indexOf(' ');
+
+						if (start < 0) {
+							continue;
+						}
+
+						this.events.add(new UiEvent(Command.WHSP, null, Frame.unescapeLine(line.substring(start + 1))));
+					}
+					continue;
+				}
+
+				// search hits, one per line
+				if (msg.equals("search") || msg.startsWith("search\n")) {
+					StringBuilder hits = new StringBuilder();
+
+					for (String line : msg.substring(6).split("\n")) {
+						if (line.equals("")) {
+							continue;
+						}
+
+						// time, sender and recipient before the text
+						String[] parts = line.split(" ", 4);
+
+						if (parts.length < 4 || !parts[3].startsWith(": ")) {
+							continue;
+						}
+
+						try {
+							hits.append(hit(Long.parseLong(parts[0]), parts[1],
+								parts[2].equals("*") ? null : parts[2], Frame.unescapeLine(parts[3].substring(2))));
+						} catch (NumberFormatException e) {
+							// not a hit, skip the line
+						}
+					}
+
+					this.events.add(new UiEvent(Command.SEARCH, null, hits.toString()));
+					continue;
+				}
+
 				// ignore invalid messages
 				if (!msg.contains(" ")) {
 					System.out.println(msg);
@@ -218,47 +550,42 @@ public class Client {
 					continue;
 				}
 
-				if (cmd.equals("online")) {
+				// answer heartbeats so the server knows the connection is alive
+				if (cmd.equals("ping")) {
+					writeText("pong " + body);
+					continue;
+				}
+
+				if (cmd.equals("disconnect")) {
+					this.events.add(new UiEvent(Command.MSG, null, "[ disconnected by server: " + body + " ]"));
+					continue;
+				}
+
+				if (cmd.equals("error")) {
 					idx = body.indexOf(" ");
-					String user = body.substring(0, idx);
-
-					// stage the change for update in main GUI thread
-					Platform.runLater(new Runnable() {
-						@Override
-						public void run() {
-							lstOffline.getItems().remove(user);
-							lstOnline.getItems().add(user);
-							cmbWhisperTo.getItems().add(user);
-						}
-					});
+					refused(Command.getValue(body.substring(0, Math.max(idx, 0))), body.substring(idx + 1));
+					continue;
+				}
 
-					Thread.sleep(500);
+				if (cmd.equals("throttle")) {
+					idx = body.indexOf(" ");
+					throttle(Command.getValue(body.substring(0, idx)), Integer.parseInt(body.substring(idx + 1)));
 					continue;
 				}
 
-				if (cmd.equals("offline")) {
+				if (cmd.equals("online") || cmd.equals("offline")) {
 					idx = body.indexOf(" ");
-					String user = body.substring(0, idx);
-
-					// stage the change for update in main GUI thread
-					Platform.runLater(new Runnable() {
-						@Override
-						public void run() {
-							lstOnline.getItems().remove(user);
-							lstOffline.getItems().add(user);
-							cmbWhisperTo.getItems().remove(user);
-						}
-					});
+					String user = idx < 0 ? body : body.substring(0, idx);
 
-					Thread.sleep(500);
+					this.events.add(new UiEvent(Command.getValue(cmd), user, null));
 					continue;
 				}
 
 				// put in different text areas for global and whispers
 				if (cmd.equals("msg")) {
-					this.globalTxa.appendText("\n" + body + "\n");
+					this.events.add(new UiEvent(Command.MSG, null, body));
 				} else if (cmd.equals("whsp")) {
-					this.whisperTxa.appendText("\n" + body + "\n");
+					this.events.add(new UiEvent(Command.WHSP, null, body));
 				}
 			} catch (Exception e) {
 				break;
@@ -268,6 +595,249 @@ public class Client {
 		closeAll();
 	}
 
+	/**
+	 * Handles a single binary frame from the server. The opcode selects the
+	 * command, so nothing is split as text.
+	 *
+	 * @param in reader over the payload of the frame.
+	 * @throws IOException when the frame is too short.
+	 */
+	private void handleBinary(FrameReader in) throws IOException {
+		int id;
+		String user;
+
+		switch (Command.fromOpcode((byte) in.getByte())) {
+			case USERS:
+				boolean online = in.getByte() == 1;
+				Command status = online ? Command.ONLINE : Command.OFFLINE;
+
+				while (in.hasRemaining()) {
+					id = in.getInt();
+					user = in.getString();
+					this.names.put(id, user);
+					this.ids.put(user, id);
+
+					this.events.add(new UiEvent(status, user, null));
+				}
+				break;
+			case ONLINE:
+				id = in.getInt();
+				user = in.getString();
+				this.names.put(id, user);
+				this.ids.put(user, id);
+				this.events.add(new UiEvent(Command.ONLINE, user, null));
+				break;
+			case OFFLINE:
+				id = in.getInt();
+				user = this.names.getOrDefault(id, "");
+				this.events.add(new UiEvent(Command.OFFLINE, user, null));
+				break;
+			case MSG:
+				user = this.names.getOrDefault(in.getInt(), "?");
+				this.events.add(new UiEvent(Command.MSG, null, user + " : " + in.getString()));
+				break;
+			case WHSP:
+				user = this.names.getOrDefault(in.getInt(), "?");
+				this.events.add(new UiEvent(Command.WHSP, null, user + " : " + in.getString()));
+				break;
+			case PING:
+				writeFrame(new Frame.Builder(Command.PONG).putInt(in.getInt()).build());
+				break;
+			case THROTTLE:
+				Command cmd = Command.fromOpcode((byte) in.getByte());
+				throttle(cmd, in.getInt());
+				break;
+			case ERROR:
+				Command denied = Command.fromOpcode((byte) in.getByte());
+				refused(denied, in.getString());
+				break;
+			case HISTORY:
+				while (in.hasRemaining()) {
+					in.getLong();
+					in.getLong();
+					user = this.names.getOrDefault(in.getInt(), "?");
+					this.events.add(new UiEvent(Command.MSG, null, user + " : " + in.getString()));
+				}
+				break;
+			case MAILBOX:
+				while (in.hasRemaining()) {
+					in.getLong();
+					user = this.names.getOrDefault(in.getInt(), "?");
+					this.events.add(new UiEvent(Command.WHSP, null, user + " : " + in.getString()));
+				}
+				break;
+			case SEARCH:
+				StringBuilder hits = new StringBuilder();
+
+				while (in.hasRemaining()) {
+					long time = in.getLong();
+					String from = this.names.getOrDefault(in.getInt(), "?");
+					int to = in.getInt();
+
+					hits.append(hit(time, from, to < 0 ? null : this.names.getOrDefault(to, "?"), in.getString()));
+				}
+
+				this.events.add(new UiEvent(Command.SEARCH, null, hits.toString()));
+				break;
+			case DISCONNECT:
+				this.events.add(new UiEvent(Command.MSG, null, "[ disconnected by server: " + in.getString() + " ]"));
+				break;
+			default:
+				// ignore messages such as login and logout responses
+				break;
+		}
+	}
+
+	/**
+	 * Formats a search hit as a line of the search results.
+	 *
+	 * @param time when it was sent, in epoch milliseconds.
+	 * @param from the user who sent it.
+	 * @param to the user it was whispered to, or {@code null} for a global message.
+	 * @param text the text.
+	 *
+	 * @return the line, ending with a newline.
+	 */
+	private String hit(long time, String from, String to, String text) {
+		String who = to == null ? from : from + " -> " + to;
+
+		// results are split into lines again to be listed
+		return "[" + this.sdf.format(new Date(time)) + "] " + who + " : " + text.replace('\n', ' ') + "\n";
+	}
+
+	/**
+	 * Applies every queued message to the controls. Runs once per JavaFX pulse
+	 * on the GUI thread, so however many messages arrived since the last pulse,
+	 * each scrollback gets a single append and each list a single update.
+	 */
+	private void applyEvents() {
+		UiEvent event = this.events.poll();
+
+		if (event == null) {
+			return;
+		}
+
+		ArrayList<String> global = new ArrayList<>();
+		ArrayList<String> whispers = new ArrayList<>();
+		LinkedHashMap<String, Boolean> presence = new LinkedHashMap<>(); /*<< latest status per user */
+		String results = null; /*<< hits of the latest search */
+
+		for (int n = 0; event != null && n < MAX_EVENTS_PER_PULSE; n++) {
+			switch (event.cmd) {
+				case MSG:
+					global.add(event.text);
+					break;
+				case WHSP:
+					whispers.add(event.text);
+					break;
+				case ONLINE:
+					presence.remove(event.user);
+					presence.put(event.user, true);
+					break;
+				case OFFLINE:
+					presence.remove(event.user);
+					presence.put(event.user, false);
+					break;
+				case SEARCH:
+					results = event.text;
+					break;
+				default:
+					break;
+			}
+
+			if (n + 1 < MAX_EVENTS_PER_PULSE) {
+				event = this.events.poll();
+			}
+		}
+
+		this.globalChat.append(global);
+		this.whisperChat.append(whispers);
+
+		if (!presence.isEmpty()) {
+			applyPresence(presence);
+		}
+
+		if (results != null) {
+			if (results.equals("")) {
+				this.lstResults.getItems().setAll("-- no results --");
+			} else {
+				this.lstResults.getItems().setAll(results.split("\n"));
+			}
+		}
+	}
+
+	/**
+	 * Applies a batch of presence changes to the user lists, replacing each
+	 * list's contents once.
+	 *
+	 * @param presence the latest status of every user that changed.
+	 */
+	private void applyPresence(LinkedHashMap<String, Boolean> presence) {
+		LinkedHashSet<String> online = new LinkedHashSet<>(this.lstOnline.getItems());
+		LinkedHashSet<String> offline = new LinkedHashSet<>(this.lstOffline.getItems());
+
+		for (Map.Entry<String, Boolean> entry : presence.entrySet()) {
+			String user = entry.getKey();
+
+			// never list ourselves as anything but online
+			if (user.equals(this.username)) {
+				continue;
+			}
+
+			if (entry.getValue()) {
+				offline.remove(user);
+				if (online.add(user)) {
+					for (UserListener ul : this.userListeners) {
+						ul.online(user);
+					}
+				}
+			} else {
+				online.remove(user);
+				if (offline.add(user)) {
+					for (UserListener ul : this.userListeners) {
+						ul.offline(user);
+					}
+				}
+			}
+		}
+
+		this.lstOnline.getItems().setAll(online);
+		this.lstOffline.getItems().setAll(offline);
+
+		online.remove(this.username);
+		this.cmbWhisperTo.getItems().setAll(online);
+	}
+
+	/**
+	 * UiEvent class holding one decoded message waiting for the GUI thread.
+	 */
+	private static class UiEvent {
+		private final Command cmd;
+		private final String user;
+		private final String text;
+
+		private UiEvent(Command cmd, String user, String text) {
+			this.cmd = cmd;
+			this.user = user;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Outgoing class holding a command to send, in both protocols.
+	 */
+	private static class Outgoing {
+		private final Command cmd;
+		private final Frame frame; /*<< binary frame, or {@code null} on the text protocol */
+		private final String text;
+
+		private Outgoing(Command cmd, Frame frame, String text) {
+			this.cmd = cmd;
+			this.frame = frame;
+			this.text = text;
+		}
+	}
+
 	/**
 	 * Closes all connections.
 	 */
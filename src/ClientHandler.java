@@ -1,314 +1,1531 @@
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.UTFDataFormatException;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ClientHandler class to handle all client connections to the server.
  *
  * Each new client that connects to the server is started as a new Thread
- * and processed individually.
+ * and processed individually. Frames for the client are never written by the
+ * thread that produces them; they are put on a bounded outbound queue that a
+ * dedicated writer drains, so a slow reader only ever holds up itself.
+ *
+ * Subclasses may replace the blocking socket streams with a different
+ * transport by draining the queue themselves from {@link #onEnqueued()} and
+ * feeding received frames to {@link #handle(byte[], int, int)}. Queued frames
+ * are already encoded, so a broadcast is encoded once for all recipients.
+ *
+ * Clients start out on the text protocol and may switch to the binary
+ * protocol by sending {@code "proto 2"} before logging in. Broadcasts are
+ * encoded once per protocol and each client is sent the one it speaks.
+ *
+ * However a connection ends, by logout, by the socket dying or by being
+ * evicted for not answering heartbeats, the handler leaves the server exactly
+ * once: it is taken out of the fan-out set and the others are told the user is
+ * offline.
+ *
+ * A client whose backlog grows past {@code chatter.slow.bytes} (default 1 MB),
+ * or whose writer has made no progress for {@code chatter.slow.seconds}
+ * (default 30), is a slow consumer and is dealt with by its {@link SlowPolicy},
+ * set for every client with {@code chatter.slow.policy}:
+ * {@code drop-oldest} (default), {@code priority} or {@code disconnect}.
  *
  * @since 27 July 2019
  * @version 1.0.0
  * @author Kyle Chapman, Noah Atkins
  */
 
-public class ClientHandler extends Thread {
+public class ClientHandler implements Runnable {
+
+	/**
+	 * What to do with a client that is not keeping up with what it is sent.
+	 * Whatever is dropped is counted in the metrics.
+	 */
+	public enum SlowPolicy {
+		/** drop the oldest queued messages to make room for new frames */
+		DROP_OLDEST,
+		/** drop every message, but keep whispers, presence and replies */
+		PRIORITY,
+		/** send a disconnect frame saying why and close the connection */
+		DISCONNECT
+	}
 
 	// globals
+	public static final int QUEUE_CAPACITY = 1024;
+
+	private static final Frame CLOSE = Frame.of("close"); /*<< tells the writer to stop */
+	private static final int WRITE_CHUNK = 512;           /*<< bytes copied at a time out of pooled frames */
+	private static final int INBOUND_SIZE = 512;          /*<< starting size of the buffer frames are read into */
+
+	private static final SlowPolicy SLOW_POLICY = slowPolicy(System.getProperty("chatter.slow.policy", "drop-oldest"));
+	private static final long SLOW_BYTES = Long.getLong("chatter.slow.bytes", 1L << 20);
+	private static final long SLOW_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("chatter.slow.seconds", 30));
+	private static final long CLOSE_GRACE = TimeUnit.SECONDS.toNanos(5); /*<< time to send a disconnect frame */
+
 	private final Socket client;
-	private final Server server;
+	protected final Server server;
 
-	private String username;
+	private volatile String username;
+	private int userId;
+	private final Object loginLock; /*<< frames for a user logging in wait for the login reply */
 	private DataInputStream dis;
 	private DataOutputStream dos;
 
-	private ArrayList<String> commands;
+	private volatile int version;     /*<< protocol spoken by the client */
+	private final FrameReader reader; /*<< reads fields of binary frames */
+
+	protected final ArrayBlockingQueue<Frame> outbound; /*<< frames waiting to be written */
+	private final AtomicLong dropped;                    /*<< frames dropped on a full queue */
+	private volatile boolean closed;
+
+	private volatile long lastRead;      /*<< when the client last sent a frame */
+	private volatile long lastActive;    /*<< when the user last logged in or chatted */
+	private volatile long lastPing;      /*<< when the last ping was sent */
+	private volatile boolean heartbeats; /*<< client is known to answer pings */
+	private final AtomicBoolean left;    /*<< already left the server */
+
+	private final TokenBucket[] buckets; /*<< rate limits of the connection, by command */
+	private final long[] throttled;      /*<< until when a command is throttled, by command */
+
+	private final AtomicLong queuedBytes;   /*<< bytes of the frames waiting to be written */
+	private volatile long drainedAt;        /*<< when the writer last made progress */
+	private volatile boolean slow;          /*<< counted as a slow consumer right now */
+	private volatile SlowPolicy slowPolicy;
+	private volatile long closingAt;        /*<< when a disconnect was started, 0 if none */
 
 	// default constructor
 	public ClientHandler(Server server, Socket client) {
 		this.server = server;
 		this.client = client;
 		this.username = "";
-		this.commands = new ArrayList<>();
+		this.userId = -1;
+		this.loginLock = new Object();
+		this.version = Command.TEXT;
+		this.reader = new FrameReader();
+
+		this.outbound = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.dropped = new AtomicLong(0);
+		this.closed = false;
 
-		// add all commands to list
-		this.commands.add("login");
-		this.commands.add("logout");
-		this.commands.add("msg");
-		this.commands.add("whsp");
+		this.lastRead = System.nanoTime();
+		this.lastActive = this.lastRead;
+		this.lastPing = this.lastRead;
+		this.heartbeats = false;
+		this.left = new AtomicBoolean(false);
+
+		this.buckets = server.getLimiter().newBuckets();
+		this.throttled = new long[Command.values().length];
+
+		this.queuedBytes = new AtomicLong(0);
+		this.drainedAt = this.lastRead;
+		this.slow = false;
+		this.slowPolicy = SLOW_POLICY;
+		this.closingAt = 0;
 
 		// getting data streams
 		try {
 			this.dis = new DataInputStream(this.client.getInputStream());
-			this.dos = new DataOutputStream(this.client.getOutputStream());
+			this.dos = new DataOutputStream(new BufferedOutputStream(this.client.getOutputStream()));
 		} catch (Exception e) {
-			System.err.println("Error: " + e);
+			Log.error("streams_failed", e);
 		}
 	}
 
-	// run function for overriding default Thread.run()
+	/**
+	 * Constructor for subclasses that provide their own transport instead of
+	 * a blocking socket.
+	 *
+	 * @param server the server the client is connected to.
+	 */
+	protected ClientHandler(Server server) {
+		this.server = server;
+		this.client = null;
+		this.username = "";
+		this.userId = -1;
+		this.loginLock = new Object();
+		this.version = Command.TEXT;
+		this.reader = new FrameReader();
+
+		this.outbound = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.dropped = new AtomicLong(0);
+		this.closed = false;
+
+		this.lastRead = System.nanoTime();
+		this.lastActive = this.lastRead;
+		this.lastPing = this.lastRead;
+		this.heartbeats = false;
+		this.left = new AtomicBoolean(false);
+
+		this.buckets = server.getLimiter().newBuckets();
+		this.throttled = new long[Command.values().length];
+
+		this.queuedBytes = new AtomicLong(0);
+		this.drainedAt = this.lastRead;
+		this.slow = false;
+		this.slowPolicy = SLOW_POLICY;
+		this.closingAt = 0;
+	}
+
+	// run function for reading from the blocking socket
 	@Override
 	public void run() {
+		// one buffer for every frame, grown to the largest seen
+		byte[] buf = new byte[INBOUND_SIZE];
+
 		// allow client to keep sending messages
 		while (true) {
 			try {
 				// get a message
-				String recv = this.dis.readUTF();
+				int len = this.dis.readUnsignedShort();
 
-				if (!recv.contains(" ")) {
-					System.out.println("Invalid message");
-					continue;
+				if (len > buf.length) {
+					buf = new byte[Math.max(len, 2 * buf.length)];
 				}
 
-				int idx = recv.indexOf(" ");
-				String cmd = recv.substring(0, idx);
-				String body = recv.substring(idx + 1);
+				this.dis.readFully(buf, 0, len);
+				this.server.getMetrics().bytesIn(2 + len);
+				touch();
 
-				if (!commands.contains(cmd)) {
-					System.err.println("Invalid command");
-					continue;
+				if (!handle(buf, 0, len)) {
+					break;
 				}
+			} catch (IOException e) {
+				break;
+			} catch (RuntimeException e) {
+				// the connection still has to leave the server below
+				Log.error("handler_failed", e);
+				break;
+			}
+		}
 
-				// handle different tokens
-				switch (cmd) {
-					case "login":
-						login(body);
-						break;
-					case "logout":
-						logout(body);
-						break;
-					case "msg":
-						message(body);
-						break;
-					case "whsp":
-						whisper(body);
-						break;
+		// socket may have died without a logout
+		leave("disconnected");
+
+		// writer closes the connection once everything queued is sent
+		if (!this.outbound.offer(CLOSE)) {
+			discard();
+			this.outbound.offer(CLOSE);
+		}
+	}
+
+	/**
+	 * Gets the writer loop for the blocking socket. Must be started on its own
+	 * thread next to {@link #run()}.
+	 *
+	 * @return the writer loop.
+	 */
+	public Runnable writer() {
+		return new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		};
+	}
+
+	/**
+	 * Writes queued frames to the socket until told to close. Frames that are
+	 * already queued are written back to back and flushed together.
+	 */
+	private void writeLoop() {
+		Metrics metrics = this.server.getMetrics();
+		byte[] scratch = new byte[WRITE_CHUNK];
+		Frame frame = null;
+
+		try {
+			while (true) {
+				frame = this.outbound.take();
+				long written = 0;
+
+				while (frame != null && frame != CLOSE) {
+					frame.writeTo(this.dos, scratch);
+					written += frame.size();
+					frame.release();
+					frame = this.outbound.poll();
 				}
 
-				if (cmd.equals("logout")) {
+				this.dos.flush();
+				metrics.bytesOut(written);
+				drained(written);
+
+				if (frame == CLOSE) {
 					break;
 				}
+			}
+		} catch (InterruptedException e) {
+			// told to stop, nothing left to deliver
+		} catch (IOException e) {
+			// connection is gone, whatever is still queued is lost
+			metrics.failedWrite();
 
-				// set most recent message and user who sent message
-			} catch (IOException e) {
-				break;
+			if (frame != null) {
+				frame.release();
 			}
 		}
 
+		this.closed = true;
+		discard();
+
 		// close connections
 		try {
 			this.client.close();
 			this.dis.close();
 			this.dos.close();
 		} catch (IOException e) {
-			System.err.println("Error (clienthandler): " + e);
+			Log.error("close_failed", e);
 		}
 	}
 
 	/**
-	 * Allows user to log in.
+	 * Handles a single frame received from the client. The buffer is only read
+	 * until this returns, so the caller may reuse it for the next frame.
 	 *
-	 * @param body the rest of the message.
+	 * @param buf the buffer holding the payload of the frame.
+	 * @param off the start of the payload.
+	 * @param len the length of the payload.
+	 *
+	 * @return {@code false} if the connection should be closed, {@code true}
+	 * otherwise.
 	 */
-	public void login(String body) {
-		String usr = body.trim();
-
-		// check if user with same name is not online
-		if (this.server.getOnlineUsers().contains(usr)) {
-			try {
-				this.dos.writeUTF("login failure");
-			} catch (IOException e) {
-				System.err.println("Could not send failure.\nError: " + e);
+	protected boolean handle(byte[] buf, int off, int len) {
+		try {
+			if (this.version == Command.BINARY && !isTextProto(buf, off, len)) {
+				return handleBinary(buf, off, len);
 			}
 
-			return;
+			return handleText(buf, off, len);
+		} catch (UTFDataFormatException e) {
+			Log.warn("invalid_frame", this.username, null);
+			return true;
+		} catch (IllegalArgumentException e) {
+			// a reply too long to encode is dropped, the connection carries on
+			Log.warn("send_failed", this.username, e.getMessage());
+			return true;
 		}
+	}
 
-		// if username is unique, log user in
-		try {
-			this.dos.writeUTF("login success");
-		} catch (IOException e) {
-			System.err.println("Could not send success.\nError: " + e);
-			return;
+	/**
+	 * Returns if a frame is a text {@code proto} sent before logging in. A
+	 * client that gave up waiting for the answer to {@code "proto 2"} takes it
+	 * back in text, which must still be understood if the server had already
+	 * switched to binary. No opcode is a printable character, so it cannot be
+	 * mistaken for a binary frame.
+	 *
+	 * @param buf the buffer holding the payload of the frame.
+	 * @param off the start of the payload.
+	 * @param len the length of the payload.
+	 *
+	 * @return {@code true} if the frame is a text {@code proto}, {@code false}
+	 * otherwise.
+	 */
+	private boolean isTextProto(byte[] buf, int off, int len) {
+		int keyLength = Command.PROTO.getKey().length();
+
+		return this.username.equals("") && len > keyLength && buf[off + keyLength] == ' '
+			&& Command.getValue(buf, off, keyLength) == Command.PROTO;
+	}
+
+	/**
+	 * Handles a single text frame received from the client. The command is
+	 * matched against the bytes where they lie, and only the parts of the
+	 * frame the command goes on to use are decoded into strings, after the
+	 * rate limits have let it through.
+	 *
+	 * @param buf the buffer holding the payload of the frame.
+	 * @param off the start of the payload.
+	 * @param len the length of the payload.
+	 *
+	 * @return {@code false} if the connection should be closed, {@code true}
+	 * otherwise.
+	 * @throws UTFDataFormatException when the part of the frame that is decoded
+	 * is not valid.
+	 */
+	private boolean handleText(byte[] buf, int off, int len) throws UTFDataFormatException {
+		int end = off + len;
+		int idx = indexOf(buf, off, end, (byte) ' ');
+
+		if (idx < 0) {
+			Log.warn("invalid_frame", this.username, null);
+			return true;
 		}
 
-		this.username = usr;
-		this.server.addUser(this.username);
+		Command cmd = Command.getValue(buf, off, idx - off);
 
-		System.out.println("\n-> \033[32m" + this.username + "\033[0m has joined the party!");
-		System.out.println(this.server.getNumOnlineUsers() + " users currently online.\n");
+		if (!admit(cmd)) {
+			return true;
+		}
 
-		// get all clients connected
-		ArrayList<ClientHandler> clients = this.server.getClients();
+		int body = idx + 1;
 
-		String msg = "";
-		String tail = " is online!";
+		// handle different tokens
+		switch (cmd) {
+			case PROTO:
+				proto(Frame.decodeText(buf, body, end - body));
+				break;
+			case LOGIN:
+				login(Frame.decodeText(buf, body, end - body));
+				break;
+			case LOGOUT:
+				logout(Frame.decodeText(buf, body, end - body));
+				return false;
+			case MSG:
+				message(Frame.decodeText(buf, body, end - body));
+				break;
+			case WHSP:
+				idx = indexOf(buf, body, end, (byte) ' ');
+
+				if (idx < 0) {
+					Log.warn("invalid_frame", this.username, null);
+					break;
+				}
 
-		// send current user message saying other users are online
-		for (ClientHandler currClient : clients) {
-			String ccUsername = currClient.getUsername();
+				whisper(Frame.decodeText(buf, body, idx - body), Frame.decodeText(buf, idx + 1, end - idx - 1));
+				break;
+			case SEARCH:
+				search(Frame.decodeText(buf, body, end - body));
+				break;
+			case PING:
+				sendToClient("pong " + Frame.decodeText(buf, body, end - body));
+				break;
+			case PONG:
+				this.heartbeats = true;
+				break;
+			default:
+				Log.warn("invalid_command", this.username, null);
+				break;
+		}
 
-			if (this.username.equals(ccUsername) || ccUsername.equals("")) {
-				continue;
+		return true;
+	}
+
+	/**
+	 * Finds the first occurrence of a byte in part of a buffer.
+	 *
+	 * @param buf the buffer to search.
+	 * @param from the first index to look at.
+	 * @param end the index after the last one to look at.
+	 * @param b the byte to find.
+	 *
+	 * @return the index of the byte, or {@code -1} if it is not there.
+	 */
+	private static int indexOf(byte[] buf, int from, int end, byte b) {
+		for (int i = from; i < end; i++) {
+			if (buf[i] == b) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Handles a single binary frame received from the client. The first byte
+	 * selects the command, so no part of the frame is split as text.
+	 *
+	 * @param buf the buffer holding the payload of the frame.
+	 * @param off the start of the payload.
+	 * @param len the length of the payload.
+	 *
+	 * @return {@code false} if the connection should be closed, {@code true}
+	 * otherwise.
+	 */
+	private boolean handleBinary(byte[] buf, int off, int len) {
+		FrameReader in = this.reader.reset(buf, off, len);
+
+		try {
+			Command cmd = Command.fromOpcode((byte) in.getByte());
+
+			if (!admit(cmd)) {
+				return true;
+			}
+
+			switch (cmd) {
+				case LOGIN:
+					login(in.getString());
+					break;
+				case LOGOUT:
+					logout(this.username);
+					return false;
+				case MSG:
+					message(in.getString());
+					break;
+				case WHSP:
+					UserDirectory users = this.server.getUsers();
+					int toId = in.getInt();
+					String message = in.getString();
+
+					if (toId < 0 || toId >= users.size()) {
+						Log.warn("invalid_frame", this.username, null);
+						break;
+					}
+
+					whisper(users.nameOf(toId), message);
+					break;
+				case SEARCH:
+					search(in.getString());
+					break;
+				case PING:
+					sendToClient(new Frame.Builder(Command.PONG).putInt(in.getInt()).build());
+					break;
+				case PONG:
+					this.heartbeats = true;
+					break;
+				default:
+					Log.warn("invalid_command", this.username, null);
+					break;
 			}
+		} catch (EOFException e) {
+			Log.warn("invalid_frame", this.username, null);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks the command is within the rate limits. A client over its limit is
+	 * sent a throttle frame saying how long to wait, once per wait; anything it
+	 * sends of that command until then is dropped.
+	 *
+	 * @param cmd the command received.
+	 *
+	 * @return {@code true} if the command may go ahead, {@code false} if it
+	 * is dropped.
+	 */
+	private boolean admit(Command cmd) {
+		long now = System.nanoTime();
+		long wait = this.server.getLimiter().check(this.buckets, this.username, cmd, now);
 
-			msg = "online " + ccUsername + tail;
-			sendToClient(msg);
+		if (wait == 0) {
+			return true;
 		}
 
-		// send all other online users the message that the current user is online
-		msg = "online " + this.username + tail;
-		for (ClientHandler currClient : clients) {
-			if (this.username.equals(currClient.getUsername())) {
-				continue;
+		this.server.getMetrics().throttled();
+
+		// already told, drop quietly until the wait is over
+		if (now - this.throttled[cmd.ordinal()] < 0) {
+			return false;
+		}
+
+		this.throttled[cmd.ordinal()] = now + wait;
+
+		int millis = (int) Math.max(1, wait / 1000000L);
+		Log.warn("throttled", this.username, cmd.getKey());
+		sendToClient(Frame.of("throttle " + cmd.getKey() + " " + millis),
+			new Frame.Builder(Command.THROTTLE).putByte(cmd.getOpcode()).putInt(millis).build());
+
+		return false;
+	}
+
+	/**
+	 * Agrees on the protocol version with the client. The reply is always a
+	 * text frame; frames after it use the agreed protocol.
+	 *
+	 * @param body the version the client asks for.
+	 */
+	public void proto(String body) {
+		int agreed = Command.TEXT;
+
+		try {
+			if (this.username.equals("") && Integer.parseInt(body.trim()) >= Command.BINARY) {
+				agreed = Command.BINARY;
 			}
+		} catch (NumberFormatException e) {
+			// unknown version, stay on text
+		}
 
-			currClient.sendToClient(msg);
+		try {
+			write("proto " + agreed);
+		} catch (IOException e) {
+			Log.warn("send_failed", this.username, e.getMessage());
+			return;
 		}
+
+		this.version = agreed;
 	}
 
 	/**
-	 * Allows user to log out.
+	 * Allows user to log in.
 	 *
 	 * @param body the rest of the message.
 	 */
-	public void logout(String body) {
+	public void login(String body) {
 		String usr = body.trim();
+		boolean replied = false;
 
-		try {
-			this.dos.writeUTF("logout success");
-		} catch (IOException e) {
-			System.err.println("Could not send logout success.");
+		// anything sent to the user once the name is claimed waits for the reply
+		synchronized (this.loginLock) {
+			// claim the username, fails if a user with same name is online here or on another node
+			if (!this.username.equals("") || this.server.getCluster().isRemote(usr)
+					|| !this.server.addUser(usr, this)) {
+				try {
+					write(choose(Frame.of("login failure"),
+						new Frame.Builder(Command.LOGIN).putByte(0).putInt(-1).build()));
+				} catch (IOException e) {
+					Log.warn("send_failed", this.username, e.getMessage());
+				}
+
+				return;
+			}
+
+			int id = this.server.getUsers().idOf(usr);
+
+			// if username is unique, log user in
+			try {
+				write(choose(Frame.of("login success"),
+					new Frame.Builder(Command.LOGIN).putByte(1).putInt(id).build()));
+				replied = true;
+			} catch (IOException e) {
+				Log.warn("send_failed", usr, e.getMessage());
+			}
+
+			// set even without a reply, so the name is given up when the client leaves
+			this.username = usr;
+			this.userId = id;
+		}
+
+		this.lastActive = System.nanoTime();
+		this.server.getMetrics().loggedIn();
+
+		if (!replied) {
 			return;
 		}
 
-		this.server.removeUser(this);
-		System.out.println("\n\033[31m" + usr + " has disconnected.\033[0m\n");
-		this.username = "";
+		Log.info("login", this.username);
 
-		// get all online clients
-		ArrayList<ClientHandler> clients = this.server.getClients();
+		String tail = " is online!";
 
-		String msg = "";
-		String tail = " has disconnected :(";
+		// send current user the roster, binary clients get it as one snapshot
+		if (this.version == Command.BINARY) {
+			sendRoster();
+		} else {
+			for (ClientHandler currClient : this.server.getClients()) {
+				String ccUsername = currClient.getUsername();
 
-		// send all other online users the message that the current user is offline
-		msg = "offline " + usr + tail;
-		for (ClientHandler currClient : clients) {
-			if (usr.equals(currClient.getUsername())) {
-				continue;
+				if (this.username.equals(ccUsername) || ccUsername.equals("")) {
+					continue;
+				}
+
+				sendToClient("online " + ccUsername + tail);
 			}
 
-			currClient.sendToClient(msg);
+			for (String remote : this.server.getCluster().remoteNames()) {
+				sendToClient("online " + remote + tail);
+			}
 		}
+
+		sendHistory();
+		sendMailbox();
+
+		// send all other online users the message that the current user is online
+		Frame text = Frame.pooled("online " + this.username + tail);
+		Frame binary = new Frame.Builder(Command.ONLINE)
+			.putInt(this.userId).putString(this.username).buildPooled();
+		this.server.getBroadcaster().broadcast(Command.ONLINE, text, binary, this);
+		this.server.getCluster().loggedIn(this.username);
 	}
 
 	/**
-	 * Shows any message in global chat sent by the client.
-	 *
-	 * @param body the rest of the message.
+	 * Sends the current user every other known user, as one {@code USERS}
+	 * frame for the online users and one for the offline users. A list is only
+	 * split over more frames when it does not fit in a single frame.
 	 */
-	public void message(String body) {
-		String msg = body.trim();
+	private void sendRoster() {
+		UserDirectory users = this.server.getUsers();
 
-		this.server.setCurrMsg(msg);
-		this.server.setCurrUser(this.username);
+		Cluster cluster = this.server.getCluster();
 
-		System.out.println(this.username + " : " + msg);
+		Frame.Builder online = new Frame.Builder(Command.USERS).putByte(1);
+		for (String name : users.onlineNames()) {
+			if (!name.equals(this.username)) {
+				online = addToRoster(online, 1, users.idOf(name), name);
+			}
+		}
 
-		// get all connected clients
-		ArrayList<ClientHandler> clients = this.server.getClients();
+		for (String name : cluster.remoteNames()) {
+			online = addToRoster(online, 1, users.idOf(name), name);
+		}
 
-		String fullMsg = "";
+		Frame.Builder offline = new Frame.Builder(Command.USERS).putByte(0);
+		int n = users.size();
+		for (int id = 0; id < n; id++) {
+			String name = users.nameOf(id);
 
-		// send all other clients message that current user has typed
-		fullMsg = "msg " + this.username + " : " + msg;
-		for (ClientHandler currClient : clients) {
-			if (this.username.equals(currClient.getUsername())) {
-				continue;
+			if (!users.isOnline(name) && !cluster.isRemote(name)) {
+				offline = addToRoster(offline, 0, id, name);
 			}
-
-			currClient.sendToClient(fullMsg);
 		}
+
+		sendToClient(online.build());
+		sendToClient(offline.build());
 	}
 
 	/**
-	 * Shows a whisper from the current user.
-	 *
-	 * @param body the rest of the message.
+	 * Replays the most recent global messages to the current user, batched
+	 * into as few {@code HISTORY} frames as they fit in.
 	 */
-	public void whisper(String body) {
-		int idx = body.indexOf(" ");
-		String toUser = body.substring(0, idx);
-		String message = body.substring(idx + 1);
+	private void sendHistory() {
+		List<History.Entry> entries = this.server.getHistory().replay();
 
-		if (this.username.equals(toUser)) {
-			System.out.println("\033[35m" + this.username +
-				" tried to whisper to themself. Not allowed.\033[0m");
+		if (entries.isEmpty()) {
 			return;
 		}
 
-		if (!this.server.getOnlineUsers().contains(toUser)) {
-			System.out.println("\033[35mwhisper (" + this.username + " -> " + toUser +
-				") unsuccessful; user not online.\033[0m");
+		if (this.version == Command.BINARY) {
+			Frame.Builder batch = new Frame.Builder(Command.HISTORY);
+
+			for (History.Entry entry : entries) {
+				// a single entry always fits in a frame of its own
+				String text = Frame.truncate(entry.getText(), Frame.MAX_LENGTH - 1 - 22);
+
+				// worst case of three bytes per char, plus the fixed fields
+				if (batch.size() > 1 && batch.size() + 22 + 3 * text.length() > Frame.MAX_LENGTH) {
+					sendToClient(batch.build());
+					batch = new Frame.Builder(Command.HISTORY);
+				}
+
+				batch.putLong(entry.getSeq()).putLong(entry.getTime())
+					.putInt(entry.getUserId()).putString(text);
+			}
+
+			sendToClient(batch.build());
 			return;
 		}
 
-		System.out.println("\033[35m" + this.username + " -> " + toUser +
-			" : \033[0m" + message);
+		StringBuilder batch = new StringBuilder("history");
 
-		// get all connected clients
-		ArrayList<ClientHandler> clients = this.server.getClients();
+		for (History.Entry entry : entries) {
+			String line = fitLine("history", "\n" + entry.getSeq() + " " + entry.getTime() + " "
+				+ entry.getUsername() + " : ", entry.getText());
 
-		String msg = "";
-
-		// send all other clients message that current user has typed
-		msg = "whsp " + this.username + " : " + message;
-		for (ClientHandler currClient : clients) {
-			if (!toUser.equals(currClient.getUsername())) {
+			if (line == null) {
 				continue;
 			}
 
-			currClient.sendToClient(msg);
+			if (batch.length() > 7 && 3 * (batch.length() + line.length()) > Frame.MAX_LENGTH) {
+				sendToClient(batch.toString());
+				batch.setLength(7);
+			}
+
+			batch.append(line);
 		}
+
+		sendToClient(batch.toString());
 	}
 
 	/**
-	 * Sends a message to the client.
+	 * Makes a line of a text batch, such as {@code history}, that fits in a
+	 * frame of its own after the command starting the batch. Newlines in the
+	 * text are escaped so it stays on one line, and it is cut short if it has
+	 * to be.
 	 *
-	 * @param msg the message to send.
+	 * @param cmd the command starting the batch.
+	 * @param head the start of the line, up to the text.
+	 * @param text the text ending the line.
+	 *
+	 * @return the line, or {@code null} if not even its start fits.
 	 */
-	public void sendToClient(String msg) {
-		if (this.username.equals("")) {
-			return;
+	private static String fitLine(String cmd, String head, String text) {
+		int room = Frame.MAX_LENGTH - cmd.length() - Frame.textLength(head);
+
+		if (room < 0) {
+			return null;
+		}
+
+		String line = Frame.truncate(Frame.escapeLine(text), room);
+
+		// never end on half of an escape
+		int slashes = 0;
+		while (slashes < line.length() && line.charAt(line.length() - 1 - slashes) == '\\') {
+			slashes++;
+		}
+
+		return head + (slashes % 2 == 0 ? line : line.substring(0, line.length() - 1));
+	}
+
+	/**
+	 * Adds a user to a roster frame, sending the frame first if the user would
+	 * not fit.
+	 *
+	 * @param roster the roster frame being built.
+	 * @param status {@code 1} for the online roster, {@code 0} for offline.
+	 * @param id the id of the user.
+	 * @param name the username of the user.
+	 *
+	 * @return the roster frame to keep adding to.
+	 */
+	private Frame.Builder addToRoster(Frame.Builder roster, int status, int id, String name) {
+		// worst case of three bytes per char, plus id and length
+		if (roster.size() + 6 + 3 * name.length() > Frame.MAX_LENGTH) {
+			sendToClient(roster.build());
+			roster = new Frame.Builder(Command.USERS).putByte(status);
 		}
 
+		return roster.putInt(id).putString(name);
+	}
+
+	/**
+	 * Allows user to log out.
+	 *
+	 * @param body the rest of the message.
+	 */
+	public void logout(String body) {
 		try {
-			this.dos.writeUTF(msg);
+			write(choose(Frame.of("logout success"),
+				new Frame.Builder(Command.LOGOUT).putByte(1).build()));
 		} catch (IOException e) {
-			System.err.println("Cannot send to client.\nError: " + e);
+			Log.warn("send_failed", this.username, e.getMessage());
 		}
+
+		leave("logout");
 	}
 
 	/**
-	 * Gets the current client's username.
+	 * Takes the client out of the server. If a user was logged in, they are
+	 * marked offline and every other user is told. Only the first call does
+	 * anything, however the connection ended.
 	 *
-	 * @return client's username.
+	 * @param event why the client left, for the log.
 	 */
-	public String getUsername() {
-		return this.username;
-	}
+	protected void leave(String event) {
+		if (!this.left.compareAndSet(false, true)) {
+			return;
+		}
+
+		String usr = this.username;
+
+		if (usr.equals("")) {
+			this.server.removeClient(this);
+			return;
+		}
+
+		this.server.removeUser(this);
+		this.server.getMetrics().loggedOut();
+		Log.info(event, usr);
+		this.username = "";
+
+		String tail = " has disconnected :(";
+
+		// send all other online users the message that the current user is offline
+		Frame text = Frame.pooled("offline " + usr + tail);
+		Frame binary = new Frame.Builder(Command.OFFLINE).putInt(this.userId).buildPooled();
+		this.server.getBroadcaster().broadcast(Command.OFFLINE, text, binary, null);
+		this.server.getCluster().loggedOut(usr);
+	}
+
+	/**
+	 * Checks the connection is still alive, sending a ping when the client has
+	 * been quiet for a while. Called regularly by the server's reaper.
+	 *
+	 * Clients on the binary protocol must answer pings. Text clients are only
+	 * held to it once they have answered one, since older text clients do not
+	 * know about heartbeats and simply ignore them.
+	 *
+	 * @param now the current {@code System.nanoTime()}.
+	 * @param pingAfter quiet time before a ping is sent, in nanoseconds.
+	 * @param readTimeout quiet time before the connection counts as dead.
+	 * @param idleTimeout time without logging in or chatting before the
+	 * client is disconnected, or {@code 0} for no limit.
+	 *
+	 * @return {@code null} if the connection is fine, otherwise why it should
+	 * be evicted.
+	 */
+	public String checkAlive(long now, long pingAfter, long readTimeout, long idleTimeout) {
+		long quiet = now - this.lastRead;
+
+		// a writer that is stuck gets no new frames to trigger the policy
+		if (this.slowPolicy == SlowPolicy.DISCONNECT && isSlow(now)) {
+			if (disconnect("slow_consumer")) {
+				this.server.getMetrics().slowConsumer(SlowPolicy.DISCONNECT, 1);
+			}
+
+			return null;
+		}
+
+		if (quiet > readTimeout && (this.heartbeats || this.version == Command.BINARY)) {
+			return "read_timeout";
+		}
+
+		if (idleTimeout > 0 && now - this.lastActive > idleTimeout) {
+			return "idle_timeout";
+		}
+
+		if (quiet > pingAfter && now - this.lastPing > pingAfter) {
+			this.lastPing = now;
+			int token = (int) (now / 1000000L);
+
+			sendToClient(Frame.of("ping " + token),
+				new Frame.Builder(Command.PING).putInt(token).build());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Evicts a connection that is dead or idle for too long.
+	 *
+	 * @param reason why the connection is evicted, for the log.
+	 */
+	public void evict(String reason) {
+		leave(reason);
+		closeAll();
+	}
+
+	/**
+	 * Records that the client has just sent something.
+	 */
+	protected void touch() {
+		this.lastRead = System.nanoTime();
+	}
+
+	/**
+	 * Shows any message in global chat sent by the client.
+	 *
+	 * @param body the rest of the message.
+	 */
+	public void message(String body) {
+		String msg = body.trim();
+
+		if (tooLong(Command.MSG, msg)) {
+			return;
+		}
+
+		this.server.setCurrMsg(msg);
+		this.server.setCurrUser(this.username);
+		long time = System.currentTimeMillis();
+		long seq = this.server.getHistory().add(this.userId, this.username, msg, time);
+		this.server.getStore().append(Command.MSG, seq, time, this.username, "", msg);
+		this.server.getSearch().add(time, this.userId, SearchIndex.PUBLIC, msg);
+
+		// send all other clients message that current user has typed
+		Frame text = Frame.pooled("msg " + this.username + " : " + msg);
+		Frame binary = new Frame.Builder(Command.MSG).putInt(this.userId).putString(msg).buildPooled();
+		long start = System.nanoTime();
+
+		this.server.getBroadcaster().broadcast(Command.MSG, text, binary, this);
+
+		long took = System.nanoTime() - start;
+		this.server.getMetrics().message();
+
+		Log.info("msg", this.username, Command.MSG, msg.length(), took);
+		this.server.getCluster().message(this.username, time, msg);
+		this.lastActive = System.nanoTime();
+	}
+
+	/**
+	 * Shows a whisper from the current user.
+	 *
+	 * @param toUser the user to whisper to.
+	 * @param message the message to whisper.
+	 */
+	public void whisper(String toUser, String message) {
+		if (this.username.equals(toUser)) {
+			Log.warn("whsp_self", this.username, null);
+			return;
+		}
+
+		if (tooLong(Command.WHSP, message)) {
+			return;
+		}
+
+		// single lookup, the recipient may still log out before delivery
+		ClientHandler recipient = this.server.getHandler(toUser);
+		long time = System.currentTimeMillis();
+
+		if (recipient != null) {
+			recipient.whisperFrom(this.username, this.userId, message);
+		} else if (!this.server.getCluster().whisper(this.username, toUser, time, message)) {
+			mail(toUser, message);
+			return;
+		}
+
+		this.server.getStore().append(Command.WHSP, -1, time, this.username, toUser, message);
+		this.server.getSearch().add(time, this.userId, this.server.getUsers().idOf(toUser), message);
+		this.server.getMetrics().whisper();
+		this.lastActive = System.nanoTime();
+		Log.log(Log.Level.INFO, "whsp", this.username, Command.WHSP, message.length(), -1, toUser);
+	}
+
+	/**
+	 * Checks a message still fits in a frame once it is sent on with the
+	 * command and the username in front, as {@code "msg alice : hi"} is. A
+	 * message that does not is refused with an {@code ERROR} frame before
+	 * it is kept anywhere.
+	 *
+	 * @param cmd the command carrying the message.
+	 * @param text the message.
+	 *
+	 * @return {@code true} if the message is too long and was refused,
+	 * {@code false} otherwise.
+	 */
+	private boolean tooLong(Command cmd, String text) {
+		int len = cmd.getKey().length() + 4 + Frame.textLength(this.username) + Frame.textLength(text);
+
+		if (len <= Frame.MAX_LENGTH) {
+			return false;
+		}
+
+		Log.warn("too_long", this.username, cmd.getKey());
+		sendToClient(Frame.of("error " + cmd.getKey() + " too_long"),
+			new Frame.Builder(Command.ERROR).putByte(cmd.getOpcode()).putString("too_long").build());
+
+		return true;
+	}
+
+	/**
+	 * Sends the client a whisper addressed to it.
+	 *
+	 * @param from the user who sent it.
+	 * @param fromId the id of the user who sent it.
+	 * @param message the whisper.
+	 */
+	public void whisperFrom(String from, int fromId, String message) {
+		Frame frame = this.version == Command.BINARY
+			? new Frame.Builder(Command.WHSP).putInt(fromId).putString(message).buildPooled()
+			: Frame.pooled("whsp " + from + " : " + message);
+
+		sendToClient(frame);
+		frame.release();
+	}
+
+	/**
+	 * Searches the messages and whispers the current user can see, and sends
+	 * back the hits in a single {@code SEARCH} frame, newest first. Hits that
+	 * do not fit in the frame are left out.
+	 *
+	 * @param query the words to search for.
+	 */
+	public void search(String query) {
+		if (this.username.equals("")) {
+			Log.warn("search_before_login", null, null);
+			return;
+		}
+
+		long start = System.nanoTime();
+		UserDirectory users = this.server.getUsers();
+		List<SearchIndex.Hit> hits = this.server.getSearch().search(this.userId, users, query);
+
+		if (this.version == Command.BINARY) {
+			Frame.Builder reply = new Frame.Builder(Command.SEARCH);
+
+			for (SearchIndex.Hit hit : hits) {
+				// worst case of three bytes per char, plus the fixed fields
+				if (reply.size() + 18 + 3 * hit.getText().length() > Frame.MAX_LENGTH) {
+					break;
+				}
+
+				reply.putLong(hit.getTime()).putInt(hit.getFrom()).putInt(hit.getTo()).putString(hit.getText());
+			}
+
+			sendToClient(reply.build());
+		} else {
+			StringBuilder reply = new StringBuilder("search");
+
+			for (SearchIndex.Hit hit : hits) {
+				String to = hit.getTo() == SearchIndex.PUBLIC ? "*" : users.nameOf(hit.getTo());
+				String line = "\n" + hit.getTime() + " " + users.nameOf(hit.getFrom()) + " " + to
+					+ " : " + Frame.escapeLine(hit.getText());
+
+				if (3 * (reply.length() + line.length()) > Frame.MAX_LENGTH) {
+					break;
+				}
+
+				reply.append(line);
+			}
+
+			sendToClient(reply.toString());
+		}
+
+		long took = System.nanoTime() - start;
+		this.server.getMetrics().searched(took);
+		Log.log(Log.Level.INFO, "search", this.username, Command.SEARCH, query.length(), took,
+			Integer.toString(hits.size()));
+	}
+
+	/**
+	 * Keeps a whisper for a user who is offline, to be delivered when they
+	 * next log in.
+	 *
+	 * @param toUser the user to whisper to.
+	 * @param message the message to whisper.
+	 */
+	private void mail(String toUser, String message) {
+		if (!this.server.userExists(toUser)) {
+			Log.warn("whsp_unknown", this.username, toUser);
+			return;
+		}
+
+		long time = System.currentTimeMillis();
+		this.server.getMailboxes().put(toUser, this.username, message, time);
+		this.server.getStore().append(Command.WHSP, -1, time, this.username, toUser, message);
+		this.server.getSearch().add(time, this.userId, this.server.getUsers().idOf(toUser), message);
+		this.lastActive = System.nanoTime();
+		Log.log(Log.Level.INFO, "whsp_mailbox", this.username, Command.WHSP, message.length(), -1, toUser);
+
+		// the recipient may have logged in and emptied the mailbox meanwhile
+		ClientHandler recipient = this.server.getHandler(toUser);
+		if (recipient != null) {
+			recipient.sendMailbox();
+		}
+	}
+
+	/**
+	 * Delivers every whisper that was kept for the current user while they
+	 * were offline, batched into as few {@code MAILBOX} frames as they fit in.
+	 */
+	protected void sendMailbox() {
+		List<Mailboxes.Letter> letters = this.server.getMailboxes().take(this.username);
+
+		if (letters.isEmpty()) {
+			return;
+		}
+
+		if (this.version == Command.BINARY) {
+			UserDirectory users = this.server.getUsers();
+			Frame.Builder batch = new Frame.Builder(Command.MAILBOX);
+
+			for (Mailboxes.Letter letter : letters) {
+				// a single whisper always fits in a frame of its own
+				String text = Frame.truncate(letter.getText(), Frame.MAX_LENGTH - 1 - 14);
+
+				// worst case of three bytes per char, plus the fixed fields
+				if (batch.size() > 1 && batch.size() + 14 + 3 * text.length() > Frame.MAX_LENGTH) {
+					sendToClient(batch.build());
+					batch = new Frame.Builder(Command.MAILBOX);
+				}
+
+				batch.putLong(letter.getTime()).putInt(users.idOf(letter.getFrom())).putString(text);
+			}
+
+			sendToClient(batch.build());
+		} else {
+			StringBuilder batch = new StringBuilder("mailbox");
+
+			for (Mailboxes.Letter letter : letters) {
+				String line = fitLine("mailbox", "\n" + letter.getTime() + " " + letter.getFrom() + " : ",
+					letter.getText());
+
+				if (line == null) {
+					continue;
+				}
+
+				if (batch.length() > 7 && 3 * (batch.length() + line.length()) > Frame.MAX_LENGTH) {
+					sendToClient(batch.toString());
+					batch.setLength(7);
+				}
+
+				batch.append(line);
+			}
+
+			sendToClient(batch.toString());
+		}
+
+		Log.log(Log.Level.INFO, "mailbox_delivered", this.username, Command.MAILBOX, -1, -1,
+			Integer.toString(letters.size()));
+	}
+
+	/**
+	 * Picks the frame matching the protocol the client speaks.
+	 *
+	 * @param text the frame for the text protocol.
+	 * @param binary the frame for the binary protocol.
+	 *
+	 * @return the frame to send to this client.
+	 */
+	private Frame choose(Frame text, Frame binary) {
+		return this.version == Command.BINARY ? binary : text;
+	}
+
+	/**
+	 * Sends one of two encodings of the same frame to the client, depending on
+	 * the protocol it speaks.
+	 *
+	 * @param text the frame for the text protocol.
+	 * @param binary the frame for the binary protocol.
+	 */
+	public void sendToClient(Frame text, Frame binary) {
+		sendToClient(choose(text, binary));
+	}
+
+	/**
+	 * Sends a message to the client.
+	 *
+	 * @param msg the message to send.
+	 */
+	public void sendToClient(String msg) {
+		Frame frame;
+
+		try {
+			frame = Frame.of(msg);
+		} catch (IllegalArgumentException e) {
+			Log.warn("send_failed", this.username, e.getMessage());
+			return;
+		}
+
+		sendToClient(frame);
+	}
+
+	/**
+	 * Sends an already encoded frame to the client. The same frame may be
+	 * shared by every recipient of a broadcast.
+	 *
+	 * @param frame the frame to send.
+	 */
+	public void sendToClient(Frame frame) {
+		if (this.username.equals("")) {
+			// the user may be logging in, then the frame follows the login reply
+			synchronized (this.loginLock) {
+				if (this.username.equals("")) {
+					return;
+				}
+			}
+		}
+
+		try {
+			write(frame);
+		} catch (IOException e) {
+			Log.warn("send_failed", this.username, e.getMessage());
+		}
+	}
+
+	/**
+	 * Queues a single message for the client without blocking.
+	 *
+	 * @param msg the message to write.
+	 * @throws IOException when the frame is dropped.
+	 */
+	protected void write(String msg) throws IOException {
+		write(Frame.of(msg));
+	}
+
+	/**
+	 * Queues a single frame for the client without blocking. If the queue is
+	 * full the client is not keeping up and the frame is dropped.
+	 *
+	 * @param frame the frame to write.
+	 * @throws IOException when the frame is dropped.
+	 */
+	protected void write(Frame frame) throws IOException {
+		if (this.closed || this.closingAt != 0) {
+			return;
+		}
+
+		long now = System.nanoTime();
+
+		if (isSlow(now) && !relieve(frame)) {
+			return;
+		}
+
+		// the queue holds its own reference until the frame is written or dropped
+		if (!this.outbound.offer(frame.retain())) {
+			frame.release();
+			this.dropped.incrementAndGet();
+			this.server.getMetrics().failedWrite();
+			throw new IOException("outbound queue full");
+		}
+
+		// closed meanwhile, and the queue may already have been emptied
+		if (this.closed) {
+			if (this.outbound.remove(frame)) {
+				frame.release();
+			}
+
+			return;
+		}
+
+		// time waiting starts with the first frame of a backlog
+		if (this.queuedBytes.getAndAdd(frame.size()) == 0) {
+			this.drainedAt = now;
+		}
+
+		onEnqueued();
+	}
+
+	/**
+	 * Returns if the client is not keeping up: its backlog is too big, its
+	 * queue is full, or the writer has been stuck for too long.
+	 *
+	 * @param now the current {@code System.nanoTime()}.
+	 *
+	 * @return {@code true} if the client is a slow consumer.
+	 */
+	protected boolean isSlow(long now) {
+		if (this.queuedBytes.get() > SLOW_BYTES || this.outbound.remainingCapacity() == 0) {
+			return true;
+		}
+
+		return !this.outbound.isEmpty() && now - this.drainedAt > SLOW_NANOS;
+	}
+
+	/**
+	 * Applies the slow consumer policy before a frame is queued.
+	 *
+	 * @param frame the frame about to be queued.
+	 *
+	 * @return {@code true} if the frame should still be queued, {@code false}
+	 * if it was dropped.
+	 */
+	private boolean relieve(Frame frame) {
+		SlowPolicy policy = this.slowPolicy;
+
+		if (!this.slow) {
+			this.slow = true;
+			Log.warn("slow_consumer", this.username, policy.name().toLowerCase());
+		}
+
+		switch (policy) {
+			case DROP_OLDEST:
+				dropMessages(1, SLOW_BYTES - frame.size());
+				return true;
+			case PRIORITY:
+				if (frame.command() == Command.MSG) {
+					this.dropped.incrementAndGet();
+					this.server.getMetrics().slowConsumer(policy, 1);
+					return false;
+				}
+
+				dropMessages(Integer.MAX_VALUE, 0);
+				return true;
+			default:
+				if (disconnect("slow_consumer")) {
+					this.server.getMetrics().slowConsumer(policy, 1);
+				}
+
+				return false;
+		}
+	}
+
+	/**
+	 * Drops queued global messages, oldest first. Whispers, presence and
+	 * replies are never dropped.
+	 *
+	 * @param atLeast the number of messages to drop, if there are that many.
+	 * @param targetBytes keep dropping until the backlog is no bigger.
+	 */
+	private void dropMessages(int atLeast, long targetBytes) {
+		int n = 0;
+		Iterator<Frame> it = this.outbound.iterator();
+
+		while (it.hasNext() && (n < atLeast || this.queuedBytes.get() > targetBytes)) {
+			Frame queued = it.next();
+
+			// the writer may have taken it meanwhile, and then releases it itself
+			if (queued.command() != Command.MSG || !this.outbound.remove(queued)) {
+				continue;
+			}
+
+			queued.release();
+			this.queuedBytes.addAndGet(-queued.size());
+			n++;
+		}
+
+		if (n > 0) {
+			this.dropped.addAndGet(n);
+			this.server.getMetrics().slowConsumer(this.slowPolicy, n);
+		}
+	}
+
+	/**
+	 * Disconnects the client, telling it why. Whatever is still queued is
+	 * dropped so the reason is the next frame written; if even that cannot be
+	 * sent in time the reaper closes the connection.
+	 *
+	 * @param reason why the client is disconnected.
+	 *
+	 * @return {@code true} if the client is now being disconnected,
+	 * {@code false} if it already was.
+	 */
+	public synchronized boolean disconnect(String reason) {
+		if (this.closed || this.closingAt != 0) {
+			return false;
+		}
+
+		this.closingAt = System.nanoTime();
+		leave(reason);
+
+		Frame bye = choose(Frame.of("disconnect " + reason),
+			new Frame.Builder(Command.DISCONNECT).putString(reason).build());
+
+		discard();
+
+		// counted like any other frame, the writer takes it off again once sent
+		this.queuedBytes.addAndGet(bye.size());
+		this.drainedAt = System.nanoTime();
+
+		if (!this.outbound.offer(bye)) {
+			this.queuedBytes.addAndGet(-bye.size());
+			bye.release();
+		}
+
+		closeAfterFlush();
+
+		// the client may not even read the reason, close it regardless
+		this.server.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!isClosed()) {
+					evict("close_timeout");
+				}
+			}
+		}, CLOSE_GRACE);
+
+		return true;
+	}
+
+	/**
+	 * Closes the connection once everything queued has been written. The
+	 * blocking writer stops when it reaches the close marker.
+	 */
+	protected void closeAfterFlush() {
+		this.outbound.offer(CLOSE);
+	}
+
+	/**
+	 * Records that the writer has sent frames to the client.
+	 *
+	 * @param bytes the number of bytes taken off the queue.
+	 */
+	protected void drained(long bytes) {
+		this.queuedBytes.addAndGet(-bytes);
+		this.drainedAt = System.nanoTime();
+
+		if (this.slow && this.outbound.isEmpty()) {
+			this.slow = false;
+		}
+	}
+
+	/**
+	 * Drops everything waiting to be written.
+	 */
+	protected void discard() {
+		Frame frame;
+
+		while ((frame = this.outbound.poll()) != null) {
+			frame.release();
+		}
+
+		this.queuedBytes.set(0);
+	}
+
+	/**
+	 * Sets what to do with the client if it stops keeping up.
+	 *
+	 * @param policy the slow consumer policy.
+	 */
+	public void setSlowPolicy(SlowPolicy policy) {
+		this.slowPolicy = policy;
+	}
+
+	/**
+	 * Reads a slow consumer policy such as {@code drop-oldest}.
+	 */
+	private static SlowPolicy slowPolicy(String name) {
+		try {
+			return SlowPolicy.valueOf(name.trim().toUpperCase().replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown slow consumer policy " + name + ", dropping oldest messages.");
+			return SlowPolicy.DROP_OLDEST;
+		}
+	}
+
+	/**
+	 * Called after a frame has been queued. The blocking writer is already
+	 * waiting on the queue, so there is nothing to do here.
+	 */
+	protected void onEnqueued() { }
+
+	/**
+	 * Marks the connection as closed so that no more frames are queued.
+	 */
+	protected void setClosed() {
+		this.closed = true;
+		discard();
+	}
+
+	/**
+	 * Returns if the connection is closed.
+	 *
+	 * @return {@code true} if closed, {@code false} otherwise.
+	 */
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Gets the number of frames waiting to be written to the client.
+	 *
+	 * @return current outbound queue depth.
+	 */
+	public int getQueueDepth() {
+		return this.outbound.size();
+	}
+
+	/**
+	 * Gets the number of frames dropped because the outbound queue was full.
+	 *
+	 * @return number of dropped frames.
+	 */
+	public long getDropped() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Gets the number of bytes waiting to be written to the client.
+	 *
+	 * @return current outbound backlog in bytes.
+	 */
+	public long getQueuedBytes() {
+		return this.queuedBytes.get();
+	}
+
+	/**
+	 * Gets the current client's username.
+	 *
+	 * @return client's username.
+	 */
+	public String getUsername() {
+		return this.username;
+	}
+
+	/**
+	 * Gets the current client's user id.
+	 *
+	 * @return client's user id, or {@code -1} if not logged in.
+	 */
+	public int getUserId() {
+		return this.userId;
+	}
+
+	/**
+	 * Gets the protocol version the client speaks.
+	 *
+	 * @return {@code Command.TEXT} or {@code Command.BINARY}.
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Closes all connections to the client.
+	 */
+	public void closeAll() {
+		setClosed();
 
-	public void closeAll() {
 		try {
 			this.client.close();
 			this.dis.close();
 			this.dos.close();
 		} catch (IOException e) {
-			System.err.println("Error closing connections: " + e);
+			Log.error("close_failed", e);
 		}
 	}
 }
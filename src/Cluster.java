@@ -0,0 +1,724 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cluster class to join several servers into a single chat.
+ *
+ * Every node of a cluster is given the address of every other node, and keeps
+ * a link to each of them that it sends its own events on: users coming online
+ * or going offline on it, global messages sent on it, and whispers sent on it
+ * to users who are online on another node. Nodes never pass on what they hear
+ * from a peer, so the peers must form a full mesh. Every node remembers which
+ * node each remote user is online on, so a whisper goes straight to that one
+ * node, and shows remote users in the roster of its own clients. Global
+ * messages from other nodes are kept in the history, message log and search
+ * index of every node.
+ *
+ * Nodes only accept links from nodes that know the cluster secret. The
+ * accepting node sends a random challenge, and the connecting node answers
+ * with its name and an HMAC-SHA256 of the challenge and its name keyed with
+ * the secret; a link that fails the check is closed before anything on it is
+ * believed. The cluster port only listens on the loopback interface unless
+ * told otherwise, so nodes on other machines need {@code chatter.cluster.bind}.
+ *
+ * When a link comes up the sender first says which node it is and then sends a
+ * snapshot of the users online on it; events that happen while a link is down
+ * are not sent. A node that stops sending, even pings, for
+ * {@code chatter.cluster.timeout} seconds (default 5) is lost: every user that
+ * was online on it is shown offline and may log in on another node.
+ *
+ * A user may only log in on one node. If the same user logs in on two nodes
+ * at the same time, both find out when they hear of the other login; the
+ * earlier login wins, or the node with the lower name if both logged in in
+ * the same millisecond, and the other node disconnects its client with the
+ * reason {@code duplicate_login}.
+ *
+ * Configured with system properties:
+ * <ul>
+ * <li>{@code chatter.cluster.port} port to listen for peers on, no cluster if unset</li>
+ * <li>{@code chatter.cluster.bind} address to listen for peers on, default {@code 127.0.0.1}</li>
+ * <li>{@code chatter.cluster.secret} secret shared by every node, required</li>
+ * <li>{@code chatter.cluster.node} name of this node, default {@code 127.0.0.1:<port>}</li>
+ * <li>{@code chatter.cluster.peers} {@code host:port} of every other node, comma separated</li>
+ * <li>{@code chatter.cluster.timeout} seconds without hearing from a node before it is lost</li>
+ * </ul>
+ * The name of a node must be the address the other nodes list it under.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class Cluster {
+
+	/**
+	 * Events sent between nodes, by ordinal.
+	 */
+	private enum Op {
+		HELLO, SYNC, ONLINE, OFFLINE, MSG, WHSP, PING
+	}
+
+	// globals
+	private static final int QUEUE_CAPACITY = 1 << 16;
+	private static final long PING_MILLIS = 1000;
+	private static final long MAX_BACKOFF = 5000;
+	private static final int CHALLENGE = 16; /*<< bytes of the challenge sent to a connecting node */
+	private static final int MAC = 32;       /*<< bytes of the answer to it */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final Server server;
+	private final int port;       /*<< port peers connect to, negative for no cluster */
+	private final String bind;    /*<< address to listen for peers on */
+	private final byte[] secret;  /*<< shared by every node, null if unset */
+	private final String node;    /*<< name of this node */
+	private final int timeout;    /*<< milliseconds before a silent node is lost */
+
+	private final Map<String, Peer> peers;                 /*<< links to other nodes, by name */
+	private final ConcurrentHashMap<String, Claim> remote; /*<< users online on other nodes */
+	private final ConcurrentHashMap<String, Long> local;   /*<< login time of users on this node */
+	private final ConcurrentHashMap<String, Socket> links; /*<< connections from other nodes */
+
+	/**
+	 * Constructor reading the configuration from the system properties.
+	 *
+	 * @param server the server this node runs.
+	 */
+	public Cluster(Server server) {
+		this.server = server;
+		this.port = Integer.getInteger("chatter.cluster.port", -1);
+		this.bind = System.getProperty("chatter.cluster.bind", "127.0.0.1");
+
+		String secret = System.getProperty("chatter.cluster.secret", "");
+		this.secret = secret.equals("") ? null : secret.getBytes(StandardCharsets.UTF_8);
+		this.node = System.getProperty("chatter.cluster.node", "127.0.0.1:" + this.port);
+		this.timeout = (int) TimeUnit.SECONDS.toMillis(Long.getLong("chatter.cluster.timeout", 5));
+
+		this.peers = new HashMap<>();
+		this.remote = new ConcurrentHashMap<>();
+		this.local = new ConcurrentHashMap<>();
+		this.links = new ConcurrentHashMap<>();
+
+		for (String peer : System.getProperty("chatter.cluster.peers", "").split(",")) {
+			peer = peer.trim();
+
+			if (!peer.equals("") && !peer.equals(this.node)) {
+				this.peers.put(peer, new Peer(peer));
+			}
+		}
+	}
+
+	/**
+	 * Starts listening for other nodes and connecting to them. Does nothing if
+	 * no cluster port is configured.
+	 *
+	 * @throws IOException when the cluster port cannot be opened, or no
+	 * cluster secret is set.
+	 */
+	public void start() throws IOException {
+		if (this.port < 0) {
+			return;
+		}
+
+		if (this.secret == null) {
+			throw new IOException("chatter.cluster.secret must be set to run a cluster");
+		}
+
+		ServerSocket listener = new ServerSocket(this.port, 50, InetAddress.getByName(this.bind));
+
+		daemon("cluster-accept", () -> {
+			while (true) {
+				try {
+					Socket socket = listener.accept();
+					daemon("cluster-link", () -> read(socket));
+				} catch (IOException e) {
+					Log.error("cluster_accept_failed", e);
+				}
+			}
+		});
+
+		for (Peer peer : this.peers.values()) {
+			daemon("cluster-peer", peer::run);
+		}
+
+		Log.log(Log.Level.INFO, "cluster_started", null, null, -1, -1, this.node + " on " + this.bind);
+	}
+
+	/**
+	 * Checks whether a user is online on another node.
+	 *
+	 * @param username the user to check.
+	 *
+	 * @return {@code true} if another node has the user.
+	 */
+	public boolean isRemote(String username) {
+		return this.remote.containsKey(username);
+	}
+
+	/**
+	 * Gets the users that are online on other nodes.
+	 *
+	 * @return a snapshot of the usernames.
+	 */
+	public List<String> remoteNames() {
+		return new ArrayList<>(this.remote.keySet());
+	}
+
+	/**
+	 * Tells the other nodes a user has logged in on this node. If another node
+	 * already had the user and logged in earlier, the user is disconnected
+	 * again here.
+	 *
+	 * @param username the user who logged in.
+	 */
+	public void loggedIn(String username) {
+		long since = System.currentTimeMillis();
+
+		this.local.put(username, since);
+		send(Op.ONLINE, username, since);
+
+		Claim other = this.remote.get(username);
+		if (other != null) {
+			resolve(username, since, other);
+		}
+	}
+
+	/**
+	 * Tells the other nodes a user has left this node. If the user was
+	 * disconnected because they logged in on another node, they are shown
+	 * online again straight away.
+	 *
+	 * @param username the user who left.
+	 */
+	public void loggedOut(String username) {
+		if (this.local.remove(username) == null) {
+			return;
+		}
+
+		send(Op.OFFLINE, username);
+
+		if (this.remote.containsKey(username)) {
+			presence(username, true);
+		}
+	}
+
+	/**
+	 * Sends a global message from a user on this node to the other nodes.
+	 *
+	 * @param from the user who sent it.
+	 * @param time when it was sent, in epoch milliseconds.
+	 * @param text the message.
+	 */
+	public void message(String from, long time, String text) {
+		if (!this.peers.isEmpty()) {
+			send(Op.MSG, from, time, text);
+		}
+	}
+
+	/**
+	 * Sends a whisper to the node the recipient is online on.
+	 *
+	 * @param from the user who sent it.
+	 * @param to the user it is for.
+	 * @param time when it was sent, in epoch milliseconds.
+	 * @param text the whisper.
+	 *
+	 * @return {@code true} if it was sent, {@code false} if no connected node
+	 * has the recipient.
+	 */
+	public boolean whisper(String from, String to, long time, String text) {
+		Claim claim = this.remote.get(to);
+		Peer peer = claim == null ? null : this.peers.get(claim.node);
+
+		if (peer == null) {
+			return false;
+		}
+
+		try {
+			return peer.offer(encode(Op.WHSP, from, to, time, text));
+		} catch (IOException e) {
+			// the recipient is elsewhere, so the whisper is dropped rather than mailed
+			Log.warn("relay_failed", from, e.getMessage());
+			return true;
+		}
+	}
+
+	/**
+	 * Gets the number of other nodes currently connected.
+	 *
+	 * @return number of links that are up.
+	 */
+	public int getPeersUp() {
+		int n = 0;
+
+		for (Peer peer : this.peers.values()) {
+			if (peer.up) {
+				n++;
+			}
+		}
+
+		return n;
+	}
+
+	/**
+	 * Queues an event for every other node. An event that cannot be encoded
+	 * is dropped.
+	 */
+	private void send(Op op, Object... fields) {
+		byte[] event;
+
+		try {
+			event = encode(op, fields);
+		} catch (IOException e) {
+			Log.warn("relay_failed", null, e.getMessage());
+			return;
+		}
+
+		for (Peer peer : this.peers.values()) {
+			peer.offer(event);
+		}
+	}
+
+	/**
+	 * Reads the events sent by another node until its connection is lost.
+	 */
+	private void read(Socket socket) {
+		String from = null;
+
+		try {
+			socket.setSoTimeout(this.timeout);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+			byte[] challenge = new byte[CHALLENGE];
+			RANDOM.nextBytes(challenge);
+			socket.getOutputStream().write(challenge);
+
+			if (in.readByte() != Op.HELLO.ordinal()) {
+				return;
+			}
+
+			String name = in.readUTF();
+			byte[] answer = new byte[MAC];
+			in.readFully(answer);
+
+			if (!MessageDigest.isEqual(answer, mac(challenge, name))) {
+				Log.warn("node_refused", null, String.valueOf(socket.getRemoteSocketAddress()));
+				return;
+			}
+
+			from = name;
+			Socket old = this.links.put(from, socket);
+			if (old != null) {
+				old.close();
+			}
+
+			Log.log(Log.Level.INFO, "node_joined", null, null, -1, -1, from);
+
+			while (true) {
+				Op op = Op.values()[in.readByte()];
+
+				switch (op) {
+					case SYNC:
+						HashMap<String, Long> users = new HashMap<>();
+						for (int n = in.readInt(); n > 0; n--) {
+							users.put(in.readUTF(), in.readLong());
+						}
+						sync(from, users);
+						break;
+					case ONLINE:
+						claim(from, in.readUTF(), in.readLong());
+						break;
+					case OFFLINE:
+						release(from, in.readUTF());
+						break;
+					case MSG:
+						relayMessage(in.readUTF(), in.readLong(), in.readUTF());
+						break;
+					case WHSP:
+						relayWhisper(in.readUTF(), in.readUTF(), in.readLong(), in.readUTF());
+						break;
+					default:
+						break;
+				}
+			}
+		} catch (IOException e) {
+			// link lost
+		} catch (RuntimeException e) {
+			Log.error("cluster_read_failed", e);
+		} finally {
+			// only the newest connection of a node may declare it lost
+			if (from != null && this.links.remove(from, socket)) {
+				lost(from);
+			}
+
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	/**
+	 * Records that a user is online on another node, settling who keeps the
+	 * user if they are online somewhere else too.
+	 */
+	private synchronized void claim(String from, String username, long since) {
+		Claim claim = new Claim(from, since);
+		Claim old = this.remote.get(username);
+
+		if (old != null && !old.node.equals(from) && old.beats(claim)) {
+			return;
+		}
+
+		this.remote.put(username, claim);
+
+		Long mine = this.local.get(username);
+		if (mine != null) {
+			resolve(username, mine, claim);
+		} else if (old == null) {
+			presence(username, true);
+		}
+	}
+
+	/**
+	 * Settles a user being logged in here and on another node at once. The
+	 * earlier login keeps the user.
+	 */
+	private void resolve(String username, long since, Claim other) {
+		if (new Claim(this.node, since).beats(other)) {
+			// the other node disconnects its client when it hears of ours
+			this.remote.remove(username, other);
+			return;
+		}
+
+		Log.warn("duplicate_login", username, other.node);
+		ClientHandler client = this.server.getHandler(username);
+
+		if (client != null) {
+			client.disconnect("duplicate_login");
+		}
+	}
+
+	/**
+	 * Records that a user went offline on another node.
+	 */
+	private synchronized void release(String from, String username) {
+		Claim claim = this.remote.get(username);
+
+		if (claim == null || !claim.node.equals(from) || !this.remote.remove(username, claim)) {
+			return;
+		}
+
+		if (!this.local.containsKey(username)) {
+			presence(username, false);
+		}
+	}
+
+	/**
+	 * Replaces everything known about the users of another node with a
+	 * snapshot it sent.
+	 */
+	private synchronized void sync(String from, Map<String, Long> users) {
+		for (Map.Entry<String, Claim> entry : this.remote.entrySet()) {
+			if (entry.getValue().node.equals(from) && !users.containsKey(entry.getKey())) {
+				release(from, entry.getKey());
+			}
+		}
+
+		for (Map.Entry<String, Long> entry : users.entrySet()) {
+			claim(from, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Shows every user of a node that was lost as offline.
+	 */
+	private synchronized void lost(String from) {
+		Log.warn("node_lost", null, from);
+
+		for (Map.Entry<String, Claim> entry : this.remote.entrySet()) {
+			if (entry.getValue().node.equals(from)) {
+				release(from, entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Tells every client on this node that a remote user came online or went
+	 * offline.
+	 */
+	private void presence(String username, boolean online) {
+		int id = this.server.getUsers().register(username);
+		Frame text = Frame.pooled(online ? "online " + username + " is online!"
+			: "offline " + username + " has disconnected :(");
+		Frame binary = online ? new Frame.Builder(Command.ONLINE).putInt(id).putString(username).buildPooled()
+			: new Frame.Builder(Command.OFFLINE).putInt(id).buildPooled();
+
+		this.server.getBroadcaster().broadcast(online ? Command.ONLINE : Command.OFFLINE, text, binary, null);
+	}
+
+	/**
+	 * Shows a global message sent on another node, and keeps it like one sent
+	 * here.
+	 */
+	private void relayMessage(String from, long time, String text) {
+		int id = this.server.getUsers().register(from);
+		long seq = this.server.getHistory().add(id, from, text, time);
+		this.server.getStore().append(Command.MSG, seq, time, from, "", text);
+		this.server.getSearch().add(time, id, SearchIndex.PUBLIC, text);
+
+		Frame txt = Frame.pooled("msg " + from + " : " + text);
+		Frame binary = new Frame.Builder(Command.MSG).putInt(id).putString(text).buildPooled();
+
+		this.server.getBroadcaster().broadcast(Command.MSG, txt, binary, null);
+
+		this.server.getMetrics().message();
+	}
+
+	/**
+	 * Delivers a whisper sent on another node to a user on this one, keeping
+	 * it in their mailbox if they have just left.
+	 */
+	private void relayWhisper(String from, String to, long time, String text) {
+		UserDirectory users = this.server.getUsers();
+		int fromId = users.register(from);
+
+		this.server.getStore().append(Command.WHSP, -1, time, from, to, text);
+		this.server.getSearch().add(time, fromId, users.register(to), text);
+
+		ClientHandler client = this.server.getHandler(to);
+
+		if (client == null) {
+			this.server.getMailboxes().put(to, from, text, time);
+			return;
+		}
+
+		client.whisperFrom(from, fromId, text);
+		this.server.getMetrics().whisper();
+	}
+
+	/**
+	 * Encodes an event as the bytes sent to other nodes.
+	 *
+	 * @throws IOException when a string is too long to send.
+	 */
+	private static byte[] encode(Op op, Object... fields) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buf);
+
+		out.writeByte(op.ordinal());
+
+		for (Object field : fields) {
+			if (field instanceof Long) {
+				out.writeLong((Long) field);
+			} else {
+				out.writeUTF((String) field);
+			}
+		}
+
+		return buf.toByteArray();
+	}
+
+	/**
+	 * Works out the answer to a challenge for a node, keyed with the cluster
+	 * secret.
+	 */
+	private byte[] mac(byte[] challenge, String name) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(this.secret, "HmacSHA256"));
+			mac.update(challenge);
+			return mac.doFinal(name.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			// every Java platform has HmacSHA256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Starts a daemon thread.
+	 */
+	private static void daemon(String name, Runnable task) {
+		Thread t = new Thread(task, name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Claim class holding which node a user is online on, and since when.
+	 */
+	private static final class Claim {
+		private final String node;
+		private final long since;
+
+		private Claim(String node, long since) {
+			this.node = node;
+			this.since = since;
+		}
+
+		/**
+		 * Checks whether this login wins over another login of the same user.
+		 */
+		private boolean beats(Claim other) {
+			if (this.since != other.since) {
+				return this.since < other.since;
+			}
+
+			return this.node.compareTo(other.node) < 0;
+		}
+	}
+
+	/**
+	 * Peer class holding the link this node sends its events to another node
+	 * on, reconnecting whenever it is lost.
+	 */
+	private final class Peer {
+		private final String name;
+		private final ArrayBlockingQueue<byte[]> queue;
+		private volatile Socket socket;
+		private volatile boolean up;
+
+		private Peer(String name) {
+			this.name = name;
+			this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+			this.socket = null;
+			this.up = false;
+		}
+
+		/**
+		 * Queues an event for the node. If the node is so far behind that the
+		 * queue is full, the link is dropped so that it starts again from a
+		 * fresh snapshot.
+		 *
+		 * @return {@code true} if the event was queued.
+		 */
+		private boolean offer(byte[] event) {
+			if (!this.up) {
+				return false;
+			}
+
+			if (this.queue.offer(event)) {
+				return true;
+			}
+
+			Socket s = this.socket;
+			try {
+				if (s != null) {
+					s.close();
+				}
+			} catch (IOException e) {
+				// closing anyway
+			}
+
+			return false;
+		}
+
+		/**
+		 * Connects to the node and sends it events until the link is lost,
+		 * forever.
+		 */
+		private void run() {
+			int colon = this.name.lastIndexOf(':');
+			InetSocketAddress address = new InetSocketAddress(this.name.substring(0, colon),
+				Integer.parseInt(this.name.substring(colon + 1)));
+			long backoff = 100;
+
+			while (true) {
+				try (Socket s = new Socket()) {
+					s.connect(address, Cluster.this.timeout);
+					s.setTcpNoDelay(true);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+					// prove this node knows the secret before saying anything else
+					byte[] challenge = new byte[CHALLENGE];
+					s.setSoTimeout(Cluster.this.timeout);
+					new DataInputStream(s.getInputStream()).readFully(challenge);
+
+					// events from before the snapshot are stale
+					this.socket = s;
+					this.queue.clear();
+					this.up = true;
+					backoff = 100;
+
+					out.write(encode(Op.HELLO, Cluster.this.node));
+					out.write(mac(challenge, Cluster.this.node));
+					writeSnapshot(out);
+					out.flush();
+					Log.log(Log.Level.INFO, "peer_up", null, null, -1, -1, this.name);
+
+					ArrayList<byte[]> batch = new ArrayList<>();
+					while (true) {
+						byte[] event = this.queue.poll(PING_MILLIS, TimeUnit.MILLISECONDS);
+
+						if (event == null) {
+							out.write(Op.PING.ordinal());
+						} else {
+							batch.add(event);
+							this.queue.drainTo(batch);
+
+							for (byte[] e : batch) {
+								out.write(e);
+							}
+
+							batch.clear();
+						}
+
+						out.flush();
+					}
+				} catch (IOException e) {
+					if (this.up) {
+						Log.warn("peer_down", null, this.name);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				this.up = false;
+
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				backoff = Math.min(MAX_BACKOFF, backoff * 2);
+			}
+		}
+
+		/**
+		 * Writes every user online on this node.
+		 */
+		private void writeSnapshot(DataOutputStream out) throws IOException {
+			HashMap<String, Long> users = new HashMap<>(Cluster.this.local);
+
+			out.writeByte(Op.SYNC.ordinal());
+			out.writeInt(users.size());
+
+			for (Map.Entry<String, Long> entry : users.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue());
+			}
+		}
+	}
+}
@@ -16,27 +16,107 @@
  * this program. If not, see <https://www.gnu.org/licenses/>.
  */
 
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Command enum listing every frame type of the chat protocol.
+ *
+ * In the text protocol (version 1) a frame starts with the key of its command,
+ * for example {@code "msg alice : hi"}. In the binary protocol (version 2) a
+ * frame starts with the one byte opcode of its command, followed by
+ * big-endian integers and strings that are prefixed with a two byte length.
+ *
+ * {@code USERS} is only sent in the binary protocol, as a snapshot of the
+ * roster on login: a status byte ({@code 1} online, {@code 0} offline)
+ * followed by an id and username for every user in that list.
+ *
+ * {@code PING} and {@code PONG} carry a token, as text ({@code "ping 7"}) or a
+ * big-endian integer. Whoever receives a ping answers with a pong holding the
+ * same token, so the server can tell a quiet client from a dead connection.
+ *
+ * {@code THROTTLE} tells a client it is sending a command too fast and that
+ * the last one was dropped: the command and the milliseconds to wait, as text
+ * ({@code "throttle msg 100"}) or an opcode followed by an integer.
+ *
+ * {@code DISCONNECT} is the last frame the server sends before it closes a
+ * connection on its own, with the reason as a string.
+ *
+ * {@code HISTORY} replays recent global messages to a user who has just
+ * logged in. Each message carries its sequence number, time in epoch
+ * milliseconds, sender and text; as binary fields, or in text as one line per
+ * message after the command ({@code "history\n12 1760000000000 alice : hi"}).
+ *
+ * {@code MAILBOX} delivers the whispers sent to a user while they were
+ * offline, when they log in. Each whisper carries its time in epoch
+ * milliseconds, sender and text; as binary fields, or in text as one line per
+ * whisper ({@code "mailbox\n1760000000000 alice : hi"}).
+ *
+ * {@code SEARCH} asks the server to search the messages and whispers it keeps,
+ * with the query as a string ({@code "search hello from:alice"}). The server
+ * answers with one {@code SEARCH} frame holding every hit, newest first: its
+ * time in epoch milliseconds, sender, recipient ({@code -1} for a global
+ * message) and text; as binary fields, or in text as one line per hit with
+ * {@code *} for a global message ({@code "search\n1760000000000 alice * : hi"}).
+ *
+ * {@code ERROR} tells a client a command it sent was refused: the command and
+ * the reason, as text ({@code "error msg too_long"}) or an opcode followed by
+ * a string.
+ */
+
 public enum Command {
 	// enum values
-	USERS("users"), LOGIN("login"), LOGOUT("logout"), MSG("msg"), WHSP("whsp"),
+	USERS(1, "users"), LOGIN(2, "login"), LOGOUT(3, "logout"), MSG(4, "msg"), WHSP(5, "whsp"),
+	ONLINE(6, "online"), OFFLINE(7, "offline"), PROTO(8, "proto"), PING(9, "ping"), PONG(10, "pong"),
+	THROTTLE(11, "throttle"), DISCONNECT(12, "disconnect"), HISTORY(13, "history"), MAILBOX(14, "mailbox"),
+	SEARCH(15, "search"), ERROR(16, "error"),
 	INVALID;
 
+	// protocol versions
+	public static final int TEXT = 1;
+	public static final int BINARY = 2;
+
+	// lookup tables, filled once when the enum is loaded
+	private static final Command[] BY_OPCODE = new Command[256];
+	private static final HashMap<String, Command> BY_KEY = new HashMap<>();
+	private static final Command[][] BY_LENGTH = new Command[16][0];
+
+	static {
+		for (Command cmd : Command.values()) {
+			if (cmd != INVALID) {
+				BY_OPCODE[cmd.opcode] = cmd;
+				BY_KEY.put(cmd.key, cmd);
+
+				Command[] same = BY_LENGTH[cmd.key.length()];
+				same = Arrays.copyOf(same, same.length + 1);
+				same[same.length - 1] = cmd;
+				BY_LENGTH[cmd.key.length()] = same;
+			}
+		}
+	}
+
 	// enum key
 	private String key;
 
+	// enum opcode
+	private int opcode;
+
 	/**
 	 * Constructor for when no key given.
 	 */
 	private Command() {
 		this.key = "";
+		this.opcode = 0;
 	}
 
 	/**
 	 * Constructor for when key is given.
 	 *
+	 * @param opcode the byte that starts a binary frame of this command.
 	 * @param key the key to assign enum value to.
 	 */
-	private Command(String key) {
+	private Command(int opcode, String key) {
+		this.opcode = opcode;
 		this.key = key;
 	}
 
@@ -49,6 +129,15 @@ public enum Command {
 		return this.key;
 	}
 
+	/**
+	 * Gets the opcode that starts a binary frame of this command.
+	 *
+	 * @return the opcode of the command.
+	 */
+	public byte getOpcode() {
+		return (byte) this.opcode;
+	}
+
 	/**
 	 * Gets the value of the enum associated with the given key.
 	 *
@@ -56,17 +145,50 @@ public enum Command {
 	 * @return {@code INVALID} if no value found for key, otherwise the value associated
 	 * with the key.
 	 */
-	public Command getValue(String key) {
-		Command value = INVALID;
+	public static Command getValue(String key) {
+		Command value = BY_KEY.get(key);
+		return value == null ? INVALID : value;
+	}
 
-		// find value for key
-		for (Command cmd : Command.values()) {
-			if (cmd.getKey().equals(key)) {
-				value = cmd;
-				break;
+	/**
+	 * Gets the value of the enum whose key is spelled by the given bytes,
+	 * without making a string of them first.
+	 *
+	 * @param buf the buffer holding the key.
+	 * @param off the start of the key.
+	 * @param len the length of the key.
+	 * @return {@code INVALID} if no value found for key, otherwise the value associated
+	 * with the key.
+	 */
+	public static Command getValue(byte[] buf, int off, int len) {
+		if (len >= BY_LENGTH.length) {
+			return INVALID;
+		}
+
+		for (Command cmd : BY_LENGTH[len]) {
+			String key = cmd.key;
+			int i = 0;
+			while (i < len && key.charAt(i) == buf[off + i]) {
+				i++;
+			}
+
+			if (i == len) {
+				return cmd;
 			}
 		}
 
-		return value;
+		return INVALID;
+	}
+
+	/**
+	 * Gets the value of the enum associated with the given opcode.
+	 *
+	 * @param opcode the first byte of a binary frame.
+	 * @return {@code INVALID} if no value found for opcode, otherwise the value
+	 * associated with the opcode.
+	 */
+	public static Command fromOpcode(byte opcode) {
+		Command value = BY_OPCODE[opcode & 0xFF];
+		return value == null ? INVALID : value;
 	}
 }
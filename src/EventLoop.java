@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * EventLoop class to multiplex many non-blocking client connections onto a
+ * single thread.
+ *
+ * Each loop owns a Selector. Channels are registered with a loop once and all
+ * of their reads and writes happen on that loop's thread. Other threads hand
+ * work to the loop through {@link #execute(Runnable)}.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class EventLoop implements Runnable {
+
+	// globals
+	private final Selector selector;
+	private final Thread thread;
+
+	private final ConcurrentLinkedQueue<Runnable> tasks; /*<< work handed over by other threads */
+	private final AtomicBoolean wakeupPending;           /*<< avoids redundant selector wakeups */
+
+	// default constructor
+	public EventLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.wakeupPending = new AtomicBoolean(false);
+
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts the loop thread.
+	 */
+	public void start() {
+		this.thread.start();
+	}
+
+	/**
+	 * Registers a client with this loop. The channel is switched to
+	 * non-blocking mode and starts receiving read events.
+	 *
+	 * @param handler the client to register.
+	 */
+	public void register(NioClientHandler handler) {
+		execute(handler, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					SocketChannel channel = handler.getChannel();
+					channel.configureBlocking(false);
+					handler.setKey(channel.register(selector, SelectionKey.OP_READ, handler));
+				} catch (IOException e) {
+					Log.error("loop_failed", e);
+					handler.closeAll();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on the loop thread. If called from the loop thread itself the
+	 * task is still queued, so it never runs re-entrantly.
+	 *
+	 * @param task the task to run.
+	 */
+	public void execute(Runnable task) {
+		this.tasks.add(task);
+
+		if (Thread.currentThread() != this.thread && this.wakeupPending.compareAndSet(false, true)) {
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * Runs a task for a client on the loop thread. If the task throws, only
+	 * that client is closed and the loop carries on.
+	 *
+	 * @param handler the client the task works on.
+	 * @param task the task to run.
+	 */
+	public void execute(NioClientHandler handler, Runnable task) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					failed(handler, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns if the calling thread is this loop's thread.
+	 *
+	 * @return {@code true} if called from the loop thread, {@code false} otherwise.
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	// run function for selecting and dispatching events
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				this.selector.select();
+				this.wakeupPending.set(false);
+
+				Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+
+					NioClientHandler handler = (NioClientHandler) key.attachment();
+
+					if (!key.isValid()) {
+						continue;
+					}
+
+					// one broken client must not take the loop down with it
+					try {
+						if (key.isReadable()) {
+							handler.onReadable();
+						}
+
+						if (key.isValid() && key.isWritable()) {
+							handler.flush();
+						}
+					} catch (RuntimeException e) {
+						failed(handler, e);
+					}
+				}
+
+				// includes flushes queued while handling the keys above
+				runTasks();
+			} catch (IOException e) {
+				Log.error("loop_failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Runs all tasks queued by other threads.
+	 */
+	private void runTasks() {
+		Runnable task;
+
+		while ((task = this.tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				Log.error("task_failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Closes a client whose handling threw, leaving every other client of the
+	 * loop untouched. Only called on the loop thread.
+	 *
+	 * @param handler the client that failed.
+	 * @param e what it threw.
+	 */
+	private void failed(NioClientHandler handler, RuntimeException e) {
+		Log.error("handler_failed", e);
+
+		try {
+			handler.leave("disconnected");
+		} finally {
+			handler.closeAll();
+		}
+	}
+}
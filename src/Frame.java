@@ -0,0 +1,683 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Frame class holding a message that is already encoded for the wire.
+ *
+ * Every frame is a two byte length followed by its payload. Text frames hold
+ * exactly what {@code DataOutputStream.writeUTF} would produce, so text
+ * clients keep reading them with {@code readUTF}. Binary frames start with a
+ * command opcode and are built with {@link Builder}. A broadcast is encoded
+ * once and the same immutable frame is handed to every recipient.
+ *
+ * Frames made with {@link #pooled(String)} or {@link Builder#buildPooled()}
+ * live in a slot of a shared off-heap {@link BufferPool} instead of an array,
+ * so a busy chat does not keep the garbage collector busy. Pooled frames are
+ * reference counted: whoever makes one holds a reference, every outbound
+ * queue the frame is put on takes another with {@link #retain()}, and each is
+ * given up with {@link #release()} once the frame is written or dropped. The
+ * slot goes back to the pool with the last reference. Frames that do not fit
+ * in a slot, or are made while every slot is taken, are kept on the heap, and
+ * for those both calls do nothing. The pool is set up the first time a pooled
+ * frame is made, with system properties:
+ * <ul>
+ * <li>{@code chatter.pool.slotSize} bytes per pooled frame, default 512</li>
+ * <li>{@code chatter.pool.slots} number of pooled frames, default 16384</li>
+ * </ul>
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public final class Frame {
+
+	// globals
+	public static final int MAX_LENGTH = 65535;
+
+	private static final AtomicIntegerFieldUpdater<Frame> REFS =
+		AtomicIntegerFieldUpdater.newUpdater(Frame.class, "refs");
+	private static final LongAdder MISSES = new LongAdder(); /*<< pooled frames that went on the heap */
+
+	private final byte[] data; /*<< encoded frame on the heap, null when pooled */
+	private final int slot;    /*<< slot in the pool, negative when on the heap */
+	private final int length;  /*<< bytes on the wire, including the length */
+	private volatile int refs; /*<< references held to a pooled frame */
+
+	/**
+	 * Constructor for already encoded bytes.
+	 *
+	 * @param data the encoded frame, including the length.
+	 */
+	private Frame(byte[] data) {
+		this.data = data;
+		this.slot = -1;
+		this.length = data.length;
+	}
+
+	/**
+	 * Constructor for a frame encoded into a pool slot.
+	 *
+	 * @param slot the slot holding the frame.
+	 * @param length the encoded length, including the length prefix.
+	 */
+	private Frame(int slot, int length) {
+		this.data = null;
+		this.slot = slot;
+		this.length = length;
+		this.refs = 1;
+	}
+
+	/**
+	 * Holder of the pool, so it is only allocated once it is needed.
+	 */
+	private static final class Pool {
+		private static final BufferPool POOL = new BufferPool(Integer.getInteger("chatter.pool.slotSize", 512),
+			Integer.getInteger("chatter.pool.slots", 16384));
+	}
+
+	/**
+	 * Encodes a message into a frame.
+	 *
+	 * @param msg the message to encode.
+	 *
+	 * @return the encoded frame.
+	 * @throws IllegalArgumentException when the encoded message is too long.
+	 */
+	public static Frame of(String msg) {
+		// work out encoded length first so the array is allocated once
+		int utflen = utfLength(msg);
+
+		byte[] data = new byte[utflen + 2];
+		data[0] = (byte) (utflen >>> 8);
+		data[1] = (byte) utflen;
+
+		int pos = 2;
+		for (int i = 0; i < msg.length(); i++) {
+			char c = msg.charAt(i);
+
+			if (c >= 0x0001 && c <= 0x007F) {
+				data[pos++] = (byte) c;
+			} else if (c <= 0x07FF) {
+				data[pos++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+				data[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else {
+				data[pos++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+				data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				data[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+
+		return new Frame(data);
+	}
+
+	/**
+	 * Encodes a message into a pooled frame, the same way as {@link #of}. The
+	 * caller holds the only reference and must {@link #release()} it.
+	 *
+	 * @param msg the message to encode.
+	 *
+	 * @return the encoded frame, on the heap if it does not fit in the pool.
+	 * @throws IllegalArgumentException when the encoded message is too long.
+	 */
+	public static Frame pooled(String msg) {
+		int utflen = utfLength(msg);
+		BufferPool pool = Pool.POOL;
+		int slot = utflen + 2 <= pool.getSlotSize() ? pool.take() : -1;
+
+		if (slot < 0) {
+			MISSES.increment();
+			return of(msg);
+		}
+
+		ByteBuffer slab = pool.getSlab();
+		int pos = pool.offset(slot);
+		slab.put(pos++, (byte) (utflen >>> 8));
+		slab.put(pos++, (byte) utflen);
+
+		for (int i = 0; i < msg.length(); i++) {
+			char c = msg.charAt(i);
+
+			if (c >= 0x0001 && c <= 0x007F) {
+				slab.put(pos++, (byte) c);
+			} else if (c <= 0x07FF) {
+				slab.put(pos++, (byte) (0xC0 | ((c >> 6) & 0x1F)));
+				slab.put(pos++, (byte) (0x80 | (c & 0x3F)));
+			} else {
+				slab.put(pos++, (byte) (0xE0 | ((c >> 12) & 0x0F)));
+				slab.put(pos++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+				slab.put(pos++, (byte) (0x80 | (c & 0x3F)));
+			}
+		}
+
+		return new Frame(slot, utflen + 2);
+	}
+
+	/**
+	 * Works out how many bytes a message takes up in a text frame, without
+	 * the length in front of it. Used to check a message fits before it is
+	 * encoded.
+	 *
+	 * @param msg the message to measure.
+	 *
+	 * @return the modified UTF-8 length of the message.
+	 */
+	public static int textLength(String msg) {
+		int utflen = 0;
+
+		for (int i = 0; i < msg.length(); i++) {
+			char c = msg.charAt(i);
+
+			if (c >= 0x0001 && c <= 0x007F) {
+				utflen += 1;
+			} else if (c <= 0x07FF) {
+				utflen += 2;
+			} else {
+				utflen += 3;
+			}
+		}
+
+		return utflen;
+	}
+
+	/**
+	 * Cuts a message short so it takes up no more than the given number of
+	 * bytes in a text frame, without splitting a surrogate pair. The result
+	 * also fits in a binary frame string of that size.
+	 *
+	 * @param msg the message to cut.
+	 * @param max the most bytes it may take up.
+	 *
+	 * @return the message itself if it already fits, otherwise the longest
+	 * start of it that does.
+	 */
+	public static String truncate(String msg, int max) {
+		int utflen = 0;
+
+		for (int i = 0; i < msg.length(); i++) {
+			char c = msg.charAt(i);
+			utflen += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+
+			if (utflen > max) {
+				return msg.substring(0, i > 0 && Character.isHighSurrogate(msg.charAt(i - 1)) ? i - 1 : i);
+			}
+		}
+
+		return msg;
+	}
+
+	/**
+	 * Escapes a message for one line of a text batch, such as {@code history},
+	 * where lines are split on newlines. A backslash becomes {@code \\} and a
+	 * newline becomes {@code \n}.
+	 *
+	 * @param msg the message to escape.
+	 *
+	 * @return the message on a single line.
+	 */
+	public static String escapeLine(String msg) {
+		if (msg.indexOf('\\') < 0 && msg.indexOf('\n') < 0) {
+			return msg;
+		}
+
+		return msg.replace("\\", "\\\\").replace("\n", "\\n");
+	}
+
+	/**
+	 * Undoes {@link #escapeLine(String)}. A backslash before any other
+	 * character, or at the end, is kept as it is.
+	 *
+	 * @param line the line to unescape.
+	 *
+	 * @return the message as it was sent.
+	 */
+	public static String unescapeLine(String line) {
+		if (line.indexOf('\\') < 0) {
+			return line;
+		}
+
+		StringBuilder msg = new StringBuilder(line.length());
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+
+			if (c == '\\' && i + 1 < line.length()) {
+				char next = line.charAt(i + 1);
+
+				if (next == 'n' || next == '\\') {
+					msg.append(next == 'n' ? '\n' : '\\');
+					i++;
+					continue;
+				}
+			}
+
+			msg.append(c);
+		}
+
+		return msg.toString();
+	}
+
+	/**
+	 * Works out the modified UTF-8 length of a message.
+	 *
+	 * @throws IllegalArgumentException when the encoded message is too long.
+	 */
+	private static int utfLength(String msg) {
+		int utflen = textLength(msg);
+
+		if (utflen > MAX_LENGTH) {
+			throw new IllegalArgumentException("Encoded frame too long: " + utflen + " bytes");
+		}
+
+		return utflen;
+	}
+
+	/**
+	 * Decodes the modified UTF-8 payload of a text frame, the same way
+	 * {@code DataInputStream.readUTF} does.
+	 *
+	 * @param buf the buffer holding the payload.
+	 * @param off the start of the payload.
+	 * @param len the length of the payload.
+	 *
+	 * @return the decoded text.
+	 * @throws UTFDataFormatException when the payload is not valid.
+	 */
+	public static String decodeText(byte[] buf, int off, int len) throws UTFDataFormatException {
+		// plain ASCII, the common case, is copied straight into the string
+		int ascii = off;
+		while (ascii < off + len && buf[ascii] >= 0) {
+			ascii++;
+		}
+
+		if (ascii == off + len) {
+			return new String(buf, off, len, StandardCharsets.ISO_8859_1);
+		}
+
+		char[] chars = new char[len];
+		int count = 0;
+		int end = off + len;
+
+		while (off < end) {
+			int c = buf[off] & 0xFF;
+
+			if (c < 0x80) {
+				chars[count++] = (char) c;
+				off += 1;
+			} else if ((c & 0xE0) == 0xC0 && off + 1 < end) {
+				int c2 = buf[off + 1];
+
+				if ((c2 & 0xC0) != 0x80) {
+					throw new UTFDataFormatException("Malformed input around byte " + off);
+				}
+
+				chars[count++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+				off += 2;
+			} else if ((c & 0xF0) == 0xE0 && off + 2 < end) {
+				int c2 = buf[off + 1];
+				int c3 = buf[off + 2];
+
+				if ((c2 & 0xC0) != 0x80 || (c3 & 0xC0) != 0x80) {
+					throw new UTFDataFormatException("Malformed input around byte " + off);
+				}
+
+				chars[count++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+				off += 3;
+			} else {
+				throw new UTFDataFormatException("Malformed input around byte " + off);
+			}
+		}
+
+		return new String(chars, 0, count);
+	}
+
+	/**
+	 * Writes the frame to a stream.
+	 *
+	 * @param out the stream to write to.
+	 * @throws IOException when the frame cannot be written.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		writeTo(out, null);
+	}
+
+	/**
+	 * Writes the frame to a stream, copying a pooled frame through the given
+	 * array so that nothing is allocated.
+	 *
+	 * @param out the stream to write to.
+	 * @param scratch an array of any size owned by the caller, or {@code null}.
+	 * @throws IOException when the frame cannot be written.
+	 */
+	public void writeTo(OutputStream out, byte[] scratch) throws IOException {
+		if (this.data != null) {
+			out.write(this.data);
+			return;
+		}
+
+		if (scratch == null) {
+			scratch = new byte[this.length];
+		}
+
+		ByteBuffer slab = Pool.POOL.getSlab();
+		int off = Pool.POOL.offset(this.slot);
+
+		for (int done = 0; done < this.length; ) {
+			int n = Math.min(scratch.length, this.length - done);
+			slab.get(off + done, scratch, 0, n);
+			out.write(scratch, 0, n);
+			done += n;
+		}
+	}
+
+	/**
+	 * Gets a buffer over the frame for a single write. Every recipient needs its
+	 * own buffer since the position moves as bytes are written, so a pooled
+	 * frame is set up in a view owned by the caller rather than in a new
+	 * buffer.
+	 *
+	 * @param view a buffer from {@link #view()} owned by the caller, reused
+	 * for every pooled frame it writes.
+	 *
+	 * @return a buffer over the encoded frame.
+	 */
+	public ByteBuffer buffer(ByteBuffer view) {
+		if (this.data != null) {
+			return ByteBuffer.wrap(this.data);
+		}
+
+		int off = Pool.POOL.offset(this.slot);
+		view.clear();
+		view.limit(off + this.length).position(off);
+		return view;
+	}
+
+	/**
+	 * Gets a buffer over every pooled frame for {@link #buffer(ByteBuffer)},
+	 * to be used by a single thread at a time.
+	 *
+	 * @return a new view of the pool.
+	 */
+	public static ByteBuffer view() {
+		return Pool.POOL.view();
+	}
+
+	/**
+	 * Takes another reference to a pooled frame, which stays valid until every
+	 * reference is released. Does nothing for a frame on the heap.
+	 *
+	 * @return this frame.
+	 * @throws IllegalStateException when the frame was already released.
+	 */
+	public Frame retain() {
+		if (this.slot >= 0 && REFS.incrementAndGet(this) <= 1) {
+			throw new IllegalStateException("Frame already released");
+		}
+
+		return this;
+	}
+
+	/**
+	 * Gives up a reference to a pooled frame, returning its slot to the pool
+	 * with the last one. Does nothing for a frame on the heap.
+	 *
+	 * @throws IllegalStateException when the frame was already released.
+	 */
+	public void release() {
+		if (this.slot < 0) {
+			return;
+		}
+
+		int left = REFS.decrementAndGet(this);
+
+		if (left == 0) {
+			Pool.POOL.give(this.slot);
+		} else if (left < 0) {
+			throw new IllegalStateException("Frame released too often");
+		}
+	}
+
+	/**
+	 * Returns if the frame lives in the pool.
+	 *
+	 * @return {@code true} if pooled, {@code false} if on the heap.
+	 */
+	public boolean isPooled() {
+		return this.slot >= 0;
+	}
+
+	/**
+	 * Gets the pool that pooled frames live in.
+	 *
+	 * @return the frame pool.
+	 */
+	public static BufferPool getPool() {
+		return Pool.POOL;
+	}
+
+	/**
+	 * Gets the number of frames that were meant to be pooled but were kept on
+	 * the heap, because they were too big or the pool was empty.
+	 *
+	 * @return number of pool misses.
+	 */
+	public static long getPoolMisses() {
+		return MISSES.sum();
+	}
+
+	/**
+	 * Gets the encoded size of the frame.
+	 *
+	 * @return number of bytes on the wire, including the length.
+	 */
+	public int size() {
+		return this.length;
+	}
+
+	/**
+	 * Gets a single byte of the encoded frame.
+	 */
+	private byte byteAt(int i) {
+		return this.data != null ? this.data[i] : Pool.POOL.getSlab().get(Pool.POOL.offset(this.slot) + i);
+	}
+
+	/**
+	 * Works out the command of the frame from its payload: the opcode of a
+	 * binary frame, or the first word of a text frame. Text frames are scanned
+	 * on every call, so this is meant for rare paths such as choosing what to
+	 * drop for a slow client.
+	 *
+	 * @return the command of the frame, {@code INVALID} if not known.
+	 */
+	public Command command() {
+		if (this.length < 3) {
+			return Command.INVALID;
+		}
+
+		// opcodes are control characters, text commands start with a letter
+		if ((byteAt(2) & 0xFF) < 'a') {
+			return Command.fromOpcode(byteAt(2));
+		}
+
+		StringBuilder word = new StringBuilder();
+		for (int i = 2; i < this.length && byteAt(i) != ' '; i++) {
+			word.append((char) (byteAt(i) & 0xFF));
+		}
+
+		return Command.getValue(word.toString());
+	}
+
+	/**
+	 * Builder class for binary frames. Fields are written in order after the
+	 * opcode; integers are big-endian and strings are UTF-8 prefixed with a two
+	 * byte length.
+	 */
+	public static class Builder {
+
+		// globals
+		private byte[] buf;
+		private int pos;
+
+		/**
+		 * Starts a binary frame for the given command.
+		 *
+		 * @param cmd the command of the frame.
+		 */
+		public Builder(Command cmd) {
+			this.buf = new byte[64];
+			this.pos = 2;
+			this.buf[this.pos++] = cmd.getOpcode();
+		}
+
+		/**
+		 * Appends a single byte.
+		 *
+		 * @param b the byte to append.
+		 * @return this builder.
+		 */
+		public Builder putByte(int b) {
+			ensure(1);
+			this.buf[this.pos++] = (byte) b;
+			return this;
+		}
+
+		/**
+		 * Appends a big-endian integer.
+		 *
+		 * @param i the integer to append.
+		 * @return this builder.
+		 */
+		public Builder putInt(int i) {
+			ensure(4);
+			this.buf[this.pos++] = (byte) (i >>> 24);
+			this.buf[this.pos++] = (byte) (i >>> 16);
+			this.buf[this.pos++] = (byte) (i >>> 8);
+			this.buf[this.pos++] = (byte) i;
+			return this;
+		}
+
+		/**
+		 * Appends a big-endian long.
+		 *
+		 * @param l the long to append.
+		 * @return this builder.
+		 */
+		public Builder putLong(long l) {
+			return putInt((int) (l >>> 32)).putInt((int) l);
+		}
+
+		/**
+		 * Appends a string prefixed with its length.
+		 *
+		 * @param str the string to append.
+		 * @return this builder.
+		 */
+		public Builder putString(String str) {
+			// encoded straight into the frame, at most three bytes per char
+			ensure(2 + 3 * str.length());
+			int start = this.pos;
+			int p = start + 2;
+
+			for (int i = 0; i < str.length(); i++) {
+				char c = str.charAt(i);
+
+				if (c < 0x80) {
+					this.buf[p++] = (byte) c;
+				} else if (c < 0x800) {
+					this.buf[p++] = (byte) (0xC0 | (c >> 6));
+					this.buf[p++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+						&& Character.isLowSurrogate(str.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, str.charAt(++i));
+					this.buf[p++] = (byte) (0xF0 | (cp >> 18));
+					this.buf[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					this.buf[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					this.buf[p++] = (byte) (0x80 | (cp & 0x3F));
+				} else if (Character.isSurrogate(c)) {
+					// unpaired, replaced like String.getBytes does
+					this.buf[p++] = (byte) '?';
+				} else {
+					this.buf[p++] = (byte) (0xE0 | (c >> 12));
+					this.buf[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					this.buf[p++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+
+			int len = p - start - 2;
+			this.buf[start] = (byte) (len >>> 8);
+			this.buf[start + 1] = (byte) len;
+			this.pos = p;
+			return this;
+		}
+
+		/**
+		 * Gets the length of the payload so far.
+		 *
+		 * @return number of bytes after the length.
+		 */
+		public int size() {
+			return this.pos - 2;
+		}
+
+		/**
+		 * Finishes the frame.
+		 *
+		 * @return the encoded frame.
+		 * @throws IllegalArgumentException when the frame is too long.
+		 */
+		public Frame build() {
+			int len = this.pos - 2;
+
+			if (len > MAX_LENGTH) {
+				throw new IllegalArgumentException("Encoded frame too long: " + len + " bytes");
+			}
+
+			byte[] data = new byte[this.pos];
+			System.arraycopy(this.buf, 0, data, 0, this.pos);
+			data[0] = (byte) (len >>> 8);
+			data[1] = (byte) len;
+
+			return new Frame(data);
+		}
+
+		/**
+		 * Finishes the frame in a pool slot, like {@link Frame#pooled}. The
+		 * caller holds the only reference and must release it.
+		 *
+		 * @return the encoded frame, on the heap if it does not fit in the pool.
+		 * @throws IllegalArgumentException when the frame is too long.
+		 */
+		public Frame buildPooled() {
+			BufferPool pool = Pool.POOL;
+			int slot = this.pos <= pool.getSlotSize() ? pool.take() : -1;
+
+			if (slot < 0) {
+				MISSES.increment();
+				return build();
+			}
+
+			int len = this.pos - 2;
+			this.buf[0] = (byte) (len >>> 8);
+			this.buf[1] = (byte) len;
+			pool.getSlab().put(pool.offset(slot), this.buf, 0, this.pos);
+
+			return new Frame(slot, this.pos);
+		}
+
+		/**
+		 * Makes room for more bytes.
+		 */
+		private void ensure(int more) {
+			if (this.pos + more > this.buf.length) {
+				byte[] bigger = new byte[Math.max(this.buf.length * 2, this.pos + more)];
+				System.arraycopy(this.buf, 0, bigger, 0, this.pos);
+				this.buf = bigger;
+			}
+		}
+	}
+}
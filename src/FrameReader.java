@@ -0,0 +1,115 @@
+import java.io.EOFException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * FrameReader class to read the fields of a binary frame in order.
+ *
+ * Reads straight from the buffer the frame was received into. A reader can be
+ * reset onto the next frame, so one instance serves a whole connection.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class FrameReader {
+
+	// globals
+	private byte[] buf;
+	private int pos;
+	private int end;
+
+	// default constructor
+	public FrameReader() {
+		this.buf = null;
+		this.pos = 0;
+		this.end = 0;
+	}
+
+	/**
+	 * Points the reader at the payload of a frame.
+	 *
+	 * @param buf the buffer holding the payload.
+	 * @param off the start of the payload.
+	 * @param len the length of the payload.
+	 * @return this reader.
+	 */
+	public FrameReader reset(byte[] buf, int off, int len) {
+		this.buf = buf;
+		this.pos = off;
+		this.end = off + len;
+		return this;
+	}
+
+	/**
+	 * Reads a single unsigned byte.
+	 *
+	 * @return the byte that was read.
+	 * @throws EOFException when the frame has no more bytes.
+	 */
+	public int getByte() throws EOFException {
+		need(1);
+		return this.buf[this.pos++] & 0xFF;
+	}
+
+	/**
+	 * Reads a big-endian integer.
+	 *
+	 * @return the integer that was read.
+	 * @throws EOFException when the frame has too few bytes left.
+	 */
+	public int getInt() throws EOFException {
+		need(4);
+		int i = ((this.buf[this.pos] & 0xFF) << 24) | ((this.buf[this.pos + 1] & 0xFF) << 16)
+			| ((this.buf[this.pos + 2] & 0xFF) << 8) | (this.buf[this.pos + 3] & 0xFF);
+		this.pos += 4;
+		return i;
+	}
+
+	/**
+	 * Reads a big-endian long.
+	 *
+	 * @return the long that was read.
+	 * @throws EOFException when the frame has too few bytes left.
+	 */
+	public long getLong() throws EOFException {
+		long hi = getInt() & 0xFFFFFFFFL;
+		long lo = getInt() & 0xFFFFFFFFL;
+		return (hi << 32) | lo;
+	}
+
+	/**
+	 * Reads a string prefixed with its length.
+	 *
+	 * @return the string that was read.
+	 * @throws EOFException when the frame has too few bytes left.
+	 */
+	public String getString() throws EOFException {
+		need(2);
+		int len = ((this.buf[this.pos] & 0xFF) << 8) | (this.buf[this.pos + 1] & 0xFF);
+		this.pos += 2;
+
+		need(len);
+		String str = new String(this.buf, this.pos, len, StandardCharsets.UTF_8);
+		this.pos += len;
+		return str;
+	}
+
+	/**
+	 * Returns if the frame has more bytes to read.
+	 *
+	 * @return {@code true} if bytes are left, {@code false} otherwise.
+	 */
+	public boolean hasRemaining() {
+		return this.pos < this.end;
+	}
+
+	/**
+	 * Checks that enough bytes are left in the frame.
+	 */
+	private void need(int n) throws EOFException {
+		if (this.pos + n > this.end) {
+			throw new EOFException("Frame too short");
+		}
+	}
+}
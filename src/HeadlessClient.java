@@ -0,0 +1,286 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * HeadlessClient class to talk to the server without a user interface.
+ *
+ * Speaks the binary protocol only. Connecting and logging in happen on the
+ * calling thread; after that {@link #run()} reads everything the server sends
+ * and hands it to a {@link ChatListener}, so a client can be driven by a test
+ * or a load generator instead of JavaFX controls. Sending is thread-safe.
+ * Throttle frames are counted but not acted on, so a load generator can push
+ * past the server's rate limits and see how many commands were dropped.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class HeadlessClient implements Runnable {
+
+	// globals
+	private static final int INITIAL_BUFFER = 256;
+
+	private final String hostname;
+	private final int port;
+	private final ChatListener listener;
+
+	private Socket client;
+	private DataInputStream dis;
+	private DataOutputStream dos;
+
+	private final FrameReader reader; /*<< reads fields of incoming frames */
+	private byte[] buf;               /*<< payload of the frame being read */
+
+	private String username;
+	private int userId;
+	private volatile boolean closed;
+	private volatile long throttled; /*<< throttle frames received, reader thread only */
+
+	// default constructor
+	public HeadlessClient(String hostname, int port, ChatListener listener) {
+		this.hostname = hostname;
+		this.port = port;
+		this.listener = listener;
+		this.reader = new FrameReader();
+		this.buf = new byte[INITIAL_BUFFER];
+		this.username = "";
+		this.userId = -1;
+		this.closed = false;
+		this.throttled = 0;
+	}
+
+	/**
+	 * Connects to the server and switches to the binary protocol.
+	 *
+	 * @throws IOException when the server cannot be reached or refuses the
+	 * binary protocol.
+	 */
+	public void connect() throws IOException {
+		this.client = new Socket(this.hostname, this.port);
+		this.client.setTcpNoDelay(true);
+
+		this.dis = new DataInputStream(new BufferedInputStream(this.client.getInputStream()));
+		this.dos = new DataOutputStream(new BufferedOutputStream(this.client.getOutputStream()));
+
+		this.dos.writeUTF("proto " + Command.BINARY);
+		this.dos.flush();
+
+		String resp = this.dis.readUTF();
+		if (!resp.equals("proto " + Command.BINARY)) {
+			closeAll();
+			throw new IOException("Server refused binary protocol: " + resp);
+		}
+	}
+
+	/**
+	 * Logs a user in and waits for the reply. The roster the server sends
+	 * straight after is left for {@link #run()} to read.
+	 *
+	 * @param username the username to log in with.
+	 *
+	 * @return {@code true} if the login was accepted, {@code false} otherwise.
+	 * @throws IOException when the connection fails.
+	 */
+	public boolean login(String username) throws IOException {
+		write(new Frame.Builder(Command.LOGIN).putString(username).build());
+
+		// anything sent before the reply is handled as usual
+		while (true) {
+			FrameReader in = readFrame();
+			Command cmd = Command.fromOpcode((byte) in.getByte());
+
+			if (cmd != Command.LOGIN) {
+				dispatch(cmd, in);
+				continue;
+			}
+
+			if (in.getByte() != 1) {
+				return false;
+			}
+
+			this.userId = in.getInt();
+			this.username = username;
+			return true;
+		}
+	}
+
+	/**
+	 * Sends a message to everyone.
+	 *
+	 * @param message the message to send.
+	 * @throws IOException when the connection fails.
+	 */
+	public void send(String message) throws IOException {
+		write(new Frame.Builder(Command.MSG).putString(message).build());
+	}
+
+	/**
+	 * Whispers a message to a single user.
+	 *
+	 * @param toId the id of the user to whisper to.
+	 * @param message the message to whisper.
+	 * @throws IOException when the connection fails.
+	 */
+	public void whisper(int toId, String message) throws IOException {
+		write(new Frame.Builder(Command.WHSP).putInt(toId).putString(message).build());
+	}
+
+	/**
+	 * Logs the user out. The server closes the connection afterwards.
+	 *
+	 * @throws IOException when the connection fails.
+	 */
+	public void logout() throws IOException {
+		write(new Frame.Builder(Command.LOGOUT).build());
+	}
+
+	/**
+	 * Writes a frame and sends it straight away.
+	 *
+	 * @param frame the frame to write.
+	 * @throws IOException when the connection fails.
+	 */
+	private void write(Frame frame) throws IOException {
+		synchronized (this.dos) {
+			frame.writeTo(this.dos);
+			this.dos.flush();
+		}
+	}
+
+	/**
+	 * Reads frames until the connection is closed.
+	 */
+	@Override
+	public void run() {
+		try {
+			while (!this.closed) {
+				FrameReader in = readFrame();
+				dispatch(Command.fromOpcode((byte) in.getByte()), in);
+			}
+		} catch (IOException e) {
+			// connection closed
+		}
+
+		closeAll();
+		this.listener.disconnected();
+	}
+
+	/**
+	 * Reads the next frame into the reusable buffer.
+	 *
+	 * @return reader over the payload of the frame.
+	 * @throws IOException when the connection fails.
+	 */
+	private FrameReader readFrame() throws IOException {
+		int len = this.dis.readUnsignedShort();
+
+		if (len > this.buf.length) {
+			this.buf = new byte[Math.max(len, this.buf.length * 2)];
+		}
+
+		this.dis.readFully(this.buf, 0, len);
+		return this.reader.reset(this.buf, 0, len);
+	}
+
+	/**
+	 * Hands a frame to the listener.
+	 *
+	 * @param cmd the command of the frame.
+	 * @param in reader positioned after the opcode.
+	 * @throws IOException when the frame is too short.
+	 */
+	private void dispatch(Command cmd, FrameReader in) throws IOException {
+		switch (cmd) {
+			case USERS:
+				boolean online = in.getByte() == 1;
+
+				while (in.hasRemaining()) {
+					int id = in.getInt();
+					String name = in.getString();
+
+					if (online) {
+						this.listener.online(id, name);
+					} else {
+						this.listener.offline(id);
+					}
+				}
+				break;
+			case ONLINE:
+				int id = in.getInt();
+				this.listener.online(id, in.getString());
+				break;
+			case OFFLINE:
+				this.listener.offline(in.getInt());
+				break;
+			case MSG:
+				int fromId = in.getInt();
+				this.listener.message(fromId, in.getString());
+				break;
+			case WHSP:
+				int whisperId = in.getInt();
+				this.listener.whisper(whisperId, in.getString());
+				break;
+			case LOGOUT:
+			case DISCONNECT:
+				this.closed = true;
+				break;
+			case PING:
+				write(new Frame.Builder(Command.PONG).putInt(in.getInt()).build());
+				break;
+			case THROTTLE:
+				this.throttled++;
+				break;
+			default:
+				// ignore anything this client did not ask for
+				break;
+		}
+	}
+
+	/**
+	 * Closes all connections.
+	 */
+	public void closeAll() {
+		this.closed = true;
+
+		try {
+			if (this.client != null) {
+				this.client.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Error closing connections: " + e);
+		}
+	}
+
+	/**
+	 * Gets the username the client is logged in with.
+	 *
+	 * @return username, empty if not logged in.
+	 */
+	public String getUsername() {
+		return this.username;
+	}
+
+	/**
+	 * Gets the id the server gave the user on login.
+	 *
+	 * @return user id, or {@code -1} if not logged in.
+	 */
+	public int getUserId() {
+		return this.userId;
+	}
+
+	/**
+	 * Gets the number of times the server said the client was sending too
+	 * fast.
+	 *
+	 * @return number of throttle frames received.
+	 */
+	public long getThrottled() {
+		return this.throttled;
+	}
+}
@@ -0,0 +1,169 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram class to record the distribution of non-negative values, such as
+ * latencies in nanoseconds.
+ *
+ * Values are counted in log-linear buckets: every power of two is split into
+ * {@code 2^SUB_BITS} equal buckets, so any percentile is accurate to within
+ * about three percent while the whole histogram is a fixed array of counts.
+ * Recording never locks and never allocates, so many threads can record into
+ * the same histogram.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class Histogram {
+
+	// globals
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+	private final AtomicLongArray counts;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final LongAccumulator max;
+
+	// default constructor
+	public Histogram() {
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.count = new LongAdder();
+		this.sum = new LongAdder();
+		this.max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Records a single value. Negative values are recorded as zero.
+	 *
+	 * @param value the value to record.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		this.counts.incrementAndGet(bucketOf(value));
+		this.count.increment();
+		this.sum.add(value);
+		this.max.accumulate(value);
+	}
+
+	/**
+	 * Gets the value below which the given fraction of recorded values fall.
+	 *
+	 * @param percentile the percentile, between {@code 0} and {@code 100}.
+	 *
+	 * @return the upper bound of the bucket holding the percentile, or
+	 * {@code 0} if nothing was recorded.
+	 */
+	public long percentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = this.counts.get(i);
+			total += snapshot[i];
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total);
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(upperBoundOf(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 *
+	 * @return number of values.
+	 */
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	/**
+	 * Gets the sum of all recorded values.
+	 *
+	 * @return sum of values.
+	 */
+	public long getSum() {
+		return this.sum.sum();
+	}
+
+	/**
+	 * Gets the largest recorded value.
+	 *
+	 * @return largest value, or {@code 0} if nothing was recorded.
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * Gets the mean of all recorded values.
+	 *
+	 * @return mean value, or {@code 0} if nothing was recorded.
+	 */
+	public double getMean() {
+		long n = getCount();
+		return n == 0 ? 0 : (double) getSum() / n;
+	}
+
+	/**
+	 * Clears all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.counts.set(i, 0);
+		}
+
+		this.count.reset();
+		this.sum.reset();
+		this.max.reset();
+	}
+
+	/**
+	 * Finds the bucket of a value. Values below {@code SUB_COUNT} get a bucket
+	 * each, larger values share a bucket with their neighbours.
+	 */
+	private static int bucketOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+
+		int exp = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		int sub = (int) (value >>> exp) - SUB_COUNT;
+
+		return (exp + 1) * SUB_COUNT + sub;
+	}
+
+	/**
+	 * Gets the largest value that falls into a bucket.
+	 */
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_COUNT) {
+			return bucket;
+		}
+
+		int exp = bucket / SUB_COUNT - 1;
+		long sub = bucket % SUB_COUNT + SUB_COUNT;
+
+		return ((sub + 1) << exp) - 1;
+	}
+}
@@ -0,0 +1,266 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * History class to keep the most recent global messages in memory, so users
+ * who log in can be shown what was said before they joined.
+ *
+ * Messages go into a fixed ring of preallocated slots. Adding a message claims
+ * the next sequence number with a single atomic increment and fills in the
+ * slot under a seqlock: the slot's version is odd while it is being written,
+ * and readers that see the version change while they copy a slot simply skip
+ * it. Neither side ever locks, and nothing is allocated to add a message; the
+ * slot only keeps references to the username and text it is given.
+ *
+ * The size of the ring is set with {@code chatter.history} (default 256), and
+ * how many messages are replayed on login with {@code chatter.history.replay}
+ * (default 50).
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class History {
+
+	// globals
+	private final Slot[] ring;
+	private final int mask;
+	private final AtomicLong next; /*<< sequence number of the next message */
+	private final int replay;      /*<< messages shown to a user on login */
+
+	// default constructor
+	public History() {
+		this(Integer.getInteger("chatter.history", 256), Integer.getInteger("chatter.history.replay", 50));
+	}
+
+	/**
+	 * Constructor for when the capacity is given.
+	 *
+	 * @param capacity the number of messages kept, rounded up to a power of two.
+	 * @param replay the number of messages shown to a user on login.
+	 */
+	public History(int capacity, int replay) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+		this.ring = new Slot[size];
+		this.mask = size - 1;
+		this.next = new AtomicLong(0);
+		this.replay = Math.max(0, replay);
+
+		for (int i = 0; i < size; i++) {
+			this.ring[i] = new Slot();
+		}
+	}
+
+	/**
+	 * Adds a message, overwriting the oldest one once the ring is full.
+	 *
+	 * @param userId the id of the user who sent the message.
+	 * @param username the user who sent the message.
+	 * @param text the message.
+	 * @param time when the message was sent, in epoch milliseconds.
+	 *
+	 * @return the sequence number of the message.
+	 */
+	public long add(int userId, String username, String text, long time) {
+		return put(this.next.getAndIncrement(), userId, username, text, time);
+	}
+
+	/**
+	 * Puts back a message read from the message log when the server starts,
+	 * keeping its sequence number. Messages must be restored oldest first,
+	 * before any new ones are added.
+	 *
+	 * @param seq the sequence number of the message.
+	 * @param time when the message was sent, in epoch milliseconds.
+	 * @param userId the id of the user who sent the message.
+	 * @param username the user who sent the message.
+	 * @param text the message.
+	 */
+	public void restore(long seq, long time, int userId, String username, String text) {
+		this.next.accumulateAndGet(seq + 1, Math::max);
+		put(seq, userId, username, text, time);
+	}
+
+	/**
+	 * Fills in the slot of a message under its seqlock.
+	 */
+	private long put(long seq, int userId, String username, String text, long time) {
+		Slot slot = this.ring[(int) (seq & this.mask)];
+		long writing = 2 * seq + 1;
+
+		// claim the slot, unless a newer message has lapped this one already
+		while (true) {
+			long version = slot.version;
+
+			if (version >= writing) {
+				return seq;
+			}
+
+			if ((version & 1) == 0 && Slot.VERSION.compareAndSet(slot, version, writing)) {
+				break;
+			}
+
+			Thread.onSpinWait();
+		}
+
+		slot.time = time;
+		slot.userId = userId;
+		slot.username = username;
+		slot.text = text;
+
+		slot.version = writing + 1;
+
+		return seq;
+	}
+
+	/**
+	 * Gets the most recent messages, oldest first. Messages that are being
+	 * overwritten while they are read are left out.
+	 *
+	 * @param max the most messages to return.
+	 *
+	 * @return copies of the messages.
+	 */
+	public List<Entry> recent(int max) {
+		long end = this.next.get();
+		long start = Math.max(0, end - Math.min(max, this.ring.length));
+		ArrayList<Entry> entries = new ArrayList<>((int) (end - start));
+
+		for (long seq = start; seq < end; seq++) {
+			Slot slot = this.ring[(int) (seq & this.mask)];
+			long done = 2 * seq + 2;
+
+			if (slot.version != done) {
+				continue;
+			}
+
+			Entry entry = new Entry(seq, slot.time, slot.userId, slot.username, slot.text);
+
+			// make sure the copy was not torn by a writer
+			VarHandle.acquireFence();
+			if (slot.version == done) {
+				entries.add(entry);
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Gets the messages to show a user who has just logged in.
+	 *
+	 * @return the most recent messages, oldest first.
+	 */
+	public List<Entry> replay() {
+		return recent(this.replay);
+	}
+
+	/**
+	 * Gets the sequence number the next message will be given.
+	 *
+	 * @return number of messages added so far.
+	 */
+	public long getNext() {
+		return this.next.get();
+	}
+
+	/**
+	 * Gets the number of messages the ring can hold.
+	 *
+	 * @return capacity of the ring.
+	 */
+	public int getCapacity() {
+		return this.ring.length;
+	}
+
+	/**
+	 * Entry class holding a copy of one message.
+	 */
+	public static final class Entry {
+		private final long seq;
+		private final long time; /*<< when the message was sent, in epoch milliseconds */
+		private final int userId;
+		private final String username;
+		private final String text;
+
+		private Entry(long seq, long time, int userId, String username, String text) {
+			this.seq = seq;
+			this.time = time;
+			this.userId = userId;
+			this.username = username;
+			this.text = text;
+		}
+
+		/**
+		 * Gets the sequence number of the message.
+		 *
+		 * @return sequence number, counting from 0.
+		 */
+		public long getSeq() {
+			return this.seq;
+		}
+
+		/**
+		 * Gets when the message was sent.
+		 *
+		 * @return time in epoch milliseconds.
+		 */
+		public long getTime() {
+			return this.time;
+		}
+
+		/**
+		 * Gets the id of the user who sent the message.
+		 *
+		 * @return user id.
+		 */
+		public int getUserId() {
+			return this.userId;
+		}
+
+		/**
+		 * Gets the user who sent the message.
+		 *
+		 * @return username.
+		 */
+		public String getUsername() {
+			return this.username;
+		}
+
+		/**
+		 * Gets the message.
+		 *
+		 * @return text of the message.
+		 */
+		public String getText() {
+			return this.text;
+		}
+	}
+
+	/**
+	 * Slot class holding one message of the ring.
+	 */
+	private static final class Slot {
+		private static final VarHandle VERSION;
+
+		static {
+			try {
+				VERSION = MethodHandles.lookup().findVarHandle(Slot.class, "version", long.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		private volatile long version; /*<< twice the sequence, plus one while written */
+
+		private long time;
+		private int userId;
+		private String username;
+		private String text;
+	}
+}
@@ -19,26 +19,13 @@
 public class KError {
 
 	/**
-	 * Prints a formatted exception message to standard output.
+	 * Logs an exception as an error. The exception is kept as a single field
+	 * and formatted on the logger's own thread, not the caller's.
 	 *
 	 * @param message the message to display.
 	 * @param e the exception that was thrown.
 	 */
 	public static void printError(String message, Exception e) {
-		String errorMessage = e.toString();
-		String cause = "";
-		String error = "";
-
-		if (!errorMessage.contains(":")) {
-			System.out.println("\n\033[33m" + message + "\033[0m\n" + errorMessage + "\n");
-			return;
-		}
-
-		int idx = errorMessage.indexOf(":");
-		cause = errorMessage.substring(0, idx);
-		error = errorMessage.substring(idx + 2);
-
-		System.out.println("\n[\033[31m" + cause + "\033[0m] " + "\033[33m" + message + "\033[0m\n" +
-			error + "\n");
+		Log.log(Log.Level.ERROR, message, null, null, -1, -1, e.toString());
 	}
 }
@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadGenerator class to measure throughput and delivery latency of a running
+ * server.
+ *
+ * Logs in a number of headless users, then sends messages from random users at
+ * a fixed rate for a fixed time. A share of them are whispers to another random
+ * user, the rest go to everyone. Every message carries the time it was meant
+ * to be sent, so each recipient records how long delivery took, including any
+ * time the sender fell behind. The results are printed to standard output as
+ * a single JSON object, so runs against each server mode can be compared;
+ * progress goes to standard error.
+ *
+ * Usage: {@code LoadGenerator [host] [port] [users] [seconds] [rate] [whisper%] [label]}
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class LoadGenerator {
+
+	// globals
+	private static final long DRAIN_MILLIS = 2000;
+
+	private final String hostname;
+	private final int port;
+	private final ThreadFactory threads;
+	private final ArrayList<HeadlessClient> clients;
+
+	private final Histogram loginLatency;
+	private final Histogram msgLatency;
+	private final Histogram whisperLatency;
+
+	private final LongAdder msgsSent;
+	private final LongAdder whispersSent;
+	private final LongAdder errors;
+
+	// default constructor
+	public LoadGenerator(String hostname, int port) {
+		this.hostname = hostname;
+		this.port = port;
+		this.threads = Server.threadFactory(true);
+		this.clients = new ArrayList<>();
+
+		this.loginLatency = new Histogram();
+		this.msgLatency = new Histogram();
+		this.whisperLatency = new Histogram();
+
+		this.msgsSent = new LongAdder();
+		this.whispersSent = new LongAdder();
+		this.errors = new LongAdder();
+	}
+
+	/**
+	 * Logs in users one after the other, until the target is reached or a
+	 * login fails.
+	 *
+	 * @param users the number of users to log in.
+	 *
+	 * @return the number of users that are logged in.
+	 */
+	public int login(int users) {
+		Receiver receiver = new Receiver();
+
+		for (int i = 0; i < users; i++) {
+			HeadlessClient client = new HeadlessClient(this.hostname, this.port, receiver);
+
+			try {
+				client.connect();
+
+				long start = System.nanoTime();
+				boolean ok = client.login("load" + i);
+				this.loginLatency.record(System.nanoTime() - start);
+
+				if (!ok) {
+					System.err.println("Login refused for user " + i);
+					client.closeAll();
+					break;
+				}
+			} catch (IOException e) {
+				System.err.println("Stopped at user " + i + ": " + e);
+				client.closeAll();
+				break;
+			}
+
+			this.clients.add(client);
+			this.threads.newThread(client).start();
+
+			if ((i + 1) % 1000 == 0) {
+				System.err.println((i + 1) + " users logged in");
+			}
+		}
+
+		return this.clients.size();
+	}
+
+	/**
+	 * Sends messages at a fixed rate, then waits for them to be delivered.
+	 *
+	 * @param seconds how long to send for.
+	 * @param rate messages per second, across all users.
+	 * @param whisperPercent share of messages that are whispers.
+	 */
+	public void drive(int seconds, int rate, int whisperPercent) {
+		int n = this.clients.size();
+
+		if (n < 2 || rate <= 0) {
+			return;
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long interval = 1000000000L / rate;
+		long next = System.nanoTime();
+		long end = next + seconds * 1000000000L;
+
+		for (; next < end; next += interval) {
+			long wait = next - System.nanoTime();
+
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+
+			int sender = random.nextInt(n);
+			HeadlessClient from = this.clients.get(sender);
+			String stamp = Long.toString(next);
+
+			try {
+				if (random.nextInt(100) < whisperPercent) {
+					// any user but the sender
+					int recipient = random.nextInt(n - 1);
+					if (recipient >= sender) {
+						recipient++;
+					}
+
+					from.whisper(this.clients.get(recipient).getUserId(), stamp);
+					this.whispersSent.increment();
+				} else {
+					from.send(stamp);
+					this.msgsSent.increment();
+				}
+			} catch (IOException e) {
+				this.errors.increment();
+			}
+		}
+
+		try {
+			Thread.sleep(DRAIN_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Closes all connections.
+	 */
+	public void closeAll() {
+		for (HeadlessClient client : this.clients) {
+			client.closeAll();
+		}
+	}
+
+	/**
+	 * Formats the results of a run as JSON.
+	 *
+	 * @param label the name of the run.
+	 * @param users the number of users asked for.
+	 * @param seconds how long messages were sent for.
+	 * @param rate messages per second asked for.
+	 * @param whisperPercent share of messages that were whispers.
+	 *
+	 * @return the results as a single JSON object.
+	 */
+	public String report(String label, int users, int seconds, int rate, int whisperPercent) {
+		int n = this.clients.size();
+		long msgs = this.msgsSent.sum();
+		long whispers = this.whispersSent.sum();
+		long throttled = 0;
+
+		for (HeadlessClient client : this.clients) {
+			throttled += client.getThrottled();
+		}
+
+		StringBuilder json = new StringBuilder();
+		json.append('{');
+		json.append("\"label\":\"").append(label.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",");
+		json.append("\"users\":").append(users).append(',');
+		json.append("\"loggedIn\":").append(n).append(',');
+		json.append("\"seconds\":").append(seconds).append(',');
+		json.append("\"rate\":").append(rate).append(',');
+		json.append("\"whisperPercent\":").append(whisperPercent).append(',');
+		json.append("\"errors\":").append(this.errors.sum()).append(',');
+		json.append("\"throttled\":").append(throttled).append(',');
+		json.append("\"login\":");
+		latency(json, this.loginLatency);
+		json.append(",\"msg\":");
+		delivery(json, msgs, msgs * Math.max(0, n - 1), this.msgLatency, seconds);
+		json.append(",\"whsp\":");
+		delivery(json, whispers, whispers, this.whisperLatency, seconds);
+		json.append('}');
+
+		return json.toString();
+	}
+
+	/**
+	 * Appends the delivery results of one kind of message.
+	 */
+	private static void delivery(StringBuilder json, long sent, long expected, Histogram latency, int seconds) {
+		json.append("{\"sent\":").append(sent);
+		json.append(",\"expected\":").append(expected);
+		json.append(",\"delivered\":").append(latency.getCount());
+		json.append(",\"deliveredPerSec\":")
+			.append(String.format(Locale.ROOT, "%.1f", (double) latency.getCount() / Math.max(1, seconds)));
+		json.append(",\"latency\":");
+		latency(json, latency);
+		json.append('}');
+	}
+
+	/**
+	 * Appends a latency summary in microseconds.
+	 */
+	private static void latency(StringBuilder json, Histogram latency) {
+		json.append("{\"count\":").append(latency.getCount());
+		json.append(",\"meanUs\":").append(String.format(Locale.ROOT, "%.1f", latency.getMean() / 1000));
+		json.append(",\"p50Us\":").append(latency.percentile(50) / 1000);
+		json.append(",\"p99Us\":").append(latency.percentile(99) / 1000);
+		json.append(",\"p999Us\":").append(latency.percentile(99.9) / 1000);
+		json.append(",\"maxUs\":").append(latency.getMax() / 1000);
+		json.append('}');
+	}
+
+	/**
+	 * Records the delivery latency of every message received by any user.
+	 */
+	private class Receiver implements ChatListener {
+		@Override
+		public void online(int id, String username) {
+		}
+
+		@Override
+		public void offline(int id) {
+		}
+
+		@Override
+		public void message(int fromId, String message) {
+			record(msgLatency, message);
+		}
+
+		@Override
+		public void whisper(int fromId, String message) {
+			record(whisperLatency, message);
+		}
+
+		@Override
+		public void disconnected() {
+		}
+
+		/**
+		 * Records the time since the send time a message carries.
+		 */
+		private void record(Histogram latency, String message) {
+			long now = System.nanoTime();
+
+			try {
+				latency.record(now - Long.parseLong(message));
+			} catch (NumberFormatException e) {
+				// not sent by this load generator
+			}
+		}
+	}
+
+	/**
+	 * Main function.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) {
+		String hostname = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		int users = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		int rate = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+		int whisperPercent = args.length > 5 ? Integer.parseInt(args[5]) : 20;
+		String label = args.length > 6 ? args[6] : "server";
+
+		LoadGenerator load = new LoadGenerator(hostname, port);
+
+		int loggedIn = load.login(users);
+		System.err.printf("%d / %d users logged in, sending %d msg/s for %d s\n",
+			loggedIn, users, rate, seconds);
+
+		load.drive(seconds, rate, whisperPercent);
+		System.out.println(load.report(label, users, seconds, rate, whisperPercent));
+
+		load.closeAll();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,404 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log class to record what the server does without slowing it down.
+ *
+ * Entries are structured: an event name plus optional user, command, size,
+ * latency and detail fields. Logging an entry only claims a slot in a fixed
+ * ring and copies the fields into it; the line itself is formatted and written
+ * by a single background thread. If the ring is full the entry is dropped and
+ * counted rather than making the caller wait, so a slow disk or terminal can
+ * never hold up a client.
+ *
+ * Lines are written to a log file, which is rolled over once it gets too big.
+ * Entries at or above the console level are also printed to standard output.
+ * Both are set with system properties:
+ * <ul>
+ * <li>{@code chatter.log.file} path of the log file, default {@code chatter.log}</li>
+ * <li>{@code chatter.log.level} lowest level written to the file, default {@code INFO}</li>
+ * <li>{@code chatter.log.console} lowest level printed, default {@code WARN}</li>
+ * <li>{@code chatter.log.maxBytes} size at which the file is rolled over</li>
+ * <li>{@code chatter.log.files} number of rolled over files kept</li>
+ * </ul>
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public final class Log {
+
+	/**
+	 * How important an entry is.
+	 */
+	public enum Level {
+		DEBUG, INFO, WARN, ERROR, OFF
+	}
+
+	// globals
+	private static final int CAPACITY = 1 << 14;
+	private static final int MASK = CAPACITY - 1;
+	private static final long IDLE_NANOS = 1000000000L; /*<< longest the flusher sleeps, it is woken by new entries */
+
+	private static final Slot[] ring = new Slot[CAPACITY];
+	private static final AtomicLong tail = new AtomicLong(0); /*<< next slot to claim */
+	private static volatile long head = 0;                    /*<< next slot to write, flusher only */
+	private static final LongAdder dropped = new LongAdder();
+
+	private static final Level fileLevel = level("chatter.log.level", Level.INFO);
+	private static final Level consoleLevel = level("chatter.log.console", Level.WARN);
+	private static final File file = new File(System.getProperty("chatter.log.file", "chatter.log"));
+	private static final long maxBytes = Long.getLong("chatter.log.maxBytes", 10L << 20);
+	private static final int maxFiles = Integer.getInteger("chatter.log.files", 5);
+
+	private static final Thread flusher;
+	private static volatile boolean waiting = false;
+
+	static {
+		for (int i = 0; i < CAPACITY; i++) {
+			ring[i] = new Slot(i);
+		}
+
+		flusher = new Thread(Log::flushLoop, "log-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+
+		// write out whatever is left when the server stops
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				long deadline = System.nanoTime() + 500000000L;
+
+				while (pending() > 0 && System.nanoTime() < deadline) {
+					LockSupport.unpark(flusher);
+					Thread.yield();
+				}
+			}
+		});
+	}
+
+	// not instantiable
+	private Log() { }
+
+	/**
+	 * Logs an entry about something a user did.
+	 *
+	 * @param event what happened.
+	 * @param user the user involved.
+	 * @param cmd the command involved.
+	 * @param size size of the message in characters.
+	 * @param latency time taken in nanoseconds, or {@code -1} if not known.
+	 */
+	public static void info(String event, String user, Command cmd, int size, long latency) {
+		log(Level.INFO, event, user, cmd, size, latency, null);
+	}
+
+	/**
+	 * Logs an entry about a user.
+	 *
+	 * @param event what happened.
+	 * @param user the user involved.
+	 */
+	public static void info(String event, String user) {
+		log(Level.INFO, event, user, null, -1, -1, null);
+	}
+
+	/**
+	 * Logs a warning about a user.
+	 *
+	 * @param event what happened.
+	 * @param user the user involved.
+	 * @param detail more information, such as the other user involved.
+	 */
+	public static void warn(String event, String user, String detail) {
+		log(Level.WARN, event, user, null, -1, -1, detail);
+	}
+
+	/**
+	 * Logs an error.
+	 *
+	 * @param event what happened.
+	 * @param e the exception that was thrown.
+	 */
+	public static void error(String event, Throwable e) {
+		log(Level.ERROR, event, null, null, -1, -1, e.toString());
+	}
+
+	/**
+	 * Logs an entry. Never blocks; if the ring is full the entry is dropped.
+	 *
+	 * @param level how important the entry is.
+	 * @param event what happened.
+	 * @param user the user involved, or {@code null}.
+	 * @param cmd the command involved, or {@code null}.
+	 * @param size size of the message in characters, or {@code -1}.
+	 * @param latency time taken in nanoseconds, or {@code -1}.
+	 * @param detail more information, or {@code null}.
+	 */
+	public static void log(Level level, String event, String user, Command cmd, int size, long latency,
+			String detail) {
+		if (level.compareTo(fileLevel) < 0 && level.compareTo(consoleLevel) < 0) {
+			return;
+		}
+
+		// claim a slot, each slot is free once its sequence reaches its position
+		Slot slot;
+		long pos = tail.get();
+
+		while (true) {
+			slot = ring[(int) (pos & MASK)];
+			long dif = slot.seq - pos;
+
+			if (dif == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					break;
+				}
+
+				pos = tail.get();
+			} else if (dif < 0) {
+				dropped.increment();
+				return;
+			} else {
+				pos = tail.get();
+			}
+		}
+
+		slot.time = System.currentTimeMillis();
+		slot.level = level;
+		slot.event = event;
+		slot.user = user;
+		slot.cmd = cmd;
+		slot.size = size;
+		slot.latency = latency;
+		slot.detail = detail;
+		slot.seq = pos + 1;
+
+		if (waiting) {
+			LockSupport.unpark(flusher);
+		}
+	}
+
+	/**
+	 * Gets the number of entries dropped because the ring was full.
+	 *
+	 * @return number of dropped entries.
+	 */
+	public static long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Gets the number of entries waiting to be written.
+	 *
+	 * @return number of pending entries.
+	 */
+	public static long pending() {
+		return tail.get() - head;
+	}
+
+	/**
+	 * Writes entries as they arrive, flushing whenever the ring runs empty.
+	 */
+	private static void flushLoop() {
+		StringBuilder line = new StringBuilder(256);
+		Writer out = open();
+		long written = file.length();
+		boolean dirty = false;
+		PrintStream console = System.out;
+
+		while (true) {
+			Slot slot = ring[(int) (head & MASK)];
+
+			// nothing published yet, flush and wait
+			if (slot.seq != head + 1) {
+				try {
+					if (dirty) {
+						out.flush();
+						dirty = false;
+					}
+				} catch (IOException e) {
+					System.err.println("Error writing log: " + e);
+				}
+
+				// an entry published after the check below sees waiting set and unparks
+				waiting = true;
+				if (slot.seq != head + 1) {
+					LockSupport.parkNanos(IDLE_NANOS);
+				}
+				waiting = false;
+				continue;
+			}
+
+			line.setLength(0);
+			format(line, slot);
+			Level level = slot.level;
+
+			// hand the slot back before doing any I/O
+			slot.user = null;
+			slot.detail = null;
+			slot.seq = head + CAPACITY;
+			head++;
+
+			if (level.compareTo(consoleLevel) >= 0) {
+				console.print(line);
+			}
+
+			if (out == null || level.compareTo(fileLevel) < 0) {
+				continue;
+			}
+
+			try {
+				out.write(line.toString());
+				written += line.length();
+				dirty = true;
+
+				if (written >= maxBytes) {
+					out.close();
+					roll();
+					out = open();
+					written = 0;
+					dirty = false;
+				}
+			} catch (IOException e) {
+				System.err.println("Error writing log: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Formats an entry as a single line of {@code key=value} pairs.
+	 */
+	private static void format(StringBuilder line, Slot slot) {
+		line.append(Instant.ofEpochMilli(slot.time)).append(' ');
+		line.append(slot.level).append(' ').append(slot.event);
+
+		if (slot.user != null) {
+			field(line, "user", slot.user);
+		}
+
+		if (slot.cmd != null) {
+			line.append(" cmd=").append(slot.cmd.getKey());
+		}
+
+		if (slot.size >= 0) {
+			line.append(" size=").append(slot.size);
+		}
+
+		if (slot.latency >= 0) {
+			line.append(" latency_us=").append(slot.latency / 1000);
+		}
+
+		if (slot.detail != null) {
+			field(line, "detail", slot.detail);
+		}
+
+		line.append('\n');
+	}
+
+	/**
+	 * Appends a field, quoting the value if it has spaces or quotes in it.
+	 */
+	private static void field(StringBuilder line, String key, String value) {
+		line.append(' ').append(key).append('=');
+
+		if (value.indexOf(' ') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+			line.append(value);
+			return;
+		}
+
+		line.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			if (c == '"' || c == '\\') {
+				line.append('\\').append(c);
+			} else if (c == '\n') {
+				line.append("\\n");
+			} else {
+				line.append(c);
+			}
+		}
+		line.append('"');
+	}
+
+	/**
+	 * Opens the log file for appending.
+	 *
+	 * @return the writer, or {@code null} if the file cannot be opened.
+	 */
+	private static Writer open() {
+		if (fileLevel == Level.OFF) {
+			return null;
+		}
+
+		try {
+			return new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file, true), StandardCharsets.UTF_8), 1 << 16);
+		} catch (IOException e) {
+			System.err.println("Error opening log file: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Renames the log file to {@code .1}, shifting older files up by one and
+	 * deleting the oldest.
+	 */
+	private static void roll() {
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			File from = new File(file.getPath() + "." + i);
+
+			if (from.exists()) {
+				File to = new File(file.getPath() + "." + (i + 1));
+				to.delete();
+				from.renameTo(to);
+			}
+		}
+
+		File first = new File(file.getPath() + ".1");
+		first.delete();
+		file.renameTo(first);
+	}
+
+	/**
+	 * Reads a level from a system property.
+	 */
+	private static Level level(String property, Level def) {
+		try {
+			return Level.valueOf(System.getProperty(property, def.name()).toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return def;
+		}
+	}
+
+	/**
+	 * Slot class holding one entry of the ring.
+	 */
+	private static final class Slot {
+		private volatile long seq; /*<< position the slot is free or filled for */
+
+		private long time;
+		private Level level;
+		private String event;
+		private String user;
+		private Command cmd;
+		private int size;
+		private long latency;
+		private String detail;
+
+		private Slot(long seq) {
+			this.seq = seq;
+		}
+	}
+}
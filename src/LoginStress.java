@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * LoginStress class to measure how many concurrent logins a running server
+ * sustains.
+ *
+ * Opens connections one after the other, logs each one in with a unique
+ * username and keeps it open. A single selector thread drains everything the
+ * server sends, so the stress tool itself needs no thread per connection.
+ * Stops at the first connection that cannot be opened or logged in.
+ *
+ * Usage: {@code LoginStress [host] [port] [users] [label]}
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class LoginStress {
+
+	// globals
+	private static final long LOGIN_TIMEOUT = 10000;
+
+	private final String hostname;
+	private final int port;
+	private final Selector selector;
+	private final ArrayList<SocketChannel> channels;
+
+	// default constructor
+	public LoginStress(String hostname, int port) throws IOException {
+		this.hostname = hostname;
+		this.port = port;
+		this.selector = Selector.open();
+		this.channels = new ArrayList<>();
+	}
+
+	/**
+	 * Logs in users until the target is reached or a login fails.
+	 *
+	 * @param users the number of users to log in.
+	 *
+	 * @return the number of users that are logged in at the same time.
+	 */
+	public int run(int users) {
+		for (int i = 0; i < users; i++) {
+			try {
+				if (!login("stress" + i)) {
+					System.err.println("Login refused for user " + i);
+					return i;
+				}
+			} catch (IOException e) {
+				System.err.println("Stopped at user " + i + ": " + e);
+				return i;
+			}
+
+			if ((i + 1) % 1000 == 0) {
+				System.out.println((i + 1) + " users logged in");
+			}
+		}
+
+		return users;
+	}
+
+	/**
+	 * Opens a connection and logs a single user in, while draining the
+	 * connections that are already open.
+	 *
+	 * @param username the username to log in with.
+	 *
+	 * @return {@code true} if the server accepted the login, {@code false} otherwise.
+	 * @throws IOException when the connection fails.
+	 */
+	private boolean login(String username) throws IOException {
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(this.hostname, this.port));
+
+		// same framing as DataOutputStream.writeUTF
+		byte[] body = ("login " + username).getBytes(StandardCharsets.UTF_8);
+		ByteBuffer frame = ByteBuffer.allocate(2 + body.length);
+		frame.putShort((short) body.length).put(body).flip();
+
+		while (frame.hasRemaining()) {
+			channel.write(frame);
+		}
+
+		channel.configureBlocking(false);
+		Reader reader = new Reader();
+		channel.register(this.selector, SelectionKey.OP_READ, reader);
+		this.channels.add(channel);
+
+		long deadline = System.currentTimeMillis() + LOGIN_TIMEOUT;
+
+		while (reader.first == null) {
+			long left = deadline - System.currentTimeMillis();
+
+			if (left <= 0) {
+				return false;
+			}
+
+			drain(left);
+		}
+
+		return reader.first.equals("login success");
+	}
+
+	/**
+	 * Reads and discards everything sent to the open connections.
+	 *
+	 * @param timeout how long to wait for data, in milliseconds.
+	 * @throws IOException when the selector fails.
+	 */
+	private void drain(long timeout) throws IOException {
+		this.selector.select(timeout);
+
+		Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+		while (it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
+
+			Reader reader = (Reader) key.attachment();
+			SocketChannel channel = (SocketChannel) key.channel();
+
+			if (channel.read(reader.buf) < 0) {
+				key.cancel();
+				channel.close();
+				continue;
+			}
+
+			reader.parse();
+		}
+	}
+
+	/**
+	 * Closes all connections.
+	 */
+	public void closeAll() {
+		for (SocketChannel channel : this.channels) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("Error closing connections: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Per-connection read state. Keeps only the first frame, which is the
+	 * login response, and skips over the rest without buffering them whole.
+	 */
+	private static class Reader {
+		private ByteBuffer buf = ByteBuffer.allocate(1024);
+		private String first = null;
+		private int skip = 0; /*<< bytes left of a frame being discarded */
+
+		private void parse() {
+			this.buf.flip();
+
+			while (this.buf.hasRemaining()) {
+				if (this.skip > 0) {
+					int n = Math.min(this.skip, this.buf.remaining());
+					this.buf.position(this.buf.position() + n);
+					this.skip -= n;
+					continue;
+				}
+
+				if (this.buf.remaining() < 2) {
+					break;
+				}
+
+				int len = this.buf.getShort(this.buf.position()) & 0xFFFF;
+
+				if (this.first == null) {
+					// login response is short, wait until it is complete
+					if (this.buf.remaining() < 2 + len) {
+						break;
+					}
+
+					this.first = new String(this.buf.array(), this.buf.position() + 2, len,
+						StandardCharsets.UTF_8);
+				}
+
+				this.buf.position(this.buf.position() + 2);
+				this.skip = len;
+			}
+
+			this.buf.compact();
+		}
+	}
+
+	/**
+	 * Main function.
+	 *
+	 * @param args the command-line arguments.
+	 * @throws IOException when the selector cannot be opened.
+	 */
+	public static void main(String[] args) throws IOException {
+		String hostname = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		int users = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		String label = args.length > 3 ? args[3] : "server";
+
+		LoginStress stress = new LoginStress(hostname, port);
+
+		Runtime rt = Runtime.getRuntime();
+		long start = System.currentTimeMillis();
+		int sustained = stress.run(users);
+		long elapsed = System.currentTimeMillis() - start;
+
+		System.out.printf("%s: %d / %d concurrent logins in %d ms (client heap %d MB)\n",
+			label, sustained, users, elapsed, (rt.totalMemory() - rt.freeMemory()) >> 20);
+
+		stress.closeAll();
+	}
+}
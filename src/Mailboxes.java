@@ -0,0 +1,400 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mailboxes class to keep whispers sent to users who are offline, so they can
+ * be delivered when the user next logs in.
+ *
+ * Every known user has a mailbox of at most {@code chatter.mailbox.size}
+ * whispers (default 100); once it is full the oldest whisper makes room for
+ * the newest. Whispers older than {@code chatter.mailbox.ttlHours} (default
+ * 168, a week) are thrown away, so mailboxes of users who never come back do
+ * not grow forever.
+ *
+ * Mailboxes are kept in memory and saved, one file per user, in a directory
+ * next to the message log. Changed mailboxes are saved once a second on a
+ * background thread and when the server stops, so whispering never waits on
+ * the disk.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class Mailboxes {
+
+	// globals
+	private static final String SUFFIX = ".box";
+	private static final int MAX_HEX_NAME = 64; /*<< longest username in bytes named in hex */
+
+	private final File dir;     /*<< where mailboxes are saved, null to keep them in memory */
+	private final int capacity; /*<< most whispers in a single mailbox */
+	private final long ttl;     /*<< milliseconds a whisper is kept */
+
+	private final ConcurrentHashMap<String, ArrayDeque<Letter>> boxes;
+	private final Set<String> dirty; /*<< users whose mailbox changed since it was saved */
+	private final AtomicInteger size;
+	private final LongAdder discarded; /*<< whispers that expired or did not fit */
+
+	private ScheduledExecutorService saver;
+
+	/**
+	 * Constructor for when the directory is given.
+	 *
+	 * @param dir the directory to save mailboxes in, or {@code null} to keep
+	 * them in memory only.
+	 */
+	public Mailboxes(File dir) {
+		this.dir = dir;
+		this.capacity = Math.max(1, Integer.getInteger("chatter.mailbox.size", 100));
+		this.ttl = TimeUnit.HOURS.toMillis(Long.getLong("chatter.mailbox.ttlHours", 168));
+
+		this.boxes = new ConcurrentHashMap<>();
+		this.dirty = ConcurrentHashMap.newKeySet();
+		this.size = new AtomicInteger(0);
+		this.discarded = new LongAdder();
+
+		this.saver = null;
+	}
+
+	/**
+	 * Loads the saved mailboxes and starts saving them in the background.
+	 *
+	 * @throws IOException when the directory cannot be created.
+	 */
+	public void open() throws IOException {
+		if (this.dir != null) {
+			if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+				throw new IOException("Cannot create " + this.dir);
+			}
+
+			File[] files = this.dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+			for (File file : files == null ? new File[0] : files) {
+				load(file);
+			}
+		}
+
+		this.saver = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "mailbox-saver");
+			t.setDaemon(true);
+			return t;
+		});
+
+		this.saver.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				expire(System.currentTimeMillis());
+				save();
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				save();
+			}
+		});
+	}
+
+	/**
+	 * Puts a whisper in the mailbox of a user, making room by throwing away
+	 * the oldest whisper if the mailbox is full.
+	 *
+	 * @param to the user the whisper is for.
+	 * @param from the user who sent it.
+	 * @param text the whisper.
+	 * @param time when it was sent, in epoch milliseconds.
+	 */
+	public void put(String to, String from, String text, long time) {
+		this.boxes.compute(to, (user, box) -> {
+			if (box == null) {
+				box = new ArrayDeque<>();
+			}
+
+			purge(box, time - this.ttl);
+
+			if (box.size() >= this.capacity) {
+				box.poll();
+				this.size.decrementAndGet();
+				this.discarded.increment();
+			}
+
+			box.add(new Letter(from, text, time));
+			this.size.incrementAndGet();
+			return box;
+		});
+
+		this.dirty.add(to);
+	}
+
+	/**
+	 * Takes every whisper out of the mailbox of a user.
+	 *
+	 * @param user the user whose mailbox to empty.
+	 *
+	 * @return the whispers that have not expired, oldest first.
+	 */
+	public List<Letter> take(String user) {
+		ArrayDeque<Letter> box = this.boxes.remove(user);
+
+		if (box == null) {
+			return Collections.emptyList();
+		}
+
+		purge(box, System.currentTimeMillis() - this.ttl);
+		this.size.addAndGet(-box.size());
+		this.dirty.add(user);
+
+		return new ArrayList<>(box);
+	}
+
+	/**
+	 * Gets the number of whispers waiting in all mailboxes together.
+	 *
+	 * @return number of whispers.
+	 */
+	public int size() {
+		return this.size.get();
+	}
+
+	/**
+	 * Gets the number of whispers thrown away because they expired or their
+	 * mailbox was full.
+	 *
+	 * @return number of whispers.
+	 */
+	public long getDiscarded() {
+		return this.discarded.sum();
+	}
+
+	/**
+	 * Throws away every whisper that is too old, and mailboxes that end up
+	 * empty.
+	 *
+	 * @param now the current time in epoch milliseconds.
+	 */
+	private void expire(long now) {
+		for (String user : this.boxes.keySet()) {
+			this.boxes.computeIfPresent(user, (k, box) -> {
+				if (purge(box, now - this.ttl) > 0) {
+					this.dirty.add(user);
+				}
+
+				return box.isEmpty() ? null : box;
+			});
+		}
+	}
+
+	/**
+	 * Removes whispers sent before a cutoff from a mailbox.
+	 *
+	 * @return the number of whispers removed.
+	 */
+	private int purge(ArrayDeque<Letter> box, long cutoff) {
+		int n = 0;
+
+		for (Iterator<Letter> it = box.iterator(); it.hasNext(); ) {
+			if (it.next().time < cutoff) {
+				it.remove();
+				n++;
+			}
+		}
+
+		this.size.addAndGet(-n);
+		this.discarded.add(n);
+		return n;
+	}
+
+	/**
+	 * Saves every mailbox that changed, deleting the files of mailboxes that
+	 * are now empty.
+	 */
+	private synchronized void save() {
+		if (this.dir == null) {
+			this.dirty.clear();
+			return;
+		}
+
+		ArrayList<String> failed = new ArrayList<>();
+
+		for (Iterator<String> it = this.dirty.iterator(); it.hasNext(); ) {
+			String user = it.next();
+			it.remove();
+
+			// copy the mailbox so whispers can keep arriving while it is written
+			ArrayList<Letter> letters = new ArrayList<>();
+			this.boxes.computeIfPresent(user, (k, box) -> {
+				letters.addAll(box);
+				return box;
+			});
+
+			File file = new File(this.dir, fileName(user));
+
+			try {
+				if (letters.isEmpty()) {
+					Files.deleteIfExists(file.toPath());
+				} else {
+					write(file, user, letters);
+				}
+			} catch (IOException e) {
+				Log.error("mailbox_save_failed", e);
+				failed.add(user);
+			}
+		}
+
+		// try again next time
+		this.dirty.addAll(failed);
+	}
+
+	/**
+	 * Writes a mailbox to a temporary file and moves it over the old one, so a
+	 * crash never leaves a half written mailbox.
+	 */
+	private void write(File file, String user, List<Letter> letters) throws IOException {
+		File tmp = new File(this.dir, file.getName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeUTF(user);
+			out.writeInt(letters.size());
+
+			for (Letter letter : letters) {
+				out.writeLong(letter.time);
+				out.writeUTF(letter.from);
+				out.writeUTF(letter.text);
+			}
+		}
+
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Loads a saved mailbox, leaving out whispers that have expired.
+	 */
+	private void load(File file) {
+		long cutoff = System.currentTimeMillis() - this.ttl;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			String user = in.readUTF();
+			int n = in.readInt();
+			ArrayDeque<Letter> box = new ArrayDeque<>();
+
+			for (int i = 0; i < n; i++) {
+				long time = in.readLong();
+				String from = in.readUTF();
+				String text = in.readUTF();
+
+				if (time >= cutoff) {
+					box.add(new Letter(from, text, time));
+				}
+			}
+
+			while (box.size() > this.capacity) {
+				box.poll();
+			}
+
+			if (box.isEmpty()) {
+				Files.deleteIfExists(file.toPath());
+				return;
+			}
+
+			this.boxes.put(user, box);
+			this.size.addAndGet(box.size());
+		} catch (IOException e) {
+			Log.warn("mailbox_corrupt", null, file.getName());
+		}
+	}
+
+	/**
+	 * Gets the file name of a mailbox, the username in hex so that any
+	 * username is a valid file name. Long usernames would make too long a
+	 * name, so they are named {@code h} and the SHA-256 of the username in hex
+	 * instead; the file holds the username, so it loads either way.
+	 */
+	private static String fileName(String user) {
+		byte[] bytes = user.getBytes(StandardCharsets.UTF_8);
+		StringBuilder name = new StringBuilder();
+
+		if (bytes.length > MAX_HEX_NAME) {
+			try {
+				bytes = MessageDigest.getInstance("SHA-256").digest(bytes);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("SHA-256 not available", e);
+			}
+
+			// never a hex digit, so it cannot be mistaken for a short username
+			name.append('h');
+		}
+
+		for (byte b : bytes) {
+			name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+
+		return name.append(SUFFIX).toString();
+	}
+
+	/**
+	 * Letter class holding one whisper waiting in a mailbox.
+	 */
+	public static final class Letter {
+		private final String from;
+		private final String text;
+		private final long time;
+
+		private Letter(String from, String text, long time) {
+			this.from = from;
+			this.text = text;
+			this.time = time;
+		}
+
+		/**
+		 * Gets the user who sent the whisper.
+		 *
+		 * @return username of the sender.
+		 */
+		public String getFrom() {
+			return this.from;
+		}
+
+		/**
+		 * Gets the whisper.
+		 *
+		 * @return text of the whisper.
+		 */
+		public String getText() {
+			return this.text;
+		}
+
+		/**
+		 * Gets when the whisper was sent.
+		 *
+		 * @return time in epoch milliseconds.
+		 */
+		public long getTime() {
+			return this.time;
+		}
+	}
+}
@@ -13,7 +13,6 @@ import javafx.stage.Stage;
 import javax.swing.JOptionPane;
 
 import java.util.ArrayList;
-import java.io.DataOutputStream;
 import java.io.IOException;
 
 /**
@@ -221,17 +220,14 @@ public class Main extends Application implements EventHandler<ActionEvent> {
 					}
 
 					System.err.println("\n\033[31mShutting down client ...\033[0m\n");
-					String cmd = "logout " + client.getUsername();
 
-					try {
-						DataOutputStream dos = client.getDos();
-
-						// if dos is null, all connections have already been closed
-						if (dos == null) {
-							return;
-						}
+					// if dos is null, all connections have already been closed
+					if (client.getDos() == null) {
+						return;
+					}
 
-						dos.writeUTF(cmd);
+					try {
+						client.sendLogout();
 					} catch (IOException e) { }
 
 					client.setUsername("");
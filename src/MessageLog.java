@@ -0,0 +1,555 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * MessageLog class to keep every message and whisper on disk, so chat history
+ * survives the server stopping or crashing.
+ *
+ * The log is a directory of segment files, each memory-mapped at a fixed size
+ * and filled with records one after the other. A record is a four byte length,
+ * a CRC32 of its body and then the body: the opcode of the command, sequence
+ * number, time, sender, recipient and text. The zeroed rest of a segment, or a
+ * record whose checksum does not match, marks where the segment ends. Once a
+ * segment is full the next one is started, and old segments are deleted.
+ *
+ * Appending only puts the record on a queue; a single writer thread copies
+ * records into the mapped segment in batches and forces them to disk according
+ * to the sync policy, so {@code ClientHandler.message()} never waits on the
+ * disk. The queue only blocks the caller if the writer falls far behind.
+ *
+ * Configured with system properties:
+ * <ul>
+ * <li>{@code chatter.store.dir} directory of the log, default {@code chatter-data}, empty for none</li>
+ * <li>{@code chatter.store.segmentMB} size of a segment, default 64</li>
+ * <li>{@code chatter.store.sync} {@code always}, {@code batch} (default), {@code interval} or {@code never}</li>
+ * <li>{@code chatter.store.syncMillis} time between syncs for {@code interval}, default 1000</li>
+ * <li>{@code chatter.store.retainSegments} segments kept, default 16</li>
+ * <li>{@code chatter.store.retainHours} age after which segments are deleted, default 0 for never</li>
+ * </ul>
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class MessageLog {
+
+	/**
+	 * When written records are forced to disk.
+	 */
+	public enum Sync {
+		/** after every record */
+		ALWAYS,
+		/** once per batch taken off the queue, known as group commit */
+		BATCH,
+		/** at most once per sync interval */
+		INTERVAL,
+		/** only when the log is closed, leaving the rest to the OS */
+		NEVER
+	}
+
+	// globals
+	private static final int HEADER = 8;             /*<< length and checksum of a record */
+	private static final int MAX_BODY = 1 + 8 + 8 + 3 * (2 + Frame.MAX_LENGTH);
+	private static final int QUEUE_CAPACITY = 1 << 16;
+	private static final int MAX_BATCH = 1024;
+	private static final String SUFFIX = ".log";
+
+	private final File dir;
+	private final long segmentBytes;
+	private final Sync sync;
+	private final long syncNanos;
+	private final int retainSegments;
+	private final long retainMillis;
+	private final Metrics metrics;
+
+	private final ArrayBlockingQueue<Record> queue;
+	private volatile boolean running;
+	private Thread writer;
+
+	// only touched by the writer thread once the log is open
+	private FileChannel channel;
+	private MappedByteBuffer segment;
+	private long segmentNumber;
+	private final ByteBuffer scratch; /*<< record being encoded */
+	private final CRC32 crc;
+	private boolean dirty;            /*<< records written since the last sync */
+	private long lastSync;
+
+	/**
+	 * Constructor reading the configuration from the system properties.
+	 *
+	 * @param metrics the metrics to count records and syncs in.
+	 */
+	public MessageLog(Metrics metrics) {
+		String path = System.getProperty("chatter.store.dir", "chatter-data");
+
+		this.dir = path.trim().equals("") ? null : new File(path);
+		this.segmentBytes = Math.max(1, Long.getLong("chatter.store.segmentMB", 64)) << 20;
+		this.sync = sync(System.getProperty("chatter.store.sync", "batch"));
+		this.syncNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chatter.store.syncMillis", 1000));
+		this.retainSegments = Math.max(1, Integer.getInteger("chatter.store.retainSegments", 16));
+		this.retainMillis = TimeUnit.HOURS.toMillis(Long.getLong("chatter.store.retainHours", 0));
+		this.metrics = metrics;
+
+		this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.running = false;
+		this.writer = null;
+
+		this.scratch = ByteBuffer.allocate(HEADER + MAX_BODY);
+		this.crc = new CRC32();
+		this.dirty = false;
+		this.lastSync = 0;
+	}
+
+	/**
+	 * Opens the log, reading back every record that was written before, and
+	 * starts the writer. Does nothing if no directory is configured.
+	 *
+	 * @param replay called with every record found, oldest first.
+	 * @throws IOException when the log cannot be opened.
+	 */
+	public void open(Consumer<Record> replay) throws IOException {
+		if (this.dir == null) {
+			return;
+		}
+
+		if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+			throw new IOException("Cannot create " + this.dir);
+		}
+
+		File[] files = segments();
+		long end = 0;
+
+		for (int i = 0; i < files.length; i++) {
+			end = scan(files[i], replay);
+		}
+
+		// keep appending to the newest segment, after its last whole record
+		if (files.length > 0) {
+			this.segmentNumber = number(files[files.length - 1]);
+			openSegment(end);
+		} else {
+			this.segmentNumber = 0;
+			openSegment(0);
+		}
+
+		this.running = true;
+		this.lastSync = System.nanoTime();
+
+		this.writer = new Thread(this::writeLoop, "store-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+
+		// write out whatever is still queued when the server stops
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * Reads every record in the log, oldest first. Records are read from disk,
+	 * so those still queued for the writer are not included.
+	 *
+	 * @param consumer called with every record.
+	 * @throws IOException when a segment cannot be read.
+	 */
+	public void scan(Consumer<Record> consumer) throws IOException {
+		if (this.dir == null) {
+			return;
+		}
+
+		for (File file : segments()) {
+			scan(file, consumer);
+		}
+	}
+
+	/**
+	 * Gets the directory of the log.
+	 *
+	 * @return the directory, or {@code null} when nothing is kept on disk.
+	 */
+	public File getDir() {
+		return this.dir;
+	}
+
+	/**
+	 * Queues a record to be written. Returns straight away unless the writer
+	 * has fallen a whole queue behind.
+	 *
+	 * @param type {@code MSG} or {@code WHSP}.
+	 * @param seq the sequence number of a message, {@code -1} for whispers.
+	 * @param time when it was sent, in epoch milliseconds.
+	 * @param from the user who sent it.
+	 * @param to the user it was whispered to, empty for messages.
+	 * @param text the text.
+	 */
+	public void append(Command type, long seq, long time, String from, String to, String text) {
+		if (!this.running) {
+			return;
+		}
+
+		Record record = new Record(type, seq, time, from, to, text);
+
+		if (this.queue.offer(record)) {
+			return;
+		}
+
+		try {
+			this.queue.put(record);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the writer once everything queued is written, and forces the log
+	 * to disk.
+	 */
+	public void close() {
+		if (!this.running) {
+			return;
+		}
+
+		this.running = false;
+
+		try {
+			this.writer.join(2000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Takes batches off the queue and writes them to the current segment.
+	 */
+	private void writeLoop() {
+		ArrayList<Record> batch = new ArrayList<>(MAX_BATCH);
+		long wait = this.sync == Sync.INTERVAL ? this.syncNanos : TimeUnit.MILLISECONDS.toNanos(100);
+
+		while (this.running || !this.queue.isEmpty()) {
+			try {
+				Record first = this.queue.poll(wait, TimeUnit.NANOSECONDS);
+
+				if (first != null) {
+					batch.add(first);
+					this.queue.drainTo(batch, MAX_BATCH - 1);
+				}
+
+				for (Record record : batch) {
+					write(record);
+
+					if (this.sync == Sync.ALWAYS) {
+						force();
+					}
+				}
+
+				batch.clear();
+
+				if (this.sync == Sync.BATCH
+						|| (this.sync == Sync.INTERVAL && System.nanoTime() - this.lastSync >= this.syncNanos)) {
+					force();
+				}
+			} catch (InterruptedException e) {
+				break;
+			} catch (IOException e) {
+				Log.error("store_failed", e);
+			}
+		}
+
+		try {
+			force();
+			this.channel.close();
+		} catch (IOException e) {
+			Log.error("store_failed", e);
+		}
+	}
+
+	/**
+	 * Encodes a record and copies it into the current segment, starting a new
+	 * segment if it does not fit.
+	 *
+	 * @param record the record to write.
+	 * @throws IOException when a new segment cannot be started.
+	 */
+	private void write(Record record) throws IOException {
+		ByteBuffer buf = this.scratch;
+		buf.clear();
+		buf.position(HEADER);
+
+		buf.put(record.type.getOpcode());
+		buf.putLong(record.seq);
+		buf.putLong(record.time);
+		putString(buf, record.from);
+		putString(buf, record.to);
+		putString(buf, record.text);
+
+		int len = buf.position() - HEADER;
+		this.crc.reset();
+		this.crc.update(buf.array(), HEADER, len);
+		buf.putInt(0, len);
+		buf.putInt(4, (int) this.crc.getValue());
+		buf.flip();
+
+		if (this.segment.remaining() < buf.remaining()) {
+			roll();
+		}
+
+		this.segment.put(buf);
+		this.dirty = true;
+		this.metrics.stored(HEADER + len);
+	}
+
+	/**
+	 * Forces written records to disk, if there are any.
+	 */
+	private void force() {
+		if (!this.dirty) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		this.segment.force();
+		this.dirty = false;
+		this.lastSync = System.nanoTime();
+		this.metrics.synced(this.lastSync - start);
+	}
+
+	/**
+	 * Finishes the current segment and starts the next one, deleting segments
+	 * that are no longer kept.
+	 *
+	 * @throws IOException when the new segment cannot be created.
+	 */
+	private void roll() throws IOException {
+		force();
+		this.channel.close();
+
+		this.segmentNumber++;
+		openSegment(0);
+		retain();
+	}
+
+	/**
+	 * Maps the current segment for writing, creating it if needed.
+	 *
+	 * @param position where the next record goes.
+	 * @throws IOException when the segment cannot be mapped.
+	 */
+	private void openSegment(long position) throws IOException {
+		File file = new File(this.dir, String.format("%020d%s", this.segmentNumber, SUFFIX));
+
+		this.channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+			Math.max(this.channel.size(), this.segmentBytes));
+		this.segment.position((int) position);
+
+		// clear any half written record left by a crash
+		int torn = Math.min(this.segment.remaining(), HEADER + MAX_BODY);
+		for (int i = 0; i < torn; i++) {
+			this.segment.put((int) position + i, (byte) 0);
+		}
+	}
+
+	/**
+	 * Deletes segments beyond the number kept, or older than the age kept.
+	 */
+	private void retain() {
+		File[] files = segments();
+		long cutoff = this.retainMillis > 0 ? System.currentTimeMillis() - this.retainMillis : Long.MIN_VALUE;
+
+		// never the current segment, which is last
+		for (int i = 0; i < files.length - 1; i++) {
+			if (files.length - i > this.retainSegments || files[i].lastModified() < cutoff) {
+				if (files[i].delete()) {
+					Log.log(Log.Level.INFO, "store_retention", null, null, -1, -1, files[i].getName());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the records of a single segment.
+	 *
+	 * @param file the segment to read.
+	 * @param consumer called with every record.
+	 *
+	 * @return the position after the last whole record.
+	 * @throws IOException when the segment cannot be read.
+	 */
+	private long scan(File file, Consumer<Record> consumer) throws IOException {
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			CRC32 check = new CRC32();
+
+			while (buf.remaining() >= HEADER) {
+				int start = buf.position();
+				int len = buf.getInt();
+				int sum = buf.getInt();
+
+				if (len <= 0 || len > buf.remaining()) {
+					return start;
+				}
+
+				ByteBuffer body = buf.slice();
+				body.limit(len);
+				check.reset();
+				check.update(body.duplicate());
+
+				if ((int) check.getValue() != sum) {
+					Log.warn("store_corrupt", null, file.getName() + "@" + start);
+					return start;
+				}
+
+				consumer.accept(new Record(Command.fromOpcode(body.get()), body.getLong(), body.getLong(),
+					getString(body), getString(body), getString(body)));
+				buf.position(start + HEADER + len);
+			}
+
+			return buf.position();
+		}
+	}
+
+	/**
+	 * Gets the segment files, oldest first.
+	 */
+	private File[] segments() {
+		File[] files = this.dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+
+		if (files == null) {
+			return new File[0];
+		}
+
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Gets the number of a segment from its file name.
+	 */
+	private static long number(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * Writes a string prefixed with its length.
+	 */
+	private static void putString(ByteBuffer buf, String str) {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		buf.putShort((short) bytes.length);
+		buf.put(bytes);
+	}
+
+	/**
+	 * Reads a string prefixed with its length.
+	 */
+	private static String getString(ByteBuffer buf) {
+		int len = buf.getShort() & 0xFFFF;
+		byte[] bytes = new byte[len];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a sync policy such as {@code batch}.
+	 */
+	private static Sync sync(String name) {
+		try {
+			return Sync.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown sync policy " + name + ", syncing once per batch.");
+			return Sync.BATCH;
+		}
+	}
+
+	/**
+	 * Record class holding one message or whisper from the log.
+	 */
+	public static final class Record {
+		private final Command type;
+		private final long seq;
+		private final long time;
+		private final String from;
+		private final String to;
+		private final String text;
+
+		private Record(Command type, long seq, long time, String from, String to, String text) {
+			this.type = type;
+			this.seq = seq;
+			this.time = time;
+			this.from = from;
+			this.to = to;
+			this.text = text;
+		}
+
+		/**
+		 * Gets the kind of record.
+		 *
+		 * @return {@code MSG} or {@code WHSP}.
+		 */
+		public Command getType() {
+			return this.type;
+		}
+
+		/**
+		 * Gets the sequence number of a message.
+		 *
+		 * @return sequence number, {@code -1} for whispers.
+		 */
+		public long getSeq() {
+			return this.seq;
+		}
+
+		/**
+		 * Gets when it was sent.
+		 *
+		 * @return time in epoch milliseconds.
+		 */
+		public long getTime() {
+			return this.time;
+		}
+
+		/**
+		 * Gets the user who sent it.
+		 *
+		 * @return username of the sender.
+		 */
+		public String getFrom() {
+			return this.from;
+		}
+
+		/**
+		 * Gets the user it was whispered to.
+		 *
+		 * @return username of the recipient, empty for messages.
+		 */
+		public String getTo() {
+			return this.to;
+		}
+
+		/**
+		 * Gets the text.
+		 *
+		 * @return the text of the message or whisper.
+		 */
+		public String getText() {
+			return this.text;
+		}
+	}
+}
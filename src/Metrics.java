@@ -0,0 +1,625 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Metrics class to count what the server does while it runs.
+ *
+ * Counters are LongAdders, so updating them from every connection thread on
+ * the hot path costs about as much as an uncontended increment. Gauges such as
+ * queue depths are only worked out when the metrics are read. The same numbers
+ * are registered as an MBean and, if a port is given, served in the Prometheus
+ * text format on {@code http://127.0.0.1:<port>/metrics}.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class Metrics implements MetricsMBean {
+
+	// globals
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	private final Server server;
+
+	private final LongAdder connections;
+	private final LongAdder logins;
+	private final LongAdder logouts;
+	private final LongAdder messages;
+	private final LongAdder whispers;
+	private final LongAdder bytesIn;
+	private final LongAdder bytesOut;
+	private final LongAdder failedWrites;
+	private final LongAdder reaped;
+	private final LongAdder throttled;
+	private final LongAdder stored;      /*<< records written to the message log */
+	private final LongAdder storedBytes;
+	private final LongAdder syncs;
+	private final LongAdder syncNanos;
+	private final LongAdder[] slow;   /*<< slow consumer actions, by policy */
+	private final Histogram[] fanout; /*<< fan-out time in nanoseconds, by command */
+	private final Histogram searches; /*<< search time in nanoseconds */
+
+	private volatile long loginsPerSecond;
+	private volatile long messagesPerSecond;
+	private volatile long whispersPerSecond;
+
+	private ScheduledExecutorService sampler;
+	private HttpServer http;
+
+	// default constructor
+	public Metrics(Server server) {
+		this.server = server;
+
+		this.connections = new LongAdder();
+		this.logins = new LongAdder();
+		this.logouts = new LongAdder();
+		this.messages = new LongAdder();
+		this.whispers = new LongAdder();
+		this.bytesIn = new LongAdder();
+		this.bytesOut = new LongAdder();
+		this.failedWrites = new LongAdder();
+		this.reaped = new LongAdder();
+		this.throttled = new LongAdder();
+		this.stored = new LongAdder();
+		this.storedBytes = new LongAdder();
+		this.syncs = new LongAdder();
+		this.syncNanos = new LongAdder();
+
+		this.slow = new LongAdder[ClientHandler.SlowPolicy.values().length];
+		for (int i = 0; i < this.slow.length; i++) {
+			this.slow[i] = new LongAdder();
+		}
+
+		this.fanout = new Histogram[Command.values().length];
+		for (int i = 0; i < this.fanout.length; i++) {
+			this.fanout[i] = new Histogram();
+		}
+
+		this.searches = new Histogram();
+
+		this.sampler = null;
+		this.http = null;
+	}
+
+	/**
+	 * Registers the MBean, starts working out rates every second and, if a
+	 * port is given, starts serving the metrics over HTTP.
+	 *
+	 * @param port the port to serve metrics on, or a negative number for none.
+	 */
+	public void start(int port) {
+		try {
+			ManagementFactory.getPlatformMBeanServer()
+				.registerMBean(this, new ObjectName("chatter:type=Metrics"));
+		} catch (JMException e) {
+			System.err.println("Could not register metrics MBean: " + e);
+		}
+
+		this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "metrics-sampler");
+			t.setDaemon(true);
+			return t;
+		});
+
+		this.sampler.scheduleAtFixedRate(new Runnable() {
+			private long lastLogins = 0;
+			private long lastMessages = 0;
+			private long lastWhispers = 0;
+
+			@Override
+			public void run() {
+				long l = logins.sum();
+				long m = messages.sum();
+				long w = whispers.sum();
+
+				loginsPerSecond = l - this.lastLogins;
+				messagesPerSecond = m - this.lastMessages;
+				whispersPerSecond = w - this.lastWhispers;
+
+				this.lastLogins = l;
+				this.lastMessages = m;
+				this.lastWhispers = w;
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+
+		if (port < 0) {
+			return;
+		}
+
+		try {
+			this.http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			this.http.createContext("/metrics", new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+
+					exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+
+					try (OutputStream out = exchange.getResponseBody()) {
+						out.write(body);
+					}
+				}
+			});
+			this.http.start();
+
+			System.out.printf("Metrics available on http://127.0.0.1:%d/metrics\n", port);
+		} catch (IOException e) {
+			System.err.println("Could not start metrics endpoint: " + e);
+		}
+	}
+
+	/**
+	 * Counts an accepted connection.
+	 */
+	public void connected() {
+		this.connections.increment();
+	}
+
+	/**
+	 * Counts a successful login.
+	 */
+	public void loggedIn() {
+		this.logins.increment();
+	}
+
+	/**
+	 * Counts a logout.
+	 */
+	public void loggedOut() {
+		this.logouts.increment();
+	}
+
+	/**
+	 * Counts a global message.
+	 */
+	public void message() {
+		this.messages.increment();
+	}
+
+	/**
+	 * Counts a delivered whisper.
+	 */
+	public void whisper() {
+		this.whispers.increment();
+	}
+
+	/**
+	 * Counts bytes received from a client.
+	 *
+	 * @param n number of bytes.
+	 */
+	public void bytesIn(long n) {
+		this.bytesIn.add(n);
+	}
+
+	/**
+	 * Counts bytes written to a client.
+	 *
+	 * @param n number of bytes.
+	 */
+	public void bytesOut(long n) {
+		this.bytesOut.add(n);
+	}
+
+	/**
+	 * Counts a frame that could not be queued or written.
+	 */
+	public void failedWrite() {
+		this.failedWrites.increment();
+	}
+
+	/**
+	 * Counts what was done with a slow consumer: frames dropped, or a
+	 * connection closed.
+	 *
+	 * @param policy the policy that was applied.
+	 * @param n number of frames dropped, or {@code 1} for a disconnect.
+	 */
+	public void slowConsumer(ClientHandler.SlowPolicy policy, long n) {
+		this.slow[policy.ordinal()].add(n);
+	}
+
+	/**
+	 * Counts a connection evicted for being dead or idle.
+	 */
+	public void reaped() {
+		this.reaped.increment();
+	}
+
+	/**
+	 * Counts a command dropped for going over a rate limit.
+	 */
+	public void throttled() {
+		this.throttled.increment();
+	}
+
+	/**
+	 * Counts a record written to the message log.
+	 *
+	 * @param bytes size of the record.
+	 */
+	public void stored(long bytes) {
+		this.stored.increment();
+		this.storedBytes.add(bytes);
+	}
+
+	/**
+	 * Counts the message log being forced to disk.
+	 *
+	 * @param nanos time taken in nanoseconds.
+	 */
+	public void synced(long nanos) {
+		this.syncs.increment();
+		this.syncNanos.add(nanos);
+	}
+
+	/**
+	 * Records how long a search took.
+	 *
+	 * @param nanos time taken in nanoseconds.
+	 */
+	public void searched(long nanos) {
+		this.searches.record(nanos);
+	}
+
+	/**
+	 * Records how long it took to hand a broadcast to every client.
+	 *
+	 * @param cmd the command that was broadcast.
+	 * @param nanos time taken in nanoseconds.
+	 */
+	public void fanout(Command cmd, long nanos) {
+		this.fanout[cmd.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Formats every metric in the Prometheus text format.
+	 *
+	 * @return the metrics as text.
+	 */
+	public String prometheus() {
+		StringBuilder out = new StringBuilder(1024);
+
+		metric(out, "chatter_connections_total", "counter", "Connections accepted.", getConnectionsTotal());
+		metric(out, "chatter_connections", "gauge", "Clients currently connected.", getConnections());
+		metric(out, "chatter_users_online", "gauge", "Users currently online.", getOnlineUsers());
+		metric(out, "chatter_logins_total", "counter", "Successful logins.", getLoginsTotal());
+		metric(out, "chatter_logouts_total", "counter", "Logouts.", this.logouts.sum());
+		metric(out, "chatter_messages_total", "counter", "Global messages.", getMessagesTotal());
+		metric(out, "chatter_whispers_total", "counter", "Delivered whispers.", getWhispersTotal());
+		metric(out, "chatter_bytes_in_total", "counter", "Bytes received from clients.", getBytesIn());
+		metric(out, "chatter_bytes_out_total", "counter", "Bytes written to clients.", getBytesOut());
+		metric(out, "chatter_failed_writes_total", "counter", "Frames that could not be queued or written.",
+			getFailedWrites());
+		metric(out, "chatter_throttled_total", "counter", "Commands dropped for going over a rate limit.",
+			getThrottled());
+		out.append("# HELP chatter_slow_consumer_total Frames dropped, or connections closed, for slow consumers.\n");
+		out.append("# TYPE chatter_slow_consumer_total counter\n");
+		for (ClientHandler.SlowPolicy policy : ClientHandler.SlowPolicy.values()) {
+			out.append("chatter_slow_consumer_total{action=\"").append(policy.name().toLowerCase()).append("\"} ")
+				.append(this.slow[policy.ordinal()].sum()).append('\n');
+		}
+
+		metric(out, "chatter_reaped_total", "counter", "Connections evicted for being dead or idle.", getReaped());
+
+		out.append("# HELP chatter_fanout_seconds Time taken to hand a broadcast to every client.\n");
+		out.append("# TYPE chatter_fanout_seconds summary\n");
+		for (Command cmd : Command.values()) {
+			Histogram h = this.fanout[cmd.ordinal()];
+
+			if (h.getCount() == 0) {
+				continue;
+			}
+
+			String kind = "kind=\"" + cmd.getKey() + "\"";
+			for (double q : QUANTILES) {
+				out.append("chatter_fanout_seconds{").append(kind).append(",quantile=\"").append(q).append("\"} ")
+					.append(h.percentile(q * 100) / 1e9).append('\n');
+			}
+			out.append("chatter_fanout_seconds_sum{").append(kind).append("} ").append(h.getSum() / 1e9).append('\n');
+			out.append("chatter_fanout_seconds_count{").append(kind).append("} ").append(h.getCount()).append('\n');
+		}
+
+		shardMetric(out, "chatter_shard_clients", "gauge", "Clients in a broadcast shard.",
+			Broadcaster.Shard::getClients);
+		shardMetric(out, "chatter_shard_queued", "gauge", "Broadcasts waiting for a shard.",
+			Broadcaster.Shard::getQueued);
+		shardMetric(out, "chatter_shard_broadcasts_total", "counter", "Broadcasts fanned out by a shard.",
+			Broadcaster.Shard::getBroadcasts);
+		shardMetric(out, "chatter_shard_frames_total", "counter", "Frames queued for clients by a shard.",
+			Broadcaster.Shard::getFrames);
+
+		out.append("# HELP chatter_shard_busy_seconds_total Time a shard spent fanning out.\n");
+		out.append("# TYPE chatter_shard_busy_seconds_total counter\n");
+		for (Broadcaster.Shard shard : this.server.getBroadcaster().getShards()) {
+			out.append("chatter_shard_busy_seconds_total{shard=\"").append(shard.getIndex()).append("\"} ")
+				.append(shard.getBusyNanos() / 1e9).append('\n');
+		}
+
+		metric(out, "chatter_store_records_total", "counter", "Records written to the message log.",
+			getStoredRecords());
+		metric(out, "chatter_store_bytes_total", "counter", "Bytes written to the message log.",
+			this.storedBytes.sum());
+		out.append("# HELP chatter_store_sync_seconds Time spent forcing the message log to disk.\n");
+		out.append("# TYPE chatter_store_sync_seconds summary\n");
+		out.append("chatter_store_sync_seconds_sum ").append(this.syncNanos.sum() / 1e9).append('\n');
+		out.append("chatter_store_sync_seconds_count ").append(getStoreSyncs()).append('\n');
+
+		out.append("# HELP chatter_search_seconds Time taken to search messages and whispers.\n");
+		out.append("# TYPE chatter_search_seconds summary\n");
+		for (double q : QUANTILES) {
+			out.append("chatter_search_seconds{quantile=\"").append(q).append("\"} ")
+				.append(this.searches.percentile(q * 100) / 1e9).append('\n');
+		}
+		out.append("chatter_search_seconds_sum ").append(this.searches.getSum() / 1e9).append('\n');
+		out.append("chatter_search_seconds_count ").append(this.searches.getCount()).append('\n');
+		metric(out, "chatter_search_documents", "gauge", "Messages and whispers that can be searched.",
+			getSearchDocuments());
+		metric(out, "chatter_search_dropped_total", "counter", "Messages left out of the search index.",
+			this.server.getSearch().getDropped());
+
+		metric(out, "chatter_mailbox_whispers", "gauge", "Whispers waiting for offline users.",
+			getMailboxWhispers());
+		metric(out, "chatter_mailbox_discarded_total", "counter",
+			"Whispers for offline users that expired or did not fit in their mailbox.",
+			this.server.getMailboxes().getDiscarded());
+
+		metric(out, "chatter_cluster_peers_up", "gauge", "Other nodes of the cluster currently connected.",
+			getClusterPeersUp());
+		metric(out, "chatter_cluster_remote_users", "gauge", "Users online on other nodes of the cluster.",
+			this.server.getCluster().remoteNames().size());
+
+		metric(out, "chatter_pool_frames", "gauge", "Pooled frames that are still queued or being written.",
+			getPooledFrames());
+		metric(out, "chatter_pool_slots", "gauge", "Frames the pool can hold at once.",
+			Frame.getPool().getSlots());
+		metric(out, "chatter_pool_misses_total", "counter",
+			"Frames kept on the heap because they did not fit in the pool or it was full.", Frame.getPoolMisses());
+
+		metric(out, "chatter_log_dropped_total", "counter", "Log entries dropped because the log was full.",
+			Log.getDropped());
+		metric(out, "chatter_queued_frames", "gauge", "Frames queued for all clients together.", getQueuedFrames());
+
+		out.append("# HELP chatter_send_queue_bytes Bytes queued for a single client.\n");
+		out.append("# TYPE chatter_send_queue_bytes gauge\n");
+		for (ClientHandler client : this.server.getClients()) {
+			String user = client.getUsername();
+
+			if (!user.equals("")) {
+				out.append("chatter_send_queue_bytes{user=\"").append(escape(user)).append("\"} ")
+					.append(client.getQueuedBytes()).append('\n');
+			}
+		}
+
+		out.append("# HELP chatter_send_queue_depth Frames queued for a single client.\n");
+		out.append("# TYPE chatter_send_queue_depth gauge\n");
+		for (ClientHandler client : this.server.getClients()) {
+			String user = client.getUsername();
+
+			if (user.equals("")) {
+				continue;
+			}
+
+			out.append("chatter_send_queue_depth{user=\"").append(escape(user)).append("\"} ")
+				.append(client.getQueueDepth()).append('\n');
+		}
+
+		return out.toString();
+	}
+
+	/**
+	 * Appends a metric without labels.
+	 */
+	private static void metric(StringBuilder out, String name, String type, String help, long value) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Appends one sample per broadcast shard.
+	 */
+	private void shardMetric(StringBuilder out, String name, String type, String help,
+			ToLongFunction<Broadcaster.Shard> value) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		for (Broadcaster.Shard shard : this.server.getBroadcaster().getShards()) {
+			out.append(name).append("{shard=\"").append(shard.getIndex()).append("\"} ")
+				.append(value.applyAsLong(shard)).append('\n');
+		}
+	}
+
+	/**
+	 * Escapes a label value.
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	@Override
+	public long getConnectionsTotal() {
+		return this.connections.sum();
+	}
+
+	@Override
+	public int getConnections() {
+		return this.server.getClients().size();
+	}
+
+	@Override
+	public int getOnlineUsers() {
+		return this.server.getNumOnlineUsers();
+	}
+
+	@Override
+	public long getLoginsTotal() {
+		return this.logins.sum();
+	}
+
+	@Override
+	public long getLoginsPerSecond() {
+		return this.loginsPerSecond;
+	}
+
+	@Override
+	public long getMessagesTotal() {
+		return this.messages.sum();
+	}
+
+	@Override
+	public long getMessagesPerSecond() {
+		return this.messagesPerSecond;
+	}
+
+	@Override
+	public long getWhispersTotal() {
+		return this.whispers.sum();
+	}
+
+	@Override
+	public long getWhispersPerSecond() {
+		return this.whispersPerSecond;
+	}
+
+	@Override
+	public long getBytesIn() {
+		return this.bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return this.bytesOut.sum();
+	}
+
+	@Override
+	public long getFailedWrites() {
+		return this.failedWrites.sum();
+	}
+
+	@Override
+	public long getThrottled() {
+		return this.throttled.sum();
+	}
+
+	@Override
+	public long getSlowConsumerDrops() {
+		return this.slow[ClientHandler.SlowPolicy.DROP_OLDEST.ordinal()].sum()
+			+ this.slow[ClientHandler.SlowPolicy.PRIORITY.ordinal()].sum();
+	}
+
+	@Override
+	public long getSlowConsumerDisconnects() {
+		return this.slow[ClientHandler.SlowPolicy.DISCONNECT.ordinal()].sum();
+	}
+
+	@Override
+	public long getStoredRecords() {
+		return this.stored.sum();
+	}
+
+	@Override
+	public long getStoreSyncs() {
+		return this.syncs.sum();
+	}
+
+	@Override
+	public long getSearchDocuments() {
+		return this.server.getSearch().size();
+	}
+
+	@Override
+	public long getSearchP99Micros() {
+		return this.searches.percentile(99) / 1000;
+	}
+
+	@Override
+	public int getClusterPeersUp() {
+		return this.server.getCluster().getPeersUp();
+	}
+
+	@Override
+	public int getMailboxWhispers() {
+		return this.server.getMailboxes().size();
+	}
+
+	@Override
+	public long getReaped() {
+		return this.reaped.sum();
+	}
+
+	@Override
+	public long getMessageFanoutP99Micros() {
+		return this.fanout[Command.MSG.ordinal()].percentile(99) / 1000;
+	}
+
+	@Override
+	public long getPooledFrames() {
+		return Frame.getPool().getInUse();
+	}
+
+	@Override
+	public Map<String, Integer> getShardClients() {
+		HashMap<String, Integer> clients = new HashMap<>();
+
+		for (Broadcaster.Shard shard : this.server.getBroadcaster().getShards()) {
+			clients.put("shard" + shard.getIndex(), shard.getClients());
+		}
+
+		return clients;
+	}
+
+	@Override
+	public Map<String, Long> getShardFrames() {
+		HashMap<String, Long> frames = new HashMap<>();
+
+		for (Broadcaster.Shard shard : this.server.getBroadcaster().getShards()) {
+			frames.put("shard" + shard.getIndex(), shard.getFrames());
+		}
+
+		return frames;
+	}
+
+	@Override
+	public long getQueuedFrames() {
+		long queued = 0;
+
+		for (ClientHandler client : this.server.getClients()) {
+			queued += client.getQueueDepth();
+		}
+
+		return queued;
+	}
+
+	@Override
+	public Map<String, Integer> getQueueDepths() {
+		HashMap<String, Integer> depths = new HashMap<>();
+
+		for (ClientHandler client : this.server.getClients()) {
+			if (!client.getUsername().equals("")) {
+				depths.put(client.getUsername(), client.getQueueDepth());
+			}
+		}
+
+		return depths;
+	}
+}
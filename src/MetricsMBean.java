@@ -0,0 +1,207 @@
+import java.util.Map;
+
+/**
+ * MetricsMBean interface listing the server metrics that are visible over JMX,
+ * for example in JConsole under {@code chatter:type=Metrics}.
+ */
+
+public interface MetricsMBean {
+	/**
+	 * Gets the number of connections accepted since the server started.
+	 *
+	 * @return number of connections.
+	 */
+	public long getConnectionsTotal();
+
+	/**
+	 * Gets the number of clients currently connected.
+	 *
+	 * @return number of connected clients.
+	 */
+	public int getConnections();
+
+	/**
+	 * Gets the number of users currently online.
+	 *
+	 * @return number of online users.
+	 */
+	public int getOnlineUsers();
+
+	/**
+	 * Gets the number of successful logins since the server started.
+	 *
+	 * @return number of logins.
+	 */
+	public long getLoginsTotal();
+
+	/**
+	 * Gets the number of logins during the last second.
+	 *
+	 * @return logins per second.
+	 */
+	public long getLoginsPerSecond();
+
+	/**
+	 * Gets the number of global messages since the server started.
+	 *
+	 * @return number of messages.
+	 */
+	public long getMessagesTotal();
+
+	/**
+	 * Gets the number of global messages during the last second.
+	 *
+	 * @return messages per second.
+	 */
+	public long getMessagesPerSecond();
+
+	/**
+	 * Gets the number of delivered whispers since the server started.
+	 *
+	 * @return number of whispers.
+	 */
+	public long getWhispersTotal();
+
+	/**
+	 * Gets the number of delivered whispers during the last second.
+	 *
+	 * @return whispers per second.
+	 */
+	public long getWhispersPerSecond();
+
+	/**
+	 * Gets the number of bytes received from clients.
+	 *
+	 * @return bytes received.
+	 */
+	public long getBytesIn();
+
+	/**
+	 * Gets the number of bytes written to clients.
+	 *
+	 * @return bytes written.
+	 */
+	public long getBytesOut();
+
+	/**
+	 * Gets the number of frames that could not be queued or written.
+	 *
+	 * @return number of failed writes.
+	 */
+	public long getFailedWrites();
+
+	/**
+	 * Gets the number of commands dropped for going over a rate limit.
+	 *
+	 * @return number of throttled commands.
+	 */
+	public long getThrottled();
+
+	/**
+	 * Gets the number of frames dropped for clients that were not keeping up.
+	 *
+	 * @return number of dropped frames.
+	 */
+	public long getSlowConsumerDrops();
+
+	/**
+	 * Gets the number of clients disconnected for not keeping up.
+	 *
+	 * @return number of disconnected clients.
+	 */
+	public long getSlowConsumerDisconnects();
+
+	/**
+	 * Gets the number of connections evicted for being dead or idle.
+	 *
+	 * @return number of evicted connections.
+	 */
+	public long getReaped();
+
+	/**
+	 * Gets the number of records written to the message log.
+	 *
+	 * @return number of stored messages and whispers.
+	 */
+	public long getStoredRecords();
+
+	/**
+	 * Gets the number of times the message log was forced to disk.
+	 *
+	 * @return number of syncs.
+	 */
+	public long getStoreSyncs();
+
+	/**
+	 * Gets the number of whispers waiting for users who are offline.
+	 *
+	 * @return number of whispers in all mailboxes.
+	 */
+	public int getMailboxWhispers();
+
+	/**
+	 * Gets the number of other nodes of the cluster currently connected.
+	 *
+	 * @return number of peer links that are up.
+	 */
+	public int getClusterPeersUp();
+
+	/**
+	 * Gets the number of messages and whispers that can be searched.
+	 *
+	 * @return number of indexed documents.
+	 */
+	public long getSearchDocuments();
+
+	/**
+	 * Gets the 99th percentile time taken by a search.
+	 *
+	 * @return search time in microseconds.
+	 */
+	public long getSearchP99Micros();
+
+	/**
+	 * Gets the 99th percentile time taken to fan a global message out to
+	 * every client.
+	 *
+	 * @return fan-out time in microseconds.
+	 */
+	public long getMessageFanoutP99Micros();
+
+	/**
+	 * Gets the number of pooled frames that are still queued or being
+	 * written.
+	 *
+	 * @return number of pool slots in use.
+	 */
+	public long getPooledFrames();
+
+	/**
+	 * Gets the number of clients in every broadcast shard.
+	 *
+	 * @return clients by shard.
+	 */
+	public Map<String, Integer> getShardClients();
+
+	/**
+	 * Gets the number of frames every broadcast shard has queued for its
+	 * clients, to see how evenly the fan-out is spread.
+	 *
+	 * @return frames by shard.
+	 */
+	public Map<String, Long> getShardFrames();
+
+	/**
+	 * Gets the number of frames queued for all clients together.
+	 *
+	 * @return number of queued frames.
+	 */
+	public long getQueuedFrames();
+
+	/**
+	 * Gets the send queue depth of every connected user.
+	 *
+	 * @return queued frames by username.
+	 */
+	public Map<String, Integer> getQueueDepths();
+}
@@ -0,0 +1,268 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NioClientHandler class to handle a client connection on a non-blocking
+ * channel.
+ *
+ * Frames use the same two byte length prefix as
+ * {@code DataOutputStream.writeUTF}, so existing clients can connect to either
+ * server mode. All reads and writes happen on the owning EventLoop thread,
+ * which also takes the place of the blocking writer in draining the outbound
+ * queue.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class NioClientHandler extends ClientHandler {
+
+	// globals
+	private static final int INITIAL_BUFFER = 512;
+	private static final int MAX_FRAME = 2 + 65535;
+
+	private final SocketChannel channel;
+	private final EventLoop loop;
+	private SelectionKey key;
+
+	private ByteBuffer in;                      /*<< partially received frames */
+	private ByteBuffer view;                    /*<< reused to write pooled frames */
+	private Frame sending;                      /*<< frame being written, released once sent */
+	private ByteBuffer pending;                 /*<< what is left of it to write */
+	private final AtomicBoolean flushScheduled; /*<< flush already queued on the loop */
+
+	private volatile boolean closeAfterFlush;
+
+	// default constructor
+	public NioClientHandler(Server server, SocketChannel channel, EventLoop loop) {
+		super(server);
+		this.channel = channel;
+		this.loop = loop;
+		this.in = ByteBuffer.allocate(INITIAL_BUFFER);
+		this.view = null;
+		this.sending = null;
+		this.pending = null;
+		this.flushScheduled = new AtomicBoolean(false);
+		this.closeAfterFlush = false;
+	}
+
+	/**
+	 * Reads all available bytes from the channel and handles every complete
+	 * frame. Only called on the loop thread.
+	 */
+	public void onReadable() {
+		try {
+			int n = this.channel.read(this.in);
+
+			if (n < 0) {
+				leave("disconnected");
+				closeAll();
+				return;
+			}
+
+			this.server.getMetrics().bytesIn(n);
+			touch();
+		} catch (IOException e) {
+			leave("disconnected");
+			closeAll();
+			return;
+		}
+
+		this.in.flip();
+
+		while (this.in.remaining() >= 2) {
+			int len = this.in.getShort(this.in.position()) & 0xFFFF;
+
+			// wait for the rest of the frame
+			if (this.in.remaining() < 2 + len) {
+				break;
+			}
+
+			int off = this.in.position() + 2;
+			this.in.position(off + len);
+
+			// handled in place, the buffer is only reused after this returns
+			if (!handle(this.in.array(), off, len)) {
+				this.closeAfterFlush = true;
+				this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+				scheduleFlush();
+				break;
+			}
+		}
+
+		this.in.compact();
+
+		// grow buffer when a single frame does not fit
+		if (!this.in.hasRemaining() && this.in.capacity() < MAX_FRAME) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.min(this.in.capacity() * 2, MAX_FRAME));
+			this.in.flip();
+			bigger.put(this.in);
+			this.in = bigger;
+		}
+	}
+
+	/**
+	 * Writes as many queued frames as the socket accepts. If the socket is
+	 * full, write interest is kept until the loop reports it writable again.
+	 * Only called on the loop thread.
+	 */
+	public void flush() {
+		if (isClosed()) {
+			return;
+		}
+
+		Metrics metrics = this.server.getMetrics();
+
+		try {
+			while (true) {
+				while (this.pending != null || !this.outbound.isEmpty()) {
+					if (this.pending == null) {
+						this.sending = this.outbound.poll();
+
+						if (this.sending.isPooled() && this.view == null) {
+							this.view = Frame.view();
+						}
+
+						this.pending = this.sending.buffer(this.view);
+						drained(this.sending.size());
+					}
+
+					metrics.bytesOut(this.channel.write(this.pending));
+
+					if (this.pending.hasRemaining()) {
+						this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+						return;
+					}
+
+					this.pending = null;
+					this.sending.release();
+					this.sending = null;
+				}
+
+				this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+				this.flushScheduled.set(false);
+
+				// frames added while finishing up must not be stranded
+				if (this.outbound.isEmpty() || !this.flushScheduled.compareAndSet(false, true)) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			metrics.failedWrite();
+			leave("disconnected");
+			closeAll();
+			return;
+		}
+
+		if (this.closeAfterFlush && this.outbound.isEmpty()) {
+			closeAll();
+		}
+	}
+
+	/**
+	 * Makes sure the loop will flush a newly queued frame.
+	 */
+	@Override
+	protected void onEnqueued() {
+		scheduleFlush();
+	}
+
+	/**
+	 * Closes the channel once the loop has flushed everything queued.
+	 */
+	@Override
+	protected void closeAfterFlush() {
+		this.closeAfterFlush = true;
+		scheduleFlush();
+	}
+
+	/**
+	 * Queues a flush on the loop thread unless one is already pending.
+	 */
+	private void scheduleFlush() {
+		if (this.flushScheduled.compareAndSet(false, true)) {
+			this.loop.execute(this, new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Evicts the client on the loop thread, which owns the channel.
+	 *
+	 * @param reason why the connection is evicted, for the log.
+	 */
+	@Override
+	public void evict(String reason) {
+		this.loop.execute(this, new Runnable() {
+			@Override
+			public void run() {
+				NioClientHandler.super.evict(reason);
+			}
+		});
+	}
+
+	/**
+	 * Closes the channel. Any frames still queued are discarded.
+	 */
+	@Override
+	public void closeAll() {
+		setClosed();
+
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			Log.error("close_failed", e);
+		}
+
+		// the frame being written belongs to the loop thread
+		if (this.loop.inLoop()) {
+			dropSending();
+		} else {
+			this.loop.execute(this, new Runnable() {
+				@Override
+				public void run() {
+					dropSending();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Gives up the frame that was being written, if any. Only called on the
+	 * loop thread.
+	 */
+	private void dropSending() {
+		if (this.sending != null) {
+			this.sending.release();
+			this.sending = null;
+		}
+
+		this.pending = null;
+	}
+
+	/**
+	 * Sets the selection key once the channel is registered.
+	 *
+	 * @param key the key of the registered channel.
+	 */
+	public void setKey(SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Gets the channel of the client.
+	 *
+	 * @return the client channel.
+	 */
+	public SocketChannel getChannel() {
+		return this.channel;
+	}
+}
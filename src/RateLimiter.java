@@ -0,0 +1,159 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RateLimiter class to stop a single client from flooding the server.
+ *
+ * Messages, whispers, logins and searches each have their own limit. Every
+ * connection gets its own buckets, and everything but logins is also limited
+ * per user, so logging in again on a fresh connection does not reset the
+ * limit. Limits are set with system properties, in commands per second and
+ * burst size:
+ * <ul>
+ * <li>{@code chatter.limit.msg} and {@code chatter.limit.msg.burst}, default 10 and 20</li>
+ * <li>{@code chatter.limit.whsp} and {@code chatter.limit.whsp.burst}, default 10 and 20</li>
+ * <li>{@code chatter.limit.login} and {@code chatter.limit.login.burst}, default 1 and 5</li>
+ * <li>{@code chatter.limit.search} and {@code chatter.limit.search.burst}, default 2 and 5</li>
+ * </ul>
+ * A rate of {@code 0} turns the limit off. The buckets of a user are dropped
+ * once they have refilled, since a new bucket would be just the same.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class RateLimiter {
+
+	// globals
+	private static final Command[] LIMITED = {Command.MSG, Command.WHSP, Command.LOGIN, Command.SEARCH};
+
+	private final double[] rates; /*<< commands per second, by command ordinal */
+	private final int[] bursts;   /*<< burst size, by command ordinal */
+
+	private final ConcurrentHashMap<String, TokenBucket[]> users; /*<< buckets of every user */
+
+	// default constructor
+	public RateLimiter() {
+		this.rates = new double[Command.values().length];
+		this.bursts = new int[Command.values().length];
+
+		configure(Command.MSG, 10, 20);
+		configure(Command.WHSP, 10, 20);
+		configure(Command.LOGIN, 1, 5);
+		configure(Command.SEARCH, 2, 5);
+
+		this.users = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Reads the limit of a command from the system properties.
+	 */
+	private void configure(Command cmd, double rate, int burst) {
+		String key = "chatter.limit." + cmd.getKey();
+
+		try {
+			rate = Double.parseDouble(System.getProperty(key, Double.toString(rate)));
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid " + key + ", using " + rate);
+		}
+
+		this.rates[cmd.ordinal()] = rate;
+		this.bursts[cmd.ordinal()] = Integer.getInteger(key + ".burst", burst);
+	}
+
+	/**
+	 * Creates the buckets for a new connection.
+	 *
+	 * @return buckets by command ordinal, {@code null} where there is no limit.
+	 */
+	public TokenBucket[] newBuckets() {
+		TokenBucket[] buckets = new TokenBucket[Command.values().length];
+
+		for (Command cmd : LIMITED) {
+			if (this.rates[cmd.ordinal()] > 0) {
+				buckets[cmd.ordinal()] = new TokenBucket(this.rates[cmd.ordinal()], this.bursts[cmd.ordinal()]);
+			}
+		}
+
+		return buckets;
+	}
+
+	/**
+	 * Checks whether a command may go ahead, taking a token from the buckets
+	 * of the connection and, once logged in, of the user.
+	 *
+	 * @param connection buckets of the connection.
+	 * @param username the user on the connection, or an empty string.
+	 * @param cmd the command received.
+	 * @param now the current {@code System.nanoTime()}.
+	 *
+	 * @return {@code 0} if the command may go ahead, otherwise the
+	 * nanoseconds until it would be allowed.
+	 */
+	public long check(TokenBucket[] connection, String username, Command cmd, long now) {
+		TokenBucket bucket = connection[cmd.ordinal()];
+
+		if (bucket == null) {
+			return 0;
+		}
+
+		long wait = bucket.take(now);
+
+		if (wait > 0 || cmd == Command.LOGIN || username.equals("")) {
+			return wait;
+		}
+
+		TokenBucket user = this.users.computeIfAbsent(username, k -> newBuckets())[cmd.ordinal()];
+		wait = user.take(now);
+
+		// not allowed after all, the connection keeps its token
+		if (wait > 0) {
+			bucket.giveBack();
+		}
+
+		return wait;
+	}
+
+	/**
+	 * Drops the buckets of every user whose buckets have all refilled, so only
+	 * users who chatted recently take up memory. Called by the reaper.
+	 *
+	 * @param now the current {@code System.nanoTime()}.
+	 *
+	 * @return number of users whose buckets were dropped.
+	 */
+	public int expire(long now) {
+		int expired = 0;
+
+		for (Map.Entry<String, TokenBucket[]> entry : this.users.entrySet()) {
+			if (isFull(entry.getValue(), now) && this.users.remove(entry.getKey(), entry.getValue())) {
+				expired++;
+			}
+		}
+
+		return expired;
+	}
+
+	/**
+	 * Returns if every bucket of a user has refilled.
+	 */
+	private static boolean isFull(TokenBucket[] buckets, long now) {
+		for (TokenBucket bucket : buckets) {
+			if (bucket != null && !bucket.isFull(now)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the number of users with buckets.
+	 *
+	 * @return users whose limits are being tracked.
+	 */
+	public int size() {
+		return this.users.size();
+	}
+}
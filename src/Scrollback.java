@@ -0,0 +1,442 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.collections.ObservableList;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ScrollBar;
+
+/**
+ * Scrollback class to show the history of a chat in a bounded list.
+ *
+ * Every line is written to a temporary file as it arrives, together with an
+ * index of where each line starts. The list only ever holds a window of at
+ * most {@code capacity} lines, so memory stays the same however long the
+ * session runs. Scrolling to the top of the window loads older lines back from
+ * the file, and scrolling to the bottom loads newer ones again. New lines are
+ * only shown straight away while the window is at the end of the history.
+ *
+ * Only the user can read the files, since they hold whispers too. They keep
+ * at most {@code chatter.scrollback.disk} lines (default 100000); once there
+ * are more, the oldest half is dropped.
+ *
+ * Must only be used on the GUI thread.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class Scrollback {
+
+	// globals
+	public static final int DEFAULT_CAPACITY = 1000;
+	private static final int PAGE = 100;
+	private static final int COPY = 1 << 16; /*<< bytes moved at a time when dropping old lines */
+
+	private final ListView<String> view;
+	private final ObservableList<String> items;
+	private final int capacity;
+	private final long diskLines; /*<< most lines kept in the files */
+
+	private RandomAccessFile data;  /*<< every line, prefixed with its length */
+	private RandomAccessFile index; /*<< start of each line in data */
+	private long total;             /*<< number of lines in the history */
+	private long first;             /*<< history index of the first line shown */
+
+	private ScrollBar bar;
+
+	// default constructor
+	public Scrollback(ListView<String> view) {
+		this(view, Integer.getInteger("chatter.scrollback", DEFAULT_CAPACITY));
+	}
+
+	/**
+	 * Constructor with a limit on the lines kept in memory.
+	 *
+	 * @param view the list to show the lines in.
+	 * @param capacity the most lines the list holds at once.
+	 */
+	public Scrollback(ListView<String> view, int capacity) {
+		this.view = view;
+		this.items = view.getItems();
+		this.capacity = Math.max(PAGE * 2, capacity);
+		this.diskLines = Math.max(this.capacity * 2L, Long.getLong("chatter.scrollback.disk", 100000));
+		this.total = 0;
+		this.first = 0;
+		this.bar = null;
+
+		try {
+			File dataFile = createPrivateTempFile(".log");
+			File indexFile = createPrivateTempFile(".idx");
+			dataFile.deleteOnExit();
+			indexFile.deleteOnExit();
+
+			this.data = new RandomAccessFile(dataFile, "rw");
+			this.index = new RandomAccessFile(indexFile, "rw");
+		} catch (IOException e) {
+			// still bounded, older lines are just lost
+			System.err.println("Error creating scrollback file: " + e);
+			this.data = null;
+			this.index = null;
+		}
+
+		// wrap long lines instead of scrolling sideways
+		this.view.setCellFactory(lv -> new ListCell<String>() {
+			{
+				setWrapText(true);
+				setPrefWidth(0);
+			}
+
+			@Override
+			protected void updateItem(String item, boolean empty) {
+				super.updateItem(item, empty);
+				setText(empty ? null : item);
+			}
+		});
+	}
+
+	/**
+	 * Creates a temporary file only the user can read and write.
+	 *
+	 * @param suffix the file name suffix.
+	 *
+	 * @return the new file.
+	 * @throws IOException when the file cannot be created.
+	 */
+	private static File createPrivateTempFile(String suffix) throws IOException {
+		try {
+			return Files.createTempFile("chatter", suffix,
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))).toFile();
+		} catch (UnsupportedOperationException e) {
+			// not a POSIX file system, temporary files are private to the user there
+			return Files.createTempFile("chatter", suffix).toFile();
+		}
+	}
+
+	/**
+	 * Adds a single line to the end of the history.
+	 *
+	 * @param line the line to add.
+	 */
+	public void append(String line) {
+		ArrayList<String> lines = new ArrayList<>(1);
+		lines.add(line);
+		append(lines);
+	}
+
+	/**
+	 * Adds lines to the end of the history.
+	 *
+	 * @param lines the lines to add, oldest first.
+	 */
+	public void append(List<String> lines) {
+		if (lines.isEmpty()) {
+			return;
+		}
+
+		hookScrollBar();
+
+		boolean atEnd = this.first + this.items.size() == this.total;
+		boolean following = this.bar == null || this.bar.getValue() >= this.bar.getMax();
+
+		store(lines);
+
+		// user is reading older lines, newer ones are loaded on scroll down
+		if (!atEnd) {
+			return;
+		}
+
+		this.items.addAll(lines);
+		trimFront();
+
+		if (following) {
+			this.view.scrollTo(this.items.size() - 1);
+		}
+	}
+
+	/**
+	 * Loads the page of lines before the window, dropping lines from the end
+	 * if the window is full.
+	 */
+	private void loadOlder() {
+		int n = (int) Math.min(PAGE, this.first);
+
+		if (n == 0) {
+			return;
+		}
+
+		List<String> older = load(this.first - n, n);
+
+		if (older.isEmpty()) {
+			return;
+		}
+
+		this.items.addAll(0, older);
+		this.first -= older.size();
+
+		int excess = this.items.size() - this.capacity;
+		if (excess > 0) {
+			this.items.remove(this.items.size() - excess, this.items.size());
+		}
+
+		// keep the line that was at the top in view
+		this.view.scrollTo(older.size());
+	}
+
+	/**
+	 * Loads the page of lines after the window, dropping lines from the start
+	 * if the window is full.
+	 */
+	private void loadNewer() {
+		long last = this.first + this.items.size();
+		int n = (int) Math.min(PAGE, this.total - last);
+
+		if (n == 0) {
+			return;
+		}
+
+		List<String> newer = load(last, n);
+
+		if (newer.isEmpty()) {
+			return;
+		}
+
+		this.items.addAll(newer);
+		trimFront();
+
+		// keep the line that was at the bottom in view
+		this.view.scrollTo(Math.max(0, this.items.size() - newer.size() - 1));
+	}
+
+	/**
+	 * Drops lines from the start of the window until it fits.
+	 *
+	 * @return number of lines dropped.
+	 */
+	private int trimFront() {
+		int excess = this.items.size() - this.capacity;
+
+		if (excess <= 0) {
+			return 0;
+		}
+
+		this.items.remove(0, excess);
+
+		// without a file the dropped lines are gone for good
+		if (this.data == null) {
+			this.total -= excess;
+		} else {
+			this.first += excess;
+		}
+
+		return excess;
+	}
+
+	/**
+	 * Writes lines to the end of the history file.
+	 *
+	 * @param lines the lines to write.
+	 */
+	private void store(List<String> lines) {
+		if (this.data == null) {
+			this.total += lines.size();
+			return;
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream lineOut = new DataOutputStream(bytes);
+			ByteArrayOutputStream offsets = new ByteArrayOutputStream(lines.size() * 8);
+			DataOutputStream indexOut = new DataOutputStream(offsets);
+			long start = this.data.length();
+
+			for (String line : lines) {
+				byte[] encoded = line.getBytes(StandardCharsets.UTF_8);
+				indexOut.writeLong(start + lineOut.size());
+				lineOut.writeInt(encoded.length);
+				lineOut.write(encoded);
+			}
+
+			this.data.seek(start);
+			this.data.write(bytes.toByteArray());
+			this.index.seek(this.total * 8);
+			this.index.write(offsets.toByteArray());
+			this.total += lines.size();
+
+			if (this.total > this.diskLines) {
+				dropOldest(this.total - this.diskLines / 2);
+			}
+		} catch (IOException e) {
+			System.err.println("Error writing scrollback: " + e);
+			closeFiles();
+			this.total = this.first + this.items.size() + lines.size();
+		}
+	}
+
+	/**
+	 * Drops the oldest lines from the history files, moving the rest to the
+	 * start. Lines of the window that are dropped are taken out of the list.
+	 *
+	 * @param n number of lines to drop.
+	 * @throws IOException when the files cannot be rewritten.
+	 */
+	private void dropOldest(long n) throws IOException {
+		long base = readOffset(n);
+		long length = this.data.length();
+		byte[] buf = new byte[COPY];
+
+		for (long pos = base; pos < length; pos += COPY) {
+			int len = (int) Math.min(COPY, length - pos);
+			this.data.seek(pos);
+			this.data.readFully(buf, 0, len);
+			this.data.seek(pos - base);
+			this.data.write(buf, 0, len);
+		}
+
+		this.data.setLength(length - base);
+
+		// offsets of the lines kept, moved down with them
+		long kept = this.total - n;
+		for (long line = 0; line < kept; line += COPY / 8) {
+			int count = (int) Math.min(COPY / 8, kept - line);
+			this.index.seek((n + line) * 8);
+			this.index.readFully(buf, 0, count * 8);
+
+			ByteArrayOutputStream offsets = new ByteArrayOutputStream(count * 8);
+			DataOutputStream indexOut = new DataOutputStream(offsets);
+			for (int i = 0; i < count; i++) {
+				long offset = 0;
+				for (int b = 0; b < 8; b++) {
+					offset = (offset << 8) | (buf[i * 8 + b] & 0xFF);
+				}
+				indexOut.writeLong(offset - base);
+			}
+
+			this.index.seek(line * 8);
+			this.index.write(offsets.toByteArray());
+		}
+
+		this.index.setLength(kept * 8);
+		this.total = kept;
+
+		if (this.first < n) {
+			this.items.remove(0, (int) Math.min(n - this.first, this.items.size()));
+			this.first = 0;
+		} else {
+			this.first -= n;
+		}
+	}
+
+	/**
+	 * Reads lines back from the history file.
+	 *
+	 * @param from history index of the first line to read.
+	 * @param n number of lines to read.
+	 *
+	 * @return the lines that were read, oldest first.
+	 */
+	private List<String> load(long from, int n) {
+		ArrayList<String> lines = new ArrayList<>(n);
+
+		if (this.data == null) {
+			return lines;
+		}
+
+		try {
+			this.index.seek(from * 8);
+			long start = this.index.readLong();
+			long end = from + n < this.total ? readOffset(from + n) : this.data.length();
+
+			byte[] buf = new byte[(int) (end - start)];
+			this.data.seek(start);
+			this.data.readFully(buf);
+
+			int pos = 0;
+			while (pos < buf.length) {
+				int len = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16)
+					| ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+				lines.add(new String(buf, pos + 4, len, StandardCharsets.UTF_8));
+				pos += 4 + len;
+			}
+		} catch (IOException e) {
+			System.err.println("Error reading scrollback: " + e);
+			lines.clear();
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Reads where a line starts in the history file.
+	 */
+	private long readOffset(long line) throws IOException {
+		this.index.seek(line * 8);
+		return this.index.readLong();
+	}
+
+	/**
+	 * Finds the vertical scroll bar of the list, which only exists once the
+	 * list has been shown, and loads more history when it reaches either end.
+	 */
+	private void hookScrollBar() {
+		if (this.bar != null) {
+			return;
+		}
+
+		for (Node node : this.view.lookupAll(".scroll-bar")) {
+			if (node instanceof ScrollBar && ((ScrollBar) node).getOrientation() == Orientation.VERTICAL) {
+				this.bar = (ScrollBar) node;
+			}
+		}
+
+		if (this.bar == null) {
+			return;
+		}
+
+		this.bar.valueProperty().addListener((obs, oldValue, newValue) -> {
+			if (newValue.doubleValue() <= this.bar.getMin()) {
+				loadOlder();
+			} else if (newValue.doubleValue() >= this.bar.getMax()) {
+				loadNewer();
+			}
+		});
+	}
+
+	/**
+	 * Stops writing history to disk, keeping only what is in memory.
+	 */
+	private void closeFiles() {
+		try {
+			if (this.data != null) {
+				this.data.close();
+			}
+
+			if (this.index != null) {
+				this.index.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Error closing scrollback: " + e);
+		}
+
+		this.data = null;
+		this.index = null;
+	}
+
+	/**
+	 * Closes the history files.
+	 */
+	public void close() {
+		closeFiles();
+	}
+}
@@ -0,0 +1,622 @@
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * SearchIndex class to search the messages and whispers sent on the server.
+ *
+ * Every message is a document with an increasing id. The index keeps, for
+ * every word and every sender, the ids of the documents they appear in, oldest
+ * first, and for every hour the first document sent in it. A query looks up
+ * the shortest of its lists and walks it from the newest document back,
+ * checking the other lists with a binary search, so its cost depends on how
+ * many documents match rather than how many there are.
+ *
+ * A query is a list of words that must all appear, and may also hold
+ * {@code from:<user>}, {@code after:<date>} and {@code before:<date>}, where a
+ * date is {@code yyyy-MM-dd} in UTC or epoch milliseconds. Whispers are only
+ * found by the two users they were sent between.
+ *
+ * Documents are queued by the handler threads and indexed on a single
+ * background thread, so sending a message never waits for the index. Searches
+ * share a read lock and only wait while a batch is being indexed. The newest
+ * {@code chatter.search.capacity} documents are kept (default 4194304), and a
+ * search returns at most {@code chatter.search.limit} of them (default 50),
+ * newest first.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class SearchIndex {
+
+	// globals
+	public static final int PUBLIC = -1; /*<< recipient of a global message */
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final int QUEUE_CAPACITY = 1 << 16;
+	private static final int MAX_BATCH = 1024;
+	private static final int MAX_WORD = 32;
+
+	private final int capacity; /*<< most documents kept, a power of two */
+	private final int limit;    /*<< most hits returned by a search */
+
+	// documents, by id modulo the length of the arrays
+	private long[] times;
+	private int[] froms;
+	private int[] tos;
+	private String[] texts;
+	private long next;   /*<< id of the next document */
+	private long swept;  /*<< oldest id kept when the lists were last trimmed */
+
+	private final HashMap<String, Postings> words;
+	private final HashMap<Integer, Postings> senders;
+	private long[] hours;     /*<< hours that have documents, in order */
+	private long[] hourStart; /*<< first document of each hour */
+	private int numHours;
+
+	private final ReentrantReadWriteLock lock;
+	private final ArrayBlockingQueue<Doc> queue;
+	private final LongAdder dropped; /*<< documents not indexed because the queue was full */
+	private Thread indexer;
+
+	// default constructor
+	public SearchIndex() {
+		this(Integer.getInteger("chatter.search.capacity", 1 << 22), Integer.getInteger("chatter.search.limit", 50));
+	}
+
+	/**
+	 * Constructor for when the capacity is given.
+	 *
+	 * @param capacity the number of documents kept, rounded up to a power of two.
+	 * @param limit the most hits returned by a search.
+	 */
+	public SearchIndex(int capacity, int limit) {
+		this.capacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.limit = Math.max(1, limit);
+
+		int initial = Math.min(this.capacity, 1024);
+		this.times = new long[initial];
+		this.froms = new int[initial];
+		this.tos = new int[initial];
+		this.texts = new String[initial];
+		this.next = 0;
+		this.swept = 0;
+
+		this.words = new HashMap<>();
+		this.senders = new HashMap<>();
+		this.hours = new long[64];
+		this.hourStart = new long[64];
+		this.numHours = 0;
+
+		this.lock = new ReentrantReadWriteLock();
+		this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.dropped = new LongAdder();
+		this.indexer = null;
+	}
+
+	/**
+	 * Starts indexing queued documents in the background.
+	 */
+	public void start() {
+		this.indexer = new Thread(this::indexLoop, "search-indexer");
+		this.indexer.setDaemon(true);
+		this.indexer.start();
+	}
+
+	/**
+	 * Queues a message or whisper to be indexed. Never blocks; if the indexer
+	 * has fallen a whole queue behind the document is left out of the index.
+	 *
+	 * @param time when it was sent, in epoch milliseconds.
+	 * @param from the id of the user who sent it.
+	 * @param to the id of the user it was whispered to, or {@link #PUBLIC}.
+	 * @param text the text.
+	 */
+	public void add(long time, int from, int to, String text) {
+		if (!this.queue.offer(new Doc(time, from, to, text))) {
+			this.dropped.increment();
+		}
+	}
+
+	/**
+	 * Indexes a message or whisper straight away, on the calling thread. Used
+	 * to rebuild the index before the server starts accepting clients.
+	 *
+	 * @param time when it was sent, in epoch milliseconds.
+	 * @param from the id of the user who sent it.
+	 * @param to the id of the user it was whispered to, or {@link #PUBLIC}.
+	 * @param text the text.
+	 */
+	public void restore(long time, int from, int to, String text) {
+		this.lock.writeLock().lock();
+
+		try {
+			index(new Doc(time, from, to, text));
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Takes batches off the queue and indexes them.
+	 */
+	private void indexLoop() {
+		ArrayList<Doc> batch = new ArrayList<>(MAX_BATCH);
+
+		while (true) {
+			try {
+				batch.add(this.queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			this.queue.drainTo(batch, MAX_BATCH - 1);
+			this.lock.writeLock().lock();
+
+			try {
+				for (Doc doc : batch) {
+					index(doc);
+				}
+			} finally {
+				this.lock.writeLock().unlock();
+			}
+
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Adds a document to the lists of its words, its sender and its hour,
+	 * overwriting the oldest document once the index is full.
+	 */
+	private void index(Doc doc) {
+		long id = this.next;
+
+		if (id == this.times.length && this.times.length < this.capacity) {
+			grow();
+		}
+
+		int slot = (int) (id & (this.times.length - 1));
+		this.times[slot] = doc.time;
+		this.froms[slot] = doc.from;
+		this.tos[slot] = doc.to;
+		this.texts[slot] = doc.text;
+		this.next = id + 1;
+
+		for (String word : tokenize(doc.text)) {
+			this.words.computeIfAbsent(word, k -> new Postings()).add(id);
+		}
+
+		this.senders.computeIfAbsent(doc.from, k -> new Postings()).add(id);
+
+		// hours only move forward, even if times arrive slightly out of order
+		long hour = Math.floorDiv(doc.time, HOUR);
+		if (this.numHours == 0 || hour > this.hours[this.numHours - 1]) {
+			if (this.numHours == this.hours.length) {
+				this.hours = Arrays.copyOf(this.hours, this.numHours * 2);
+				this.hourStart = Arrays.copyOf(this.hourStart, this.numHours * 2);
+			}
+
+			this.hours[this.numHours] = hour;
+			this.hourStart[this.numHours] = id;
+			this.numHours++;
+		}
+
+		// once the ring has wrapped around again, drop ids that are gone
+		if (oldest() - this.swept >= this.capacity) {
+			sweep();
+		}
+	}
+
+	/**
+	 * Doubles the document arrays.
+	 */
+	private void grow() {
+		int size = this.times.length * 2;
+
+		this.times = Arrays.copyOf(this.times, size);
+		this.froms = Arrays.copyOf(this.froms, size);
+		this.tos = Arrays.copyOf(this.tos, size);
+		this.texts = Arrays.copyOf(this.texts, size);
+	}
+
+	/**
+	 * Trims overwritten documents from every list, and forgets words and
+	 * senders that no longer appear.
+	 */
+	private void sweep() {
+		long oldest = oldest();
+
+		for (Iterator<Postings> it = this.words.values().iterator(); it.hasNext(); ) {
+			if (it.next().trim(oldest)) {
+				it.remove();
+			}
+		}
+
+		for (Iterator<Postings> it = this.senders.values().iterator(); it.hasNext(); ) {
+			if (it.next().trim(oldest)) {
+				it.remove();
+			}
+		}
+
+		int first = 0;
+		while (first + 1 < this.numHours && this.hourStart[first + 1] <= oldest) {
+			first++;
+		}
+
+		System.arraycopy(this.hours, first, this.hours, 0, this.numHours - first);
+		System.arraycopy(this.hourStart, first, this.hourStart, 0, this.numHours - first);
+		this.numHours -= first;
+
+		this.swept = oldest;
+	}
+
+	/**
+	 * Gets the id of the oldest document still kept.
+	 */
+	private long oldest() {
+		return Math.max(0, this.next - this.times.length);
+	}
+
+	/**
+	 * Searches the messages and whispers a user can see.
+	 *
+	 * @param userId the id of the user searching.
+	 * @param userIds finds the ids of users named in the query.
+	 * @param query the words to find, and any {@code from:}, {@code after:} or
+	 * {@code before:} terms.
+	 *
+	 * @return the matching documents, newest first.
+	 */
+	public List<Hit> search(int userId, UserDirectory userIds, String query) {
+		ArrayList<Postings> lists = new ArrayList<>();
+		long after = Long.MIN_VALUE;
+		long before = Long.MAX_VALUE;
+		ArrayList<Hit> hits = new ArrayList<>();
+
+		this.lock.readLock().lock();
+
+		try {
+			for (String term : query.trim().split("\\s+")) {
+				int colon = term.indexOf(':');
+				String key = colon < 0 ? "" : term.substring(0, colon).toLowerCase();
+				String value = term.substring(colon + 1);
+
+				if (key.equals("from")) {
+					Postings sender = this.senders.get(userIds.idOf(value));
+
+					if (sender == null) {
+						return hits;
+					}
+
+					lists.add(sender);
+				} else if (key.equals("after")) {
+					after = Math.max(after, date(value, Long.MIN_VALUE));
+				} else if (key.equals("before")) {
+					before = Math.min(before, date(value, Long.MAX_VALUE));
+				} else {
+					for (String word : tokenize(term)) {
+						Postings postings = this.words.get(word);
+
+						if (postings == null) {
+							return hits;
+						}
+
+						lists.add(postings);
+					}
+				}
+			}
+
+			// only look at ids in the hours the query covers
+			long lo = Math.max(oldest(), startOf(after));
+			long hi = before > Long.MAX_VALUE - HOUR ? this.next : Math.min(this.next, startOf(before + HOUR));
+
+			if (lists.isEmpty()) {
+				for (long id = hi - 1; id >= lo && hits.size() < this.limit; id--) {
+					collect(id, userId, after, before, hits);
+				}
+
+				return hits;
+			}
+
+			Postings shortest = lists.get(0);
+			for (Postings postings : lists) {
+				if (postings.size() < shortest.size()) {
+					shortest = postings;
+				}
+			}
+
+			for (int i = shortest.indexBefore(hi); i >= shortest.start && hits.size() < this.limit; i--) {
+				long id = shortest.ids[i];
+
+				if (id < lo) {
+					break;
+				}
+
+				if (inAll(lists, shortest, id)) {
+					collect(id, userId, after, before, hits);
+				}
+			}
+
+			return hits;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a document to the hits if the user may see it and it was sent in
+	 * the time range.
+	 */
+	private void collect(long id, int userId, long after, long before, List<Hit> hits) {
+		int slot = (int) (id & (this.times.length - 1));
+		int to = this.tos[slot];
+		int from = this.froms[slot];
+		long time = this.times[slot];
+
+		if (to != PUBLIC && to != userId && from != userId) {
+			return;
+		}
+
+		if (time >= after && time < before) {
+			hits.add(new Hit(time, from, to, this.texts[slot]));
+		}
+	}
+
+	/**
+	 * Checks a document is in every list of a query.
+	 */
+	private static boolean inAll(List<Postings> lists, Postings skip, long id) {
+		for (Postings postings : lists) {
+			if (postings != skip && !postings.contains(id)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the id of the first document sent in or after the hour of a time.
+	 */
+	private long startOf(long time) {
+		if (time == Long.MIN_VALUE) {
+			return 0;
+		}
+
+		long hour = Math.floorDiv(time, HOUR);
+		int i = Arrays.binarySearch(this.hours, 0, this.numHours, hour);
+
+		if (i < 0) {
+			i = -i - 1;
+		}
+
+		return i < this.numHours ? this.hourStart[i] : this.next;
+	}
+
+	/**
+	 * Reads a date in a query, as {@code yyyy-MM-dd} or epoch milliseconds.
+	 */
+	private static long date(String value, long fallback) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			// not a number, try a date
+		}
+
+		try {
+			return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return fallback;
+		}
+	}
+
+	/**
+	 * Splits text into lower case words of letters and digits.
+	 *
+	 * @param text the text to split.
+	 *
+	 * @return the distinct words, in the order they first appear.
+	 */
+	public static LinkedHashSet<String> tokenize(String text) {
+		LinkedHashSet<String> tokens = new LinkedHashSet<>();
+		int n = text.length();
+		int start = -1;
+
+		for (int i = 0; i <= n; i++) {
+			boolean part = i < n && Character.isLetterOrDigit(text.charAt(i));
+
+			if (part && start < 0) {
+				start = i;
+			} else if (!part && start >= 0) {
+				if (i - start <= MAX_WORD) {
+					tokens.add(text.substring(start, i).toLowerCase());
+				}
+
+				start = -1;
+			}
+		}
+
+		return tokens;
+	}
+
+	/**
+	 * Gets the number of documents that can be searched.
+	 *
+	 * @return number of documents kept.
+	 */
+	public long size() {
+		this.lock.readLock().lock();
+
+		try {
+			return this.next - oldest();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of documents left out because the indexer fell behind.
+	 *
+	 * @return number of documents.
+	 */
+	public long getDropped() {
+		return this.dropped.sum();
+	}
+
+	/**
+	 * Gets the number of distinct words in the index.
+	 *
+	 * @return number of words.
+	 */
+	public int getWords() {
+		this.lock.readLock().lock();
+
+		try {
+			return this.words.size();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Hit class holding one document found by a search.
+	 */
+	public static final class Hit {
+		private final long time;
+		private final int from;
+		private final int to;
+		private final String text;
+
+		private Hit(long time, int from, int to, String text) {
+			this.time = time;
+			this.from = from;
+			this.to = to;
+			this.text = text;
+		}
+
+		/**
+		 * Gets when the document was sent.
+		 *
+		 * @return time in epoch milliseconds.
+		 */
+		public long getTime() {
+			return this.time;
+		}
+
+		/**
+		 * Gets the id of the user who sent it.
+		 *
+		 * @return user id.
+		 */
+		public int getFrom() {
+			return this.from;
+		}
+
+		/**
+		 * Gets the id of the user it was whispered to.
+		 *
+		 * @return user id, or {@link SearchIndex#PUBLIC} for a global message.
+		 */
+		public int getTo() {
+			return this.to;
+		}
+
+		/**
+		 * Gets the text.
+		 *
+		 * @return the text of the message or whisper.
+		 */
+		public String getText() {
+			return this.text;
+		}
+	}
+
+	/**
+	 * Doc class holding a document waiting to be indexed.
+	 */
+	private static final class Doc {
+		private final long time;
+		private final int from;
+		private final int to;
+		private final String text;
+
+		private Doc(long time, int from, int to, String text) {
+			this.time = time;
+			this.from = from;
+			this.to = to;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Postings class holding the ids of the documents a word or sender
+	 * appears in, oldest first.
+	 */
+	private static final class Postings {
+		private long[] ids;
+		private int start; /*<< first id still kept */
+		private int end;
+
+		private Postings() {
+			this.ids = new long[4];
+			this.start = 0;
+			this.end = 0;
+		}
+
+		private void add(long id) {
+			if (this.end == this.ids.length) {
+				// reuse the space of trimmed ids before growing
+				if (this.start > this.end / 2) {
+					System.arraycopy(this.ids, this.start, this.ids, 0, this.end - this.start);
+					this.end -= this.start;
+					this.start = 0;
+				} else {
+					this.ids = Arrays.copyOf(this.ids, this.ids.length * 2);
+				}
+			}
+
+			this.ids[this.end++] = id;
+		}
+
+		private int size() {
+			return this.end - this.start;
+		}
+
+		private boolean contains(long id) {
+			return Arrays.binarySearch(this.ids, this.start, this.end, id) >= 0;
+		}
+
+		/**
+		 * Gets the index of the last id below a bound.
+		 */
+		private int indexBefore(long bound) {
+			int i = Arrays.binarySearch(this.ids, this.start, this.end, bound);
+			return (i < 0 ? -i - 1 : i) - 1;
+		}
+
+		/**
+		 * Drops ids older than the oldest document kept.
+		 *
+		 * @return {@code true} if no ids are left.
+		 */
+		private boolean trim(long oldest) {
+			int i = Arrays.binarySearch(this.ids, this.start, this.end, oldest);
+			this.start = i < 0 ? -i - 1 : i;
+
+			return this.start == this.end;
+		}
+	}
+}
@@ -1,10 +1,22 @@
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.text.SimpleDateFormat;
 import java.net.ServerSocket;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Server class to handle all requests and posts to server.
@@ -12,6 +24,22 @@ import java.util.Scanner;
  * Handles multiple requests from clients using ClientHandler class.
  * Each new client that is connected, is passed onto the ClientHandler class.
  *
+ * The server runs in one of three modes: {@code blocking}, which starts a
+ * platform thread per client, {@code virtual}, which runs the same blocking
+ * handler on a virtual thread per client, or {@code nio}, which multiplexes all
+ * clients onto a small fixed set of EventLoop threads.
+ *
+ * In every mode a reaper checks each connection once a second. Clients that
+ * have been quiet are pinged, and connections that stop answering or stay idle
+ * too long are evicted, so broadcasts only go to live sockets. The timeouts
+ * are set in seconds with system properties:
+ * <ul>
+ * <li>{@code chatter.heartbeat} quiet time before a ping is sent, default 15</li>
+ * <li>{@code chatter.readTimeout} quiet time before a connection is dead, default 45</li>
+ * <li>{@code chatter.idleTimeout} time without chatting before a user is
+ * disconnected, default 0 for never</li>
+ * </ul>
+ *
  * @since 27 July 2019
  * @version 1.0.0
  * @author Kyle Chapman, Noah Atkins
@@ -19,48 +47,96 @@ import java.util.Scanner;
 
 public class Server {
 
+	/**
+	 * How client connections are serviced.
+	 */
+	public enum Mode {
+		BLOCKING, VIRTUAL, NIO
+	}
+
 	// globals
 	private final int PORT;
+	private final Mode mode;
+	private final int metricsPort; /*<< port of the metrics endpoint, negative for none */
 
-	private int numOnlineUsers;  /*<< number of users currently online */
-	private int numOfflineUsers; /*<< number of users currently offline */
+	private final long heartbeat;   /*<< quiet time before a ping, in nanoseconds */
+	private final long readTimeout; /*<< quiet time before a connection is dead */
+	private final long idleTimeout; /*<< time without chatting before eviction, 0 for never */
+	private ScheduledExecutorService reaper;
 
 	private String currMsg;  /*<< most recent message */
 	private String currUser; /*<< user who sent most recent message */
 
-	private ArrayList<String> onlineUsers;  /*<< currently online users */
-	private ArrayList<String> offlineUsers; /*<< currently offline users */
-	private ArrayList<String> allUsers;     /*<< all users that have connected */
-
-	private ArrayList<ClientHandler> clients;
+	private UserDirectory users; /*<< all users that have connected, and who is online */
+
+	private List<ClientHandler> clients;
+	private Broadcaster broadcaster; /*<< fans frames out to every client */
+	private Metrics metrics;
+	private RateLimiter limiter;
+	private History history;     /*<< most recent global messages */
+	private MessageLog store;    /*<< every message and whisper, on disk */
+	private Mailboxes mailboxes; /*<< whispers waiting for offline users */
+	private SearchIndex search;  /*<< index of every message and whisper */
+	private Cluster cluster;     /*<< other servers sharing the chat */
 	private SimpleDateFormat sdf;
 	private Date date;
 
 	// default constructor
 	public Server(int port) {
-		this.PORT = port;
+		this(port, Mode.BLOCKING);
+	}
 
-		this.numOnlineUsers = 0;
-		this.numOfflineUsers = 0;
+	/**
+	 * Constructor for when the connection mode is given.
+	 *
+	 * @param port the port to listen on.
+	 * @param mode how client connections are serviced.
+	 */
+	public Server(int port, Mode mode) {
+		this(port, mode, -1);
+	}
+
+	/**
+	 * Constructor for when the connection mode and metrics port are given.
+	 *
+	 * @param port the port to listen on.
+	 * @param mode how client connections are serviced.
+	 * @param metricsPort the port to serve metrics on, or a negative number for none.
+	 */
+	public Server(int port, Mode mode, int metricsPort) {
+		this.PORT = port;
+		this.mode = mode;
+		this.metricsPort = metricsPort;
 
 		this.currMsg = "";
 		this.currUser = "";
 
-		this.onlineUsers = new ArrayList<>();
-		this.offlineUsers = new ArrayList<>();
-		this.allUsers = new ArrayList<>();
-		this.clients = new ArrayList<>();
+		this.users = new UserDirectory();
+		this.clients = new CopyOnWriteArrayList<>();
+		this.metrics = new Metrics(this);
+		this.broadcaster = new Broadcaster(this.metrics);
+		this.limiter = new RateLimiter();
+		this.history = new History();
+		this.store = new MessageLog(this.metrics);
+		this.search = new SearchIndex();
+		this.cluster = new Cluster(this);
+		this.mailboxes = new Mailboxes(this.store.getDir() == null ? null
+			: new File(this.store.getDir(), "mailboxes"));
 		sdf = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss z");
+
+		this.heartbeat = TimeUnit.SECONDS.toNanos(Long.getLong("chatter.heartbeat", 15));
+		this.readTimeout = TimeUnit.SECONDS.toNanos(Long.getLong("chatter.readTimeout", 45));
+		this.idleTimeout = TimeUnit.SECONDS.toNanos(Long.getLong("chatter.idleTimeout", 0));
+		this.reaper = null;
 	}
 
 	// starts the server to listen on specified port
 	public void start() throws IOException {
-		ServerSocket server = new ServerSocket(this.PORT);
 		this.date = new Date();
 		String currDate = "[" + sdf.format(this.date) + "]";
 
-		System.out.printf("%s Server currently accepting clients on port [\033[32m %d \033[0m]\n",
-			currDate, this.PORT);
+		System.out.printf("%s Server currently accepting clients on port [\033[32m %d \033[0m] (%s)\n",
+			currDate, this.PORT, this.mode.name().toLowerCase());
 
 		// start new thread for checking if user types "quit" in server
 		Thread q = new Thread() {
@@ -72,32 +148,235 @@ public class Server {
 
 		q.start();
 
+		this.metrics.start(this.metricsPort);
+		openStore();
+		this.broadcaster.start();
+		this.cluster.start();
+		startReaper();
+
+		if (this.mode == Mode.NIO) {
+			startNio();
+		} else {
+			startBlocking();
+		}
+	}
+
+	/**
+	 * Opens the message log and puts the messages it holds back into the
+	 * history, so users see what was said before the server last stopped.
+	 * Rebuilds the search index from it, and loads the mailboxes of offline
+	 * users too.
+	 *
+	 * @throws IOException when the message log or mailboxes cannot be opened.
+	 */
+	private void openStore() throws IOException {
+		this.store.open(record -> {
+			int id = this.users.register(record.getFrom());
+
+			if (record.getType() == Command.MSG) {
+				this.history.restore(record.getSeq(), record.getTime(), id, record.getFrom(), record.getText());
+				this.search.restore(record.getTime(), id, SearchIndex.PUBLIC, record.getText());
+			} else {
+				int to = this.users.register(record.getTo());
+				this.search.restore(record.getTime(), id, to, record.getText());
+			}
+		});
+
+		this.search.start();
+
+		if (this.history.getNext() > 0) {
+			Log.log(Log.Level.INFO, "history_restored", null, null, -1, -1, Long.toString(this.history.getNext()));
+		}
+
+		this.mailboxes.open();
+	}
+
+	/**
+	 * Accepts clients and starts a new thread for each of them. Threads are
+	 * virtual when running in {@code virtual} mode, platform otherwise.
+	 *
+	 * @throws IOException when the server socket cannot be opened.
+	 */
+	private void startBlocking() throws IOException {
+		ServerSocket server = new ServerSocket(this.PORT);
+		ThreadFactory threads = threadFactory(this.mode == Mode.VIRTUAL);
+
 		// infinite loop for accepting clients
 		while (true) {
 			Socket client = null;
+			ClientHandler clientThread = null;
 
 			try {
 				// accept new client
 				client = server.accept();
 
 				// create new thread for each client
-				ClientHandler clientThread = new ClientHandler(this, client);
+				clientThread = new ClientHandler(this, client);
 
-				// add to client and start thread
-				this.clients.add(clientThread);
-				clientThread.start();
+				// add to client and start reader and writer threads
+				addClient(clientThread);
+				this.metrics.connected();
+				threads.newThread(clientThread).start();
+				threads.newThread(clientThread.writer()).start();
 			} catch (Exception e) {
-				// close both client and server
-				client.close();
-				server.close();
+				dropClient(client, clientThread, e);
+			}
+		}
+	}
+
+	/**
+	 * Accepts clients and hands each of them to one of a fixed number of event
+	 * loops, in round-robin order.
+	 *
+	 * @throws IOException when the server channel cannot be opened.
+	 */
+	private void startNio() throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(this.PORT));
+
+		// one loop per core
+		EventLoop[] loops = new EventLoop[Runtime.getRuntime().availableProcessors()];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop("event-loop-" + i);
+			loops[i].start();
+		}
+
+		int next = 0;
+
+		// infinite loop for accepting clients
+		while (true) {
+			SocketChannel client = null;
+			NioClientHandler handler = null;
+
+			try {
+				client = server.accept();
+
+				EventLoop loop = loops[next];
+				next = (next + 1) % loops.length;
+
+				handler = new NioClientHandler(this, client, loop);
+				addClient(handler);
+				this.metrics.connected();
+				loop.register(handler);
+			} catch (Exception e) {
+				dropClient(client, handler, e);
+			}
+		}
+	}
+
+	/**
+	 * Gives up on a client that could not be accepted, closing only its
+	 * connection so the server keeps accepting everyone else.
+	 *
+	 * @param client the connection, or {@code null} if accepting it failed.
+	 * @param handler its handler, or {@code null} if none was made.
+	 * @param e what went wrong.
+	 */
+	private void dropClient(Closeable client, ClientHandler handler, Exception e) {
+		Log.error("accept_failed", e);
+
+		if (handler != null) {
+			removeClient(handler);
+		}
+
+		if (client == null) {
+			return;
+		}
+
+		try {
+			client.close();
+		} catch (IOException ce) {
+			Log.error("close_failed", ce);
+		}
+	}
+
+	/**
+	 * Starts checking every connection once a second, pinging quiet clients
+	 * and evicting dead or idle ones.
+	 */
+	private void startReaper() {
+		this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "reaper");
+			t.setDaemon(true);
+			return t;
+		});
+
+		this.reaper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				reap();
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Runs a task on the reaper thread after a delay. Does nothing if the
+	 * server has not been started.
+	 *
+	 * @param task the task to run.
+	 * @param nanos the delay in nanoseconds.
+	 */
+	public void schedule(Runnable task, long nanos) {
+		if (this.reaper != null) {
+			this.reaper.schedule(task, nanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Checks every connection once, evicting those that are dead or idle, and
+	 * drops the rate limits of users who have been quiet long enough.
+	 */
+	public void reap() {
+		long now = System.nanoTime();
+
+		for (ClientHandler currClient : this.clients) {
+			try {
+				String reason = currClient.checkAlive(now, this.heartbeat, this.readTimeout, this.idleTimeout);
+
+				if (reason != null) {
+					Log.warn("evicted", currClient.getUsername(), reason);
+					this.metrics.reaped();
+					currClient.evict(reason);
+				}
+			} catch (RuntimeException e) {
+				Log.error("reap_failed", e);
+			}
+		}
+
+		this.limiter.expire(now);
+	}
 
-				System.err.println("Error (server): " + e);
+	/**
+	 * Creates a factory for client threads. Virtual threads need Java 21; on
+	 * older runtimes the server falls back to platform threads.
+	 *
+	 * @param virtual {@code true} to create virtual threads.
+	 *
+	 * @return the factory for client threads.
+	 */
+	static ThreadFactory threadFactory(boolean virtual) {
+		if (virtual) {
+			try {
+				// Thread.ofVirtual().factory(), looked up so older JDKs can still compile
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Class<?> type = Class.forName("java.lang.Thread$Builder");
+				return (ThreadFactory) type.getMethod("factory").invoke(builder);
+			} catch (ReflectiveOperationException e) {
+				System.err.println("Virtual threads need Java 21, using platform threads instead.");
 			}
 		}
+
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r);
+			}
+		};
 	}
 
 	/**
-	 * Checks if the user wants to quit the server.
+	 * Checks if the user wants to quit the server. Typing "queues" shows the
+	 * clients with the deepest outbound queues.
 	 */
 	public void checkQuit() {
 		Scanner q = new Scanner(System.in);
@@ -105,6 +384,10 @@ public class Server {
 
 		// loop until "quit" is typed
 		while (!line.equals("quit")) {
+			if (line.equals("queues")) {
+				printQueues();
+			}
+
 			line = q.nextLine();
 		}
 
@@ -116,6 +399,27 @@ public class Server {
 		System.exit(0);
 	}
 
+	/**
+	 * Prints the outbound queue depth of the slowest clients.
+	 */
+	public void printQueues() {
+		ArrayList<ClientHandler> sorted = new ArrayList<>(this.clients);
+		sorted.sort(new Comparator<ClientHandler>() {
+			@Override
+			public int compare(ClientHandler a, ClientHandler b) {
+				return Integer.compare(b.getQueueDepth(), a.getQueueDepth());
+			}
+		});
+
+		System.out.printf("%-20s %8s %8s\n", "user", "queued", "dropped");
+
+		for (int i = 0; i < Math.min(10, sorted.size()); i++) {
+			ClientHandler currClient = sorted.get(i);
+			System.out.printf("%-20s %8d %8d\n", currClient.getUsername(),
+				currClient.getQueueDepth(), currClient.getDropped());
+		}
+	}
+
 	/**
 	 * Returns if a given username is valid or not.
 	 *
@@ -124,7 +428,7 @@ public class Server {
 	 * @return {@code true} if username is valid, {@code false} otherwise.
 	 */
 	public boolean isValidUsername(String username) {
-		return (!this.onlineUsers.contains(username));
+		return (!this.users.isOnline(username));
 	}
 
 	/**
@@ -135,31 +439,22 @@ public class Server {
 	 * @return {@code true} if user exists, {@code false} otherwise.
 	 */
 	public boolean userExists(String username) {
-		return this.allUsers.contains(username);
+		return this.users.exists(username);
 	}
 
 	/**
-	 * Adds a user to the currently online users.
+	 * Adds a user to the currently online users, unless another client is
+	 * already online with the same username. Claiming the username is atomic,
+	 * so two clients racing to log in with the same name cannot both succeed.
 	 *
 	 * @param username user to add.
+	 * @param client the client the user is connected on.
+	 *
+	 * @return {@code true} if the user was added, {@code false} if the
+	 * username is already online.
 	 */
-	public void addUser(String username) {
-		// add user if not already in list
-		if (!this.onlineUsers.contains(username)) {
-			this.onlineUsers.add(username);
-			this.numOnlineUsers = this.onlineUsers.size();
-		}
-
-		// user went online
-		if (this.offlineUsers.contains(username)) {
-			this.offlineUsers.remove(username);
-			this.numOfflineUsers = this.offlineUsers.size();
-		}
-
-		// add user to all users if not already in list
-		if (!this.allUsers.contains(username)) {
-			this.allUsers.add(username);
-		}
+	public boolean addUser(String username, ClientHandler client) {
+		return this.users.goOnline(username, client);
 	}
 
 	/**
@@ -168,20 +463,40 @@ public class Server {
 	 * @param client the client to remove.
 	 */
 	public void removeUser(ClientHandler client) {
-		String username = client.getUsername();
+		// only the client that owns the username may take it offline
+		this.users.goOffline(client.getUsername(), client);
+		removeClient(client);
+	}
 
-		if (this.onlineUsers.contains(username)) {
-			this.onlineUsers.remove(username);
-			this.numOnlineUsers = this.onlineUsers.size();
-		}
+	/**
+	 * Adds a newly connected client, giving it a broadcast shard.
+	 *
+	 * @param client the client to add.
+	 */
+	public void addClient(ClientHandler client) {
+		this.clients.add(client);
+		this.broadcaster.add(client);
+	}
 
-		// add user to offline list if not already in list
-		if (!this.offlineUsers.contains(username)) {
-			this.offlineUsers.add(username);
-			this.numOfflineUsers = this.offlineUsers.size();
-		}
+	/**
+	 * Removes a client that has disconnected.
+	 *
+	 * @param client the client to remove.
+	 */
+	public void removeClient(ClientHandler client) {
+		this.clients.remove(client);
+		this.broadcaster.remove(client);
+	}
 
-		clients.remove(client);
+	/**
+	 * Gets the client a user is currently connected on.
+	 *
+	 * @param username the user to look up.
+	 *
+	 * @return the client of the user, or {@code null} if the user is not online.
+	 */
+	public ClientHandler getHandler(String username) {
+		return this.users.getClient(username);
 	}
 
 	/**
@@ -208,7 +523,7 @@ public class Server {
 	 * @return number of users currently online.
 	 */
 	public int getNumOnlineUsers() {
-		return this.numOnlineUsers;
+		return this.users.numOnline();
 	}
 
 	/**
@@ -217,7 +532,7 @@ public class Server {
 	 * @return number of users currently offline.
 	 */
 	public int getNumOfflineUsers() {
-		return this.numOfflineUsers;
+		return this.users.numOffline();
 	}
 
 	/**
@@ -239,31 +554,40 @@ public class Server {
 	}
 
 	/**
-	 * Gets all the currently online users.
+	 * Gets a snapshot of all the currently online users.
 	 *
 	 * @return all users currently online.
 	 */
-	public ArrayList<String> getOnlineUsers() {
-		return this.onlineUsers;
+	public List<String> getOnlineUsers() {
+		return this.users.onlineNames();
 	}
 
 	/**
-	 * Gets all the currently offline users.
+	 * Gets a snapshot of all the currently offline users.
 	 *
 	 * @return all users currently offline.
 	 */
-	public ArrayList<String> getOfflineUsers() {
-		return this.offlineUsers;
+	public List<String> getOfflineUsers() {
+		return this.users.offlineNames();
 	}
 
 	/**
-	 * Gets all the users that have connected to the server (even if currently
-	 * disconnected from the server).
+	 * Gets a snapshot of all the users that have connected to the server (even
+	 * if currently disconnected from the server).
 	 *
 	 * @return all users that have connected to server.
 	 */
-	public ArrayList<String> getAllUsers() {
-		return this.allUsers;
+	public List<String> getAllUsers() {
+		return this.users.allNames();
+	}
+
+	/**
+	 * Gets the directory of all users that have connected to the server.
+	 *
+	 * @return the user directory.
+	 */
+	public UserDirectory getUsers() {
+		return this.users;
 	}
 
 	/**
@@ -271,13 +595,87 @@ public class Server {
 	 *
 	 * @return all client threads connected to server.
 	 */
-	public ArrayList<ClientHandler> getClients() {
+	public List<ClientHandler> getClients() {
 		return this.clients;
 	}
 
+	/**
+	 * Gets the broadcaster that fans frames out to every client.
+	 *
+	 * @return the broadcaster.
+	 */
+	public Broadcaster getBroadcaster() {
+		return this.broadcaster;
+	}
+
+	/**
+	 * Gets the metrics of the server.
+	 *
+	 * @return metrics updated by all clients.
+	 */
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Gets the most recent global messages.
+	 *
+	 * @return the message history.
+	 */
+	public History getHistory() {
+		return this.history;
+	}
+
+	/**
+	 * Gets the log that keeps messages and whispers on disk.
+	 *
+	 * @return the message log.
+	 */
+	public MessageLog getStore() {
+		return this.store;
+	}
+
+	/**
+	 * Gets the whispers waiting for users who are offline.
+	 *
+	 * @return the mailboxes of all users.
+	 */
+	public Mailboxes getMailboxes() {
+		return this.mailboxes;
+	}
+
+	/**
+	 * Gets the index used to search messages and whispers.
+	 *
+	 * @return the search index.
+	 */
+	public SearchIndex getSearch() {
+		return this.search;
+	}
+
+	/**
+	 * Gets the other servers this one shares the chat with.
+	 *
+	 * @return the cluster of this server.
+	 */
+	public Cluster getCluster() {
+		return this.cluster;
+	}
+
+	/**
+	 * Gets the rate limits shared by all clients.
+	 *
+	 * @return the rate limiter.
+	 */
+	public RateLimiter getLimiter() {
+		return this.limiter;
+	}
+
 	/**
 	 * Main function.
 	 *
+	 * Usage: {@code Server [port] [blocking|virtual|nio] [metrics port]}
+	 *
 	 * @param args the command-line arguments.
 	 * @throws IOException when server cannot be started.
 	 */
@@ -299,8 +697,24 @@ public class Server {
 			}
 		});
 
+		int port = 8080;
+		Mode mode = Mode.BLOCKING;
+		int metricsPort = -1;
+
+		if (args.length > 0) {
+			port = Integer.parseInt(args[0]);
+		}
+
+		if (args.length > 1) {
+			mode = Mode.valueOf(args[1].toUpperCase());
+		}
+
+		if (args.length > 2) {
+			metricsPort = Integer.parseInt(args[2]);
+		}
+
 		// connect and start server
-		Server server = new Server(8080);
+		Server server = new Server(port, mode, metricsPort);
 		server.start();
 	}
 }
@@ -0,0 +1,78 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TokenBucket class to limit how often something may happen.
+ *
+ * The bucket refills at a steady rate up to a burst size. Rather than
+ * counting tokens it keeps the single time at which the bucket would next be
+ * full, which is moved forward by one interval per token taken. Taking a token
+ * is one compare-and-set, so a bucket can be shared between threads without a
+ * lock.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class TokenBucket {
+
+	// globals
+	private final long interval; /*<< nanoseconds to refill one token */
+	private final long slack;    /*<< how far ahead of now the bucket may be drawn */
+
+	private final AtomicLong full; /*<< time at which the bucket is full again */
+
+	/**
+	 * Constructor for a bucket that starts full.
+	 *
+	 * @param perSecond tokens added per second.
+	 * @param burst the most tokens that can be taken at once.
+	 */
+	public TokenBucket(double perSecond, int burst) {
+		this.interval = Math.max(1, (long) (1e9 / perSecond));
+		this.slack = this.interval * Math.max(1, burst);
+		this.full = new AtomicLong(System.nanoTime() - this.slack);
+	}
+
+	/**
+	 * Takes a token if one is available.
+	 *
+	 * @param now the current {@code System.nanoTime()}.
+	 *
+	 * @return {@code 0} if a token was taken, otherwise the nanoseconds until
+	 * the next token is available.
+	 */
+	public long take(long now) {
+		while (true) {
+			long current = this.full.get();
+			long start = current - now < 0 ? now : current;
+			long next = start + this.interval;
+
+			if (next - now > this.slack) {
+				return next - now - this.slack;
+			}
+
+			if (this.full.compareAndSet(current, next)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns if the bucket has refilled, so it is no different from a new one.
+	 *
+	 * @param now the current {@code System.nanoTime()}.
+	 *
+	 * @return {@code true} if the bucket is full, {@code false} otherwise.
+	 */
+	public boolean isFull(long now) {
+		return this.full.get() - now <= 0;
+	}
+
+	/**
+	 * Puts back a token that was taken but not used.
+	 */
+	public void giveBack() {
+		this.full.addAndGet(-this.interval);
+	}
+}
@@ -0,0 +1,376 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * UserDirectory class to keep track of every user that has connected to the
+ * server and which of them are currently online.
+ *
+ * Every username that has ever logged in is given a small integer id. The
+ * names themselves are packed back to back as UTF-8 in one byte array, found
+ * through an open-addressing table of ids, so millions of historical users cost
+ * a few bytes each instead of a boxed String in a list. New names are added
+ * under a lock; lookups never lock.
+ *
+ * Online users are kept in a concurrent map from username to the client they
+ * are connected on. A known user that is not in that map is offline.
+ *
+ * @since 16 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class UserDirectory {
+
+	// globals
+	private static final int INITIAL_USERS = 1024;
+
+	private volatile byte[] names;   /*<< length-prefixed UTF-8 usernames */
+	private volatile int[] offsets;  /*<< start of each user's name in names */
+	private volatile int[] hashes;   /*<< hash of each user's name */
+	private volatile AtomicIntegerArray table; /*<< open-addressing table of id + 1 */
+	private volatile int count;      /*<< number of known users */
+	private int namesLength;         /*<< bytes of names in use, guarded by this */
+
+	private final ConcurrentHashMap<String, ClientHandler> online; /*<< online clients by username */
+
+	// default constructor
+	public UserDirectory() {
+		this.names = new byte[INITIAL_USERS * 16];
+		this.offsets = new int[INITIAL_USERS];
+		this.hashes = new int[INITIAL_USERS];
+		this.table = new AtomicIntegerArray(INITIAL_USERS * 2);
+		this.count = 0;
+		this.namesLength = 0;
+
+		this.online = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Marks a user as online on the given client, unless the username is
+	 * already online on another client. Users seen for the first time are
+	 * given an id.
+	 *
+	 * @param username user that went online.
+	 * @param client the client the user is connected on.
+	 *
+	 * @return {@code true} if the user went online, {@code false} if the
+	 * username is already online.
+	 */
+	public boolean goOnline(String username, ClientHandler client) {
+		if (this.online.putIfAbsent(username, client) != null) {
+			return false;
+		}
+
+		register(username);
+		return true;
+	}
+
+	/**
+	 * Marks a user as offline, if the user is online on the given client.
+	 *
+	 * @param username user that went offline.
+	 * @param client the client the user was connected on.
+	 *
+	 * @return {@code true} if the user went offline, {@code false} otherwise.
+	 */
+	public boolean goOffline(String username, ClientHandler client) {
+		return this.online.remove(username, client);
+	}
+
+	/**
+	 * Gets the client a user is currently connected on.
+	 *
+	 * @param username the user to look up.
+	 *
+	 * @return the client of the user, or {@code null} if the user is not online.
+	 */
+	public ClientHandler getClient(String username) {
+		return this.online.get(username);
+	}
+
+	/**
+	 * Returns if a user is currently online.
+	 *
+	 * @param username the user to check.
+	 *
+	 * @return {@code true} if the user is online, {@code false} otherwise.
+	 */
+	public boolean isOnline(String username) {
+		return this.online.containsKey(username);
+	}
+
+	/**
+	 * Returns if a user has ever been online.
+	 *
+	 * @param username the user to check.
+	 *
+	 * @return {@code true} if the user is known, {@code false} otherwise.
+	 */
+	public boolean exists(String username) {
+		return idOf(username) >= 0;
+	}
+
+	/**
+	 * Gets the id of a known user.
+	 *
+	 * @param username the user to look up.
+	 *
+	 * @return the id of the user, or {@code -1} if the user is not known.
+	 */
+	public int idOf(String username) {
+		return find(username.getBytes(StandardCharsets.UTF_8), hash(username));
+	}
+
+	/**
+	 * Gets the username of a known user.
+	 *
+	 * @param id the id of the user.
+	 *
+	 * @return the username of the user.
+	 * @throws IndexOutOfBoundsException when no user has the id.
+	 */
+	public String nameOf(int id) {
+		if (id < 0 || id >= this.count) {
+			throw new IndexOutOfBoundsException("No user with id " + id);
+		}
+
+		int off = this.offsets[id];
+		byte[] arena = this.names;
+		int len = ((arena[off] & 0xFF) << 8) | (arena[off + 1] & 0xFF);
+
+		return new String(arena, off + 2, len, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Adds a user to the directory if not already known.
+	 *
+	 * @param username the user to add.
+	 *
+	 * @return the id of the user.
+	 */
+	public synchronized int register(String username) {
+		byte[] bytes = username.getBytes(StandardCharsets.UTF_8);
+		int h = hash(username);
+		int id = find(bytes, h);
+
+		if (id >= 0) {
+			return id;
+		}
+
+		id = this.count;
+
+		// name bytes must be in place before the id can be found
+		byte[] arena = this.names;
+		if (this.namesLength + 2 + bytes.length > arena.length) {
+			byte[] bigger = new byte[Math.max(arena.length * 2, this.namesLength + 2 + bytes.length)];
+			System.arraycopy(arena, 0, bigger, 0, this.namesLength);
+			arena = bigger;
+		}
+
+		int off = this.namesLength;
+		arena[off] = (byte) (bytes.length >>> 8);
+		arena[off + 1] = (byte) bytes.length;
+		System.arraycopy(bytes, 0, arena, off + 2, bytes.length);
+		this.namesLength += 2 + bytes.length;
+		this.names = arena;
+
+		int[] offs = this.offsets;
+		int[] hs = this.hashes;
+		if (id == offs.length) {
+			offs = grow(offs);
+			hs = grow(hs);
+		}
+
+		offs[id] = off;
+		hs[id] = h;
+		this.offsets = offs;
+		this.hashes = hs;
+		this.count = id + 1;
+
+		// keep table at most half full
+		AtomicIntegerArray t = this.table;
+		if (2 * (id + 1) > t.length()) {
+			t = new AtomicIntegerArray(t.length() * 2);
+
+			for (int i = 0; i < id; i++) {
+				insert(t, i, hs[i]);
+			}
+
+			insert(t, id, h);
+			this.table = t;
+		} else {
+			insert(t, id, h);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Finds the id of a name without locking.
+	 *
+	 * @param bytes the name encoded as UTF-8.
+	 * @param h the hash of the name.
+	 *
+	 * @return the id of the name, or {@code -1} if not found.
+	 */
+	private int find(byte[] bytes, int h) {
+		AtomicIntegerArray t = this.table;
+		int mask = t.length() - 1;
+
+		for (int i = h & mask; ; i = (i + 1) & mask) {
+			int slot = t.get(i);
+
+			if (slot == 0) {
+				return -1;
+			}
+
+			int id = slot - 1;
+			if (this.hashes[id] == h && matches(id, bytes)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Compares the name of an id with the given bytes.
+	 *
+	 * @param id the id to compare.
+	 * @param bytes the name encoded as UTF-8.
+	 *
+	 * @return {@code true} if the names are equal, {@code false} otherwise.
+	 */
+	private boolean matches(int id, byte[] bytes) {
+		int off = this.offsets[id];
+		byte[] arena = this.names;
+		int len = ((arena[off] & 0xFF) << 8) | (arena[off + 1] & 0xFF);
+
+		if (len != bytes.length) {
+			return false;
+		}
+
+		for (int i = 0; i < len; i++) {
+			if (arena[off + 2 + i] != bytes[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Puts an id into the first free slot for its hash.
+	 */
+	private static void insert(AtomicIntegerArray t, int id, int h) {
+		int mask = t.length() - 1;
+		int i = h & mask;
+
+		while (t.get(i) != 0) {
+			i = (i + 1) & mask;
+		}
+
+		t.set(i, id + 1);
+	}
+
+	/**
+	 * Doubles the length of an array.
+	 */
+	private static int[] grow(int[] arr) {
+		int[] bigger = new int[arr.length * 2];
+		System.arraycopy(arr, 0, bigger, 0, arr.length);
+		return bigger;
+	}
+
+	/**
+	 * Spreads the bits of the String hash, since the table is indexed by the
+	 * low bits only.
+	 */
+	private static int hash(String username) {
+		int h = username.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Gets the number of users currently online.
+	 *
+	 * @return number of online users.
+	 */
+	public int numOnline() {
+		return this.online.size();
+	}
+
+	/**
+	 * Gets the number of known users that are currently offline.
+	 *
+	 * @return number of offline users.
+	 */
+	public int numOffline() {
+		return Math.max(0, this.count - this.online.size());
+	}
+
+	/**
+	 * Gets the number of users that have ever been online.
+	 *
+	 * @return number of known users.
+	 */
+	public int size() {
+		return this.count;
+	}
+
+	/**
+	 * Gets the clients of all online users.
+	 *
+	 * @return live view of the online clients.
+	 */
+	public Collection<ClientHandler> onlineClients() {
+		return this.online.values();
+	}
+
+	/**
+	 * Gets a snapshot of the usernames of all online users.
+	 *
+	 * @return usernames of online users.
+	 */
+	public List<String> onlineNames() {
+		return new ArrayList<>(this.online.keySet());
+	}
+
+	/**
+	 * Gets a snapshot of the usernames of all known users that are offline.
+	 *
+	 * @return usernames of offline users.
+	 */
+	public List<String> offlineNames() {
+		ArrayList<String> offline = new ArrayList<>();
+		int n = this.count;
+
+		for (int id = 0; id < n; id++) {
+			String name = nameOf(id);
+
+			if (!this.online.containsKey(name)) {
+				offline.add(name);
+			}
+		}
+
+		return offline;
+	}
+
+	/**
+	 * Gets a snapshot of the usernames of all known users.
+	 *
+	 * @return usernames of all users that have been online.
+	 */
+	public List<String> allNames() {
+		int n = this.count;
+		ArrayList<String> all = new ArrayList<>(n);
+
+		for (int id = 0; id < n; id++) {
+			all.add(nameOf(id));
+		}
+
+		return all;
+	}
+}
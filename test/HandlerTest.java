@@ -0,0 +1,277 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HandlerTest class with tests of what a handler sends its client.
+ *
+ * Handlers are made without a socket and only queue their frames, which the
+ * tests take off the queue and decode again the way a client would.
+ *
+ * @since 17 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class HandlerTest {
+
+	// globals
+	private static final int ROUNDS = 1000;/*<< logins raced against a whisper */
+
+	/**
+	 * Adds the handler tests.
+	 *
+	 * @param checks tests by name.
+	 */
+	public static void register(Map<String, Tests.Check> checks) {
+		checks.put("history.replaysMaxLengthMessage", HandlerTest::replaysMaxLengthMessage);
+		checks.put("mailbox.deliversMaxLengthWhisper", HandlerTest::deliversMaxLengthWhisper);
+		checks.put("history.escapesNewlines", HandlerTest::escapesNewlines);
+		checks.put("login.replyBeforeWhisper", HandlerTest::replyBeforeWhisper);
+		checks.put("proto.takenBackInText", HandlerTest::protoTakenBackInText);
+		checks.put("slow.disconnectFrameCounted", HandlerTest::disconnectFrameCounted);
+	}
+
+	/**
+	 * A message as long as a frame allows, kept in the history, still lets
+	 * users log in and is replayed to them, cut short where it has to be.
+	 */
+	private static void replaysMaxLengthMessage() throws Exception {
+		Server server = new Server(0);
+		String text = "x".repeat(Frame.MAX_LENGTH - 16);
+		server.getHistory().add(0, "alice", text, System.currentTimeMillis());
+		server.getHistory().add(0, "alice", "after", System.currentTimeMillis());
+
+		for (int version : new int[] {Command.TEXT, Command.BINARY}) {
+			ClientHandler handler = new ClientHandler(server);
+
+			if (version == Command.BINARY) {
+				handler.proto("2");
+				drain(handler);
+			}
+
+			handler.login("bob" + version);
+			Tests.check(handler.getUsername().equals("bob" + version), "not logged in");
+
+			int replayed = 0;
+
+			for (byte[] frame : drain(handler)) {
+				Tests.check(frame.length <= Frame.MAX_LENGTH, "frame of " + frame.length + " bytes");
+				replayed += entries(frame, version, Command.HISTORY);
+			}
+
+			Tests.check(replayed == 2, replayed + " of 2 messages replayed on protocol " + version);
+		}
+	}
+
+	/**
+	 * A whisper as long as a frame allows, kept for an offline user, still
+	 * lets them log in and is delivered, cut short where it has to be.
+	 */
+	private static void deliversMaxLengthWhisper() throws Exception {
+		Server server = new Server(0);
+		String text = "y".repeat(Frame.MAX_LENGTH - 16);
+
+		for (int version : new int[] {Command.TEXT, Command.BINARY}) {
+			String user = "carol" + version;
+			server.getMailboxes().put(user, "alice", text, System.currentTimeMillis());
+			server.getMailboxes().put(user, "alice", "after", System.currentTimeMillis());
+
+			ClientHandler handler = new ClientHandler(server);
+
+			if (version == Command.BINARY) {
+				handler.proto("2");
+				drain(handler);
+			}
+
+			handler.login(user);
+			Tests.check(handler.getUsername().equals(user), "not logged in");
+
+			int delivered = 0;
+
+			for (byte[] frame : drain(handler)) {
+				Tests.check(frame.length <= Frame.MAX_LENGTH, "frame of " + frame.length + " bytes");
+				delivered += entries(frame, version, Command.MAILBOX);
+			}
+
+			Tests.check(delivered == 2, delivered + " of 2 whispers delivered on protocol " + version);
+		}
+	}
+
+	/**
+	 * A message with newlines stays on one line of a text {@code history}
+	 * frame and reads back as it was sent.
+	 */
+	private static void escapesNewlines() throws Exception {
+		Server server = new Server(0);
+		String text = "one\ntwo \\n three\\";
+		server.getHistory().add(0, "alice", text, System.currentTimeMillis());
+
+		ClientHandler handler = new ClientHandler(server);
+		handler.login("erin");
+
+		List<byte[]> frames = drain(handler);
+		int replayed = 0;
+
+		for (byte[] frame : frames) {
+			replayed += entries(frame, Command.TEXT, Command.HISTORY);
+		}
+
+		Tests.check(replayed == 1, replayed + " lines for 1 message");
+
+		for (byte[] frame : frames) {
+			String batch = Frame.decodeText(frame, 0, frame.length);
+
+			if (batch.startsWith("history\n")) {
+				String line = batch.substring(batch.indexOf(" : ") + 3);
+				Tests.check(Frame.unescapeLine(line).equals(text), "read back as " + line);
+			}
+		}
+	}
+
+	/**
+	 * A whisper sent the moment a user's name is claimed is queued after the
+	 * login reply, and is not lost.
+	 */
+	private static void replyBeforeWhisper() throws Exception {
+		Server server = new Server(0);
+
+		for (int round = 0; round < ROUNDS; round++) {
+			String user = "hank" + round;
+			ClientHandler handler = new ClientHandler(server);
+			Thread login = new Thread(() -> handler.login(user));
+			login.start();
+
+			ClientHandler recipient;
+			while ((recipient = server.getHandler(user)) == null) {
+				Thread.onSpinWait();
+			}
+
+			recipient.whisperFrom("alice", 0, "hi");
+			login.join();
+
+			List<byte[]> frames = drain(handler);
+			String reply = Frame.decodeText(frames.get(0), 0, frames.get(0).length);
+			Tests.check(reply.equals("login success"), "first frame of round " + round + " is " + reply);
+
+			boolean whispered = false;
+			for (byte[] frame : frames) {
+				whispered |= Frame.decodeText(frame, 0, frame.length).equals("whsp alice : hi");
+			}
+
+			Tests.check(whispered, "whisper lost in round " + round);
+		}
+	}
+
+	/**
+	 * A client that gave up waiting for the answer to {@code "proto 2"} can
+	 * still take it back in text once the server has switched to binary.
+	 */
+	private static void protoTakenBackInText() throws Exception {
+		Server server = new Server(0);
+		ClientHandler handler = new ClientHandler(server);
+
+		handler.proto("2");
+		drain(handler);
+
+		byte[] proto = "proto 1".getBytes(StandardCharsets.UTF_8);
+		Tests.check(handler.handle(proto, 0, proto.length), "connection closed");
+
+		List<byte[]> frames = drain(handler);
+		Tests.check(frames.size() == 1, frames.size() + " replies to proto");
+		Tests.check(Frame.decodeText(frames.get(0), 0, frames.get(0).length).equals("proto 1"), "not back on text");
+
+		byte[] login = "login dave".getBytes(StandardCharsets.UTF_8);
+		handler.handle(login, 0, login.length);
+		Tests.check(handler.getUsername().equals("dave"), "text login not understood");
+	}
+
+	/**
+	 * The disconnect frame counts towards the backlog like any other, so the
+	 * backlog is back to nothing once it has been written.
+	 */
+	private static void disconnectFrameCounted() throws Exception {
+		Server server = new Server(0);
+		ClientHandler handler = new ClientHandler(server);
+		handler.login("frank");
+		handler.message("hello");
+
+		Tests.check(handler.disconnect("kicked"), "not disconnected");
+
+		Frame bye = handler.outbound.peek();
+		Tests.check(bye != null, "no disconnect frame");
+		Tests.check(handler.getQueuedBytes() == bye.size(), handler.getQueuedBytes() + " bytes queued");
+
+		handler.drained(bye.size());
+		Tests.check(handler.getQueuedBytes() == 0, handler.getQueuedBytes() + " bytes left once written");
+		drain(handler);
+	}
+
+	/**
+	 * Counts the messages in a frame, if it is a {@code HISTORY} or
+	 * {@code MAILBOX} frame.
+	 *
+	 * @param frame the payload of the frame.
+	 * @param version the protocol it is in.
+	 * @param cmd the command of the frames to count.
+	 *
+	 * @return the number of messages, 0 for any other frame.
+	 */
+	private static int entries(byte[] frame, int version, Command cmd) throws IOException {
+		if (version == Command.TEXT) {
+			String text = Frame.decodeText(frame, 0, frame.length);
+			return text.startsWith(cmd.getKey() + "\n") ? text.split("\n").length - 1 : 0;
+		}
+
+		if (frame[0] != cmd.getOpcode()) {
+			return 0;
+		}
+
+		FrameReader in = new FrameReader().reset(frame, 1, frame.length - 1);
+		int n = 0;
+
+		while (in.hasRemaining()) {
+			if (cmd == Command.HISTORY) {
+				in.getLong();
+			}
+
+			in.getLong();
+			in.getInt();
+			in.getString();
+			n++;
+		}
+
+		return n;
+	}
+
+	/**
+	 * Takes every frame queued for a client.
+	 *
+	 * @param handler the handler to drain.
+	 *
+	 * @return the payload of every frame, in order.
+	 * @throws IOException when a frame cannot be read back.
+	 */
+	public static List<byte[]> drain(ClientHandler handler) throws IOException {
+		List<byte[]> frames = new ArrayList<>();
+		Frame frame;
+
+		while ((frame = handler.outbound.poll()) != null) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			frame.writeTo(out);
+			frame.release();
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+			byte[] payload = new byte[in.readUnsignedShort()];
+			in.readFully(payload);
+			frames.add(payload);
+		}
+
+		return frames;
+	}
+}
@@ -0,0 +1,51 @@
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LimiterTest class with tests of the rate limits.
+ *
+ * @since 17 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class LimiterTest {
+
+	// globals
+	private static final int USERS = 1000;
+
+	/**
+	 * Adds the rate limit tests.
+	 *
+	 * @param checks tests by name.
+	 */
+	public static void register(Map<String, Tests.Check> checks) {
+		checks.put("limit.quietUsersExpire", LimiterTest::quietUsersExpire);
+	}
+
+	/**
+	 * Users who have been quiet until their buckets refilled are forgotten,
+	 * while a user still over the limit keeps their buckets.
+	 */
+	private static void quietUsersExpire() throws Exception {
+		RateLimiter limiter = new RateLimiter();
+		long now = System.nanoTime();
+
+		for (int i = 0; i < USERS; i++) {
+			limiter.check(limiter.newBuckets(), "user" + i, Command.MSG, now);
+		}
+
+		// one user sends a burst, from connection after connection
+		while (limiter.check(limiter.newBuckets(), "flooder", Command.MSG, now) == 0) {
+			continue;
+		}
+
+		Tests.check(limiter.size() == USERS + 1, limiter.size() + " users tracked");
+
+		// a second later one token is back for everyone, but the burst is not
+		long later = now + TimeUnit.SECONDS.toNanos(1);
+		Tests.check(limiter.expire(later) == USERS, "quiet users not expired");
+		Tests.check(limiter.size() == 1, limiter.size() + " users left");
+		Tests.check(limiter.check(limiter.newBuckets(), "flooder", Command.MSG, later) == 0, "no token after a second");
+	}
+}
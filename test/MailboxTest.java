@@ -0,0 +1,66 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * MailboxTest class with tests of the mailboxes saved to disk.
+ *
+ * @since 17 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class MailboxTest {
+
+	// globals
+	private static final long SAVE_WAIT = 5000; /*<< ms to wait for the background save */
+
+	/**
+	 * Adds the mailbox tests.
+	 *
+	 * @param checks tests by name.
+	 */
+	public static void register(Map<String, Tests.Check> checks) {
+		checks.put("mailbox.savesLongUsername", MailboxTest::savesLongUsername);
+	}
+
+	/**
+	 * The mailbox of a user whose name is too long to spell out in a file
+	 * name is still saved, and loads again.
+	 */
+	private static void savesLongUsername() throws Exception {
+		File dir = Files.createTempDirectory("chatter-mailboxes").toFile();
+		String user = "z".repeat(200);
+
+		try {
+			Mailboxes saved = new Mailboxes(dir);
+			saved.open();
+			saved.put(user, "alice", "hi", System.currentTimeMillis());
+
+			long deadline = System.currentTimeMillis() + SAVE_WAIT;
+			while (boxes(dir).length == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+
+			Tests.check(boxes(dir).length == 1, "mailbox not saved");
+			Tests.check(boxes(dir)[0].getName().length() < 255, "file name too long");
+
+			Mailboxes loaded = new Mailboxes(dir);
+			loaded.open();
+			Tests.check(loaded.take(user).size() == 1, "mailbox not loaded again");
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Gets the saved mailboxes in a directory.
+	 */
+	private static File[] boxes(File dir) {
+		return dir.listFiles((d, name) -> name.endsWith(".box"));
+	}
+}
@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PoolTest class with tests of the pooled frames shared by broadcasts.
+ *
+ * @since 17 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class PoolTest {
+
+	// globals
+	private static final int CLIENTS = 64;
+	private static final int BROADCASTS = 512; /*<< fewer than a client queue holds */
+	private static final int ROUNDS = 50;
+
+	/**
+	 * Adds the pool tests.
+	 *
+	 * @param checks tests by name.
+	 */
+	public static void register(Map<String, Tests.Check> checks) {
+		checks.put("pool.releasedAfterCloseUnderBroadcast", PoolTest::releasedAfterCloseUnderBroadcast);
+	}
+
+	/**
+	 * Clients closed while broadcasts are still being fanned out to them give
+	 * back every pooled frame, so none are in use once the broadcasts are done.
+	 */
+	private static void releasedAfterCloseUnderBroadcast() throws Exception {
+		Server server = new Server(0);
+		Broadcaster broadcaster = new Broadcaster(2, server.getMetrics());
+		broadcaster.start();
+
+		long before = Frame.getPool().getInUse();
+
+		for (int round = 0; round < ROUNDS; round++) {
+			List<ClientHandler> clients = new ArrayList<>();
+
+			for (int i = 0; i < CLIENTS; i++) {
+				ClientHandler client = new ClientHandler(server);
+				client.login("r" + round + "u" + i);
+				HandlerTest.drain(client);
+				broadcaster.add(client);
+				clients.add(client);
+			}
+
+			long target = fannedOut(broadcaster) + (long) BROADCASTS * broadcaster.getShards().size();
+
+			Thread closer = new Thread(() -> {
+				for (ClientHandler client : clients) {
+					client.setClosed();
+					Thread.yield();
+				}
+			});
+
+			closer.start();
+
+			for (int i = 0; i < BROADCASTS; i++) {
+				broadcaster.broadcast(Command.MSG, Frame.pooled("msg alice : " + i),
+					new Frame.Builder(Command.MSG).putInt(0).putString(Integer.toString(i)).buildPooled(), null);
+			}
+
+			closer.join();
+
+			while (fannedOut(broadcaster) < target) {
+				Thread.yield();
+			}
+
+			for (ClientHandler client : clients) {
+				broadcaster.remove(client);
+				Tests.check(client.getQueueDepth() == 0, "closed client still has frames queued");
+			}
+		}
+
+		long inUse = Frame.getPool().getInUse() - before;
+		Tests.check(inUse == 0, inUse + " pooled frames still in use");
+	}
+
+	/**
+	 * Gets the number of broadcasts every shard has finished, added up.
+	 */
+	private static long fannedOut(Broadcaster broadcaster) {
+		long n = 0;
+
+		for (Broadcaster.Shard shard : broadcaster.getShards()) {
+			n += shard.getBroadcasts();
+		}
+
+		return n;
+	}
+}
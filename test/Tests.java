@@ -0,0 +1,78 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Tests class to run the checks of the server without a test framework.
+ *
+ * Every test is a named check that throws when it fails. The checks drive
+ * handlers directly, without opening sockets, and read back what was queued
+ * for the client. One line is printed per test, and the exit status is the
+ * number of tests that failed.
+ *
+ * Usage: {@code Tests [regex]}
+ *
+ * @since 17 October 2026
+ * @version 1.0.0
+ * @author Kyle Chapman, Noah Atkins
+ */
+
+public class Tests {
+
+	/**
+	 * Check interface for a single test.
+	 */
+	public interface Check {
+		/**
+		 * Runs the test.
+		 *
+		 * @throws Exception when the test fails.
+		 */
+		public void run() throws Exception;
+	}
+
+	/**
+	 * Fails the running test unless a condition holds.
+	 *
+	 * @param condition what must be true.
+	 * @param message what went wrong otherwise.
+	 */
+	public static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/**
+	 * Main function.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) {
+		Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+
+		Map<String, Check> checks = new LinkedHashMap<>();
+		HandlerTest.register(checks);
+		PoolTest.register(checks);
+		MailboxTest.register(checks);
+		LimiterTest.register(checks);
+
+		int failed = 0;
+
+		for (Map.Entry<String, Check> test : checks.entrySet()) {
+			if (!filter.matcher(test.getKey()).find()) {
+				continue;
+			}
+
+			try {
+				test.getValue().run();
+				System.out.printf("PASS  %s%n", test.getKey());
+			} catch (Throwable e) {
+				failed++;
+				System.out.printf("FAIL  %s: %s%n", test.getKey(), e);
+			}
+		}
+
+		System.exit(failed);
+	}
+}